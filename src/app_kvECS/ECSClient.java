@@ -341,11 +341,17 @@ public class ECSClient implements IECSClient {
 
     @Override
     public Collection<IECSNode> addNodes(int count, String cacheStrategy, int cacheSize) {
+        return addNodes(count, cacheStrategy, CacheSize.ofEntries(cacheSize));
+    }
+
+    @Override
+    public Collection<IECSNode> addNodes(int count, String cacheStrategy, CacheSize cacheSize) {
         if (count == 0) {
             return new ArrayList<>();
         }
 
-        ArrayList<IECSNode> newEcsNodes = (ArrayList<IECSNode>) setupNodes(count, cacheStrategy, cacheSize);
+        ArrayList<IECSNode> newEcsNodes = (ArrayList<IECSNode>) setupNodes(count, cacheStrategy,
+                cacheSize.getEntries());
 
         // Launch the server processes
         createRunSshScript(newEcsNodes, cacheStrategy, cacheSize);
@@ -410,7 +416,7 @@ public class ECSClient implements IECSClient {
         return newEcsNodes;
     }
 
-    private void createRunSshScript(ArrayList<IECSNode> iEcsNodes, String cacheStrategy, int cacheSize) {
+    private void createRunSshScript(ArrayList<IECSNode> iEcsNodes, String cacheStrategy, CacheSize cacheSize) {
 
         ECSNode ecsNode;
         StringBuilder scriptContent = new StringBuilder();
@@ -760,10 +766,11 @@ public class ECSClient implements IECSClient {
                     break;
                 }
                 case "addNodes": {
-                    Object[] a = getArguments(tokens, new ArgType[]{ArgType.INTEGER, ArgType.STRING, ArgType.INTEGER});
+                    Object[] a = getArguments(tokens, new ArgType[]{ArgType.INTEGER, ArgType.STRING,
+                            ArgType.CACHE_SIZE});
                     if (a == null)
                         return;
-                    Collection<IECSNode> nodes = addNodes((int) a[0], (String) a[1], (int) a[2]);
+                    Collection<IECSNode> nodes = addNodes((int) a[0], (String) a[1], (CacheSize) a[2]);
 
                     if (nodes.isEmpty()) {
                         System.out.println(PROMPT + "No nodes added!");
@@ -840,7 +847,8 @@ public class ECSClient implements IECSClient {
         sb.append("\n\t\t\t\t Randomly choose <numberOfNodes> servers from the available machines and start the " +
                 "KVServer " +
                 "by issuing an SSH call to the respective machine. This call launches the storage server with the " +
-                "specified cache size and replacement strategy. For simplicity, locate the KVServer.jar in the same " +
+                "specified cache size and replacement strategy. The cache size is a number of key-value pairs or a " +
+                "budget in bytes such as 64MB. For simplicity, locate the KVServer.jar in the same " +
                 "directory as the ECS. All storage servers are initialized with the metadata and any persisted " +
                 "data, and remain in state stopped.\r\n");
         sb.append(PROMPT).append("setupNodes <Nodes to Wait For> <Cache Strategy> <Cache Size>");
@@ -912,6 +920,9 @@ public class ECSClient implements IECSClient {
                     case STRING:
                         array[i - 1] = arguments[i++];
                         break;
+                    case CACHE_SIZE:
+                        array[i - 1] = CacheSize.parse(arguments[i++]);
+                        break;
                 }
             }
         } catch (Exception e) {
@@ -1,5 +1,6 @@
 package app_kvECS;
 
+import common.helper.CacheSize;
 import ecs.IECSNode;
 
 import java.util.Collection;
@@ -42,6 +43,13 @@ public interface IECSClient {
      */
     Collection<IECSNode> addNodes(int count, String cacheStrategy, int cacheSize);
 
+    /**
+     * Same as {@link #addNodes(int, String, int)}, with the cache of the servers limited either by the number of
+     * key-value pairs or by a budget in bytes
+     * @return  set of strings containing the names of the nodes
+     */
+    Collection<IECSNode> addNodes(int count, String cacheStrategy, CacheSize cacheSize);
+
     /**
      * Sets up `count` servers with the ECS (in this case Zookeeper)
      * @return  array of strings, containing unique names of servers
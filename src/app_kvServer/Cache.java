@@ -1,34 +1,76 @@
 package app_kvServer;
 
+import app_kvServer.cache.AbsentKeys;
+import app_kvServer.cache.EvictionPolicy;
+import app_kvServer.cache.FifoPolicy;
+import app_kvServer.cache.LfuPolicy;
+import app_kvServer.cache.LruPolicy;
+import app_kvServer.cache.ReadBuffer;
+import app_kvServer.cache.TinyLfuPolicy;
+import app_kvServer.storage.Expiry;
+import common.helper.CacheSize;
 import logger.LogSetup;
 import org.apache.log4j.Level;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static app_kvServer.IKVServer.CacheStrategy;
 
+/**
+ * Cache in front of the storage of a server. Values are kept in a concurrent map, so a cache hit reads its value
+ * without taking any lock; the hit is only recorded in a {@link ReadBuffer} and handed to the eviction policy of the
+ * cache strategy in batches, by whichever thread finds its buffer full and the eviction lock free. Writes, removals
+ * and fills take the eviction lock, drain the recorded hits and update map and policy together. A miss marks its key
+ * as loading while it reads the storage; a write of the key replaces or drops the mark, so a value read before the
+ * write is never filled in, while writes of other keys do not get in its way.
+ * <p>
+ * The cache is limited either by the number of key-value pairs or by a budget in bytes. With a budget every entry
+ * weighs an estimate of the memory its key and value take up, and keys are evicted until the entries fit.
+ * <p>
+ * A key found in neither storage is remembered as absent for a short while, so clients polling for a key that does
+ * not exist yet are answered from memory. Absent keys are kept in {@link AbsentKeys} next to the cached values, with
+ * a small capacity of their own, so missing keys never evict values. Every write of a key, including imports and
+ * replication, forgets it as absent.
+ */
 public class Cache {
 
     private static Logger logger = LogManager.getLogger(Cache.class);
 
-    private static int size;
-    private static CacheStrategy cacheStrategy = CacheStrategy.None;
-    private static volatile HashMap<String, String> cache = new HashMap<>();
-
-    private static boolean isCacheSetup = false;
-    private static int LRU_INIT = Integer.MAX_VALUE;
-    private static int LFU_INIT = 0;
-
-    // variables to be used for strategy eviction
-    private static volatile ArrayList<KeyStrategyPair> keyStrategyPairArray = new ArrayList<>();
-
-    private Cache() {
-    }
+    // map node, entry and the two string objects, on top of the characters themselves
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+    // average entry a byte budget is assumed to hold when sizing the eviction policy
+    private static final int EXPECTED_ENTRY_BYTES = 1024;
+    /**
+     * How long a key found in neither storage is answered as absent without looking at the storage again
+     */
+    public static final long ABSENT_TTL_MILLIS = 1000;
+    // the cache remembers one absent key per this many entries it holds
+    private static final int ENTRIES_PER_ABSENT_KEY = 10;
+    private static final int MIN_ABSENT_KEYS = 16;
+
+    private int size;
+    // 0 if the cache is only limited by its size
+    private long budgetBytes;
+    // estimated bytes of all entries, only changed under the eviction lock
+    private volatile long weight;
+    private CacheStrategy cacheStrategy = CacheStrategy.None;
+    private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+    // misses are looked up here
+    private final StorageEngine storage;
+
+    private boolean isCacheSetup = false;
+
+    // keys of the cache strategy, only used under the eviction lock
+    private EvictionPolicy policy;
+    // keys found in neither storage, null if the cache is not setup
+    private AbsentKeys absentKeys;
+    private final ReadBuffer readBuffer = new ReadBuffer();
+    // held by writes and by the thread draining the read buffer, never waited for by a cache hit
+    private final ReentrantLock evictionLock = new ReentrantLock();
 
     /**
      * sets-up cache
@@ -38,37 +80,119 @@ public class Cache {
      * @param strategy specifies the cache replacement strategy in case the cache
      *                 is full and there is a GET- or PUT-request on a key that is
      *                 currently not contained in the cache. Options are "FIFO", "LRU",
-     *                 and "LFU".
+     *                 "LFU" and "TINYLFU".
+     * @param storage  storage of the server the cache sits in front of
      */
-    public static void setup(int sizze, CacheStrategy strategy) {
+    public Cache(int sizze, CacheStrategy strategy, StorageEngine storage) {
+        this(CacheSize.ofEntries(sizze), strategy, storage);
+    }
+
+    /**
+     * sets-up cache
+     *
+     * @param cacheSize specifies how many key-value pairs or how many bytes of
+     *                  keys and values the server is allowed to keep in-memory
+     * @param strategy  specifies the cache replacement strategy in case the cache
+     *                  is full. Options are "FIFO", "LRU", "LFU" and "TINYLFU".
+     * @param storage   storage of the server the cache sits in front of
+     */
+    public Cache(CacheSize cacheSize, CacheStrategy strategy, StorageEngine storage) {
+        this.storage = storage;
         logger.info("Initializing cache");
-        if (sizze > 0 && !CacheStrategy.None.equals(strategy)) {
-            size = sizze;
+        if ((cacheSize.getEntries() > 0 || cacheSize.isByteBudget()) && !CacheStrategy.None.equals(strategy)) {
+            size = cacheSize.getEntries() > 0 ? cacheSize.getEntries() : Integer.MAX_VALUE;
+            budgetBytes = cacheSize.getBudgetBytes();
             cacheStrategy = strategy;
+            policy = createPolicy(strategy, expectedEntries(cacheSize));
+            absentKeys = new AbsentKeys(Math.max(MIN_ABSENT_KEYS,
+                    expectedEntries(cacheSize) / ENTRIES_PER_ABSENT_KEY));
             isCacheSetup = true;
             logger.info("Cache initialized!");
-            logger.debug("Strategy: " + cacheStrategy.toString());
+            logger.debug("Strategy: " + cacheStrategy.toString() + ", size: " + cacheSize);
             return;
         }
         logger.warn("Unable to initialize cache. Either size was not greater than 0 or cache strategy was none");
     }
 
+    private static int expectedEntries(CacheSize cacheSize) {
+        if (cacheSize.getEntries() > 0) {
+            return cacheSize.getEntries();
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, cacheSize.getBudgetBytes() / EXPECTED_ENTRY_BYTES));
+    }
+
+    /**
+     * Estimates the memory an entry takes up, two bytes per character plus the objects around them
+     */
+    private static long weigh(String key, String value) {
+        return ENTRY_OVERHEAD_BYTES + 2L * (key.length() + value.length());
+    }
+
+    private static EvictionPolicy createPolicy(CacheStrategy strategy, int size) {
+        switch (strategy) {
+            case LRU:
+                return new LruPolicy();
+            case LFU:
+                return new LfuPolicy(LfuPolicy.DEFAULT_AGING_FACTOR * (long) size);
+            case TINYLFU:
+                return new TinyLfuPolicy(size);
+            default:
+                return new FifoPolicy();
+        }
+    }
+
     /**
      * Check if key is in cache.
      * NOTE: does not modify any other properties
      *
      * @return true if key in storage, false otherwise
      */
-    public static boolean inCache(String key) {
-        return cache.containsKey(key);
+    public boolean inCache(String key) {
+        Entry entry = cache.get(key);
+        return entry != null && !entry.loading;
+    }
+
+    /**
+     * Check if key was recently looked up and found in neither storage
+     * NOTE: does not modify any other properties
+     *
+     * @return true if the key is known not to exist, false if it may exist
+     */
+    public boolean isKnownAbsent(String key) {
+        return isCacheSetup && absentKeys.contains(key, System.currentTimeMillis());
+    }
+
+    /**
+     * @return number of keys remembered as absent, expired ones included until they are dropped
+     */
+    public int getAbsentKeyCount() {
+        return isCacheSetup ? absentKeys.size() : 0;
+    }
+
+    /**
+     * @return estimated bytes taken up by the cached keys and values
+     */
+    public long getWeight() {
+        return weight;
     }
 
     /**
      * Clears the cache
      */
-    public static void clearCache() {
-        keyStrategyPairArray = new ArrayList<>();
-        cache = new HashMap<>();
+    public void clearCache() {
+        evictionLock.lock();
+        try {
+            readBuffer.drainTo(key -> {
+            });
+            cache.clear();
+            weight = 0;
+            if (policy != null) {
+                policy.clear();
+                absentKeys.clear();
+            }
+        } finally {
+            evictionLock.unlock();
+        }
 
         logger.info("Cache cleared!");
     }
@@ -77,172 +201,258 @@ public class Cache {
      * Looks up value in cache and updates cache using cache strategy if needed - will get value from disk if needed
      * If cache is disabled, it will look up the value from disk
      * If string is empty or null return null
+     * A cached value whose time to live is over is dropped and looked up again
+     * A key missing from disk is remembered as absent for {@link #ABSENT_TTL_MILLIS}
      *
      * @param key key to lookup value in cache or disk
      * @return looked up value if it finds key in cache or disk, if miss in both will return null
      * @throws IOException if unable to read from disk
      */
-    public static synchronized String lookup(String key) throws IOException {
-
-        // lookup from cache -- in_cache will return false if cache is not setup
-        if (inCache(key)) {
-            logger.info("Cache hit for key \"" + key + "\"");
-            String value = cache.get(key);
-            updateCache(key, value);
-            return cache.get(key);
+    public String lookup(String key) throws IOException {
+        // lookup from cache -- the map is empty if cache is not setup
+        Entry entry = cache.get(key);
+        if (entry != null && !entry.loading) {
+            if (!Expiry.isExpired(entry.expiresAt, System.currentTimeMillis())) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Cache hit for key \"" + key + "\"");
+                }
+                recordHit(key);
+                return entry.value;
+            }
+            remove(key);
+        }
+        if (isKnownAbsent(key)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Cache hit for absent key \"" + key + "\"");
+            }
+            return null;
+        }
+        Entry loading = null;
+        if (isCacheSetup) {
+            Entry mark = Entry.loading();
+            // only one lookup of a key fills it in, the others just read the storage
+            if (cache.putIfAbsent(key, mark) == null) {
+                loading = mark;
+            }
         }
 
         logger.info("Cache miss for key \"" + key + "\".. looking up in database");
-        // lookup disk and if cache is setup update it
-        String value = Persist.read(key);
-        if (isCacheSetup && value != null) {
-            updateCache(key, value);
-        } else {
-            value = Persist.readReplica(key);
-            if (isCacheSetup && value != null)
-                updateCache(key, value);
+        try {
+            // lookup disk without holding the cache, so other lookups and writes are not held up by the read
+            String value = storage.read(key);
+            if (value == null) {
+                value = storage.readReplica(key);
+            }
+            if (loading != null) {
+                if (value != null) {
+                    fill(key, value, storage.getExpiry(key), loading);
+                } else {
+                    fillAbsent(key, loading);
+                }
+            }
+            return value;
+        } finally {
+            if (loading != null) {
+                cache.remove(key, loading);
+            }
         }
-        return value;
     }
 
-    protected synchronized static void updateCache(String key, String value) {
-        switch (cacheStrategy) {
-            case LFU:
-                if (inCache(key)){
-                    cache.put(key, value);// used incase value in cache need to be modified
-                    for (int i = 0; i < keyStrategyPairArray.size(); i++) {
-                        KeyStrategyPair pair = keyStrategyPairArray.get(i);
-                        if (pair.getKey().equals(key)) {
-                            keyStrategyPairArray.set(i, new KeyStrategyPair(pair.getKey(),
-                                    pair.getStrategyInt() + 1));
-                        }
-                    }
-                }
-                else {
-                    if (cache.size() < size) {
-                        // just add it since it is less than size
-                        cache.put(key, value);
-                        keyStrategyPairArray.add(new KeyStrategyPair(key, LFU_INIT + 1));
-
-                    } else {
-                        KeyStrategyPair minPair = Collections.min(keyStrategyPairArray);
-                        cache.remove(minPair.getKey());
-                        keyStrategyPairArray.remove(minPair);
-
-                        cache.put(key, value);
-                        keyStrategyPairArray.add(new KeyStrategyPair(key, LFU_INIT + 1));
-                    }
-                }
-                break;
-            case LRU:
-                if (inCache(key)) {
-                    cache.put(key, value); // used incase value in cache need to be modified
-                    for (int i = 0; i < keyStrategyPairArray.size(); i++) {
-                        KeyStrategyPair pair = keyStrategyPairArray.get(i);
-                        if (pair.getKey().equals(key)) {
-                            keyStrategyPairArray.set(i, new KeyStrategyPair(pair.getKey(),
-                                    LRU_INIT));
-                        } else {
-                            keyStrategyPairArray.set(i, new KeyStrategyPair(pair.getKey(),
-                                    pair.getStrategyInt() - 4));
-                        }
-                    }
-                } else {
-                    if (cache.size() < size) {
-                        // just add it since it is less than size
-                        cache.put(key, value);
-                        keyStrategyPairArray.add(new KeyStrategyPair(key, LRU_INIT));
-
-                    } else {
-                        KeyStrategyPair minPair = Collections.min(keyStrategyPairArray);
-                        cache.remove(minPair.getKey());
-                        keyStrategyPairArray.remove(minPair);
-
-                        cache.put(key, value);
-                        keyStrategyPairArray.add(new KeyStrategyPair(key, LRU_INIT));
-                    }
-                }
-                break;
-            case FIFO:
-                if (!inCache(key)) {
-                    if (cache.size() < size) {
-                        // just add it since it is less than size
-                        cache.put(key, value);
-                        keyStrategyPairArray.add(new KeyStrategyPair(key, 0));
-
-                    } else {
-                        cache.remove(keyStrategyPairArray.get(0).getKey());
-                        keyStrategyPairArray.remove(0);
-
-                        cache.put(key, value);
-                        keyStrategyPairArray.add(new KeyStrategyPair(key, 0));
-                    }
-                }else{
-                    cache.put(key, value); // used incase value in cache need to be modified
-                }
-                break;
+    /**
+     * Records a hit for the eviction policy, draining the read buffers if they are full and nobody else is at it
+     */
+    private void recordHit(String key) {
+        if (readBuffer.record(key) && evictionLock.tryLock()) {
+            try {
+                readBuffer.drainTo(policy::onHit);
+                absentKeys.expire(System.currentTimeMillis());
+            } finally {
+                evictionLock.unlock();
+            }
         }
     }
 
-    protected static synchronized void remove(String key) {
-        if (isCacheSetup && inCache(key)) {
-            KeyStrategyPair keyStrategyPair = null;
-            cache.remove(key);
-            for (KeyStrategyPair keyStrPair : keyStrategyPairArray) {
-                if (key.equals(keyStrPair.getKey())) {
-                    keyStrategyPair = keyStrPair;
-                    break;
-                }
+    /**
+     * Adds a value read from storage, unless the key was written since the read started: the write may have stored a
+     * newer value than the one read, which must not end up in the cache
+     *
+     * @param loading mark the lookup left for the key, gone if the key was written meanwhile
+     */
+    private void fill(String key, String value, long expiresAt, Entry loading) {
+        evictionLock.lock();
+        try {
+            if (cache.get(key) == loading) {
+                put(key, value, expiresAt);
             }
-            if(keyStrategyPair != null){
-                keyStrategyPairArray.remove(keyStrategyPair);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Remembers a key found in neither storage as absent, unless the key was written since the read started
+     *
+     * @param loading mark the lookup left for the key, gone if the key was written meanwhile
+     */
+    private void fillAbsent(String key, Entry loading) {
+        evictionLock.lock();
+        try {
+            if (cache.remove(key, loading)) {
+                long now = System.currentTimeMillis();
+                absentKeys.add(key, now + ABSENT_TTL_MILLIS, now);
             }
+        } finally {
+            evictionLock.unlock();
         }
     }
 
-    private static class KeyStrategyPair implements Comparable<KeyStrategyPair> {
-        private String key;
-        // this value is frequency for LFU, MMM for LRY and is not used for fifo
-        private int strategyInt;
+    /**
+     * Puts a value that was just written to storage into the cache
+     *
+     * @param expiresAt expiry of the value, {@link Expiry#NEVER} if it has none
+     */
+    protected void updateCache(String key, String value, long expiresAt) {
+        evictionLock.lock();
+        try {
+            put(key, value, expiresAt);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
 
-        private KeyStrategyPair(String key, int strategyInt) {
-            this.key = key;
-            this.strategyInt = strategyInt;
+    /**
+     * Adds or replaces a value, evicting a key first if the cache is full; the policy may decide to keep the new key
+     * out instead. With a byte budget keys are evicted until the entries fit again. Called under the eviction lock
+     */
+    private void put(String key, String value, long expiresAt) {
+        if (!isCacheSetup) {
+            return;
+        }
+        readBuffer.drainTo(policy::onHit);
+        absentKeys.remove(key);
+        absentKeys.expire(System.currentTimeMillis());
+        Entry previous = cache.get(key);
+        if (previous != null && previous.loading) {
+            // a lookup still reading the storage must not fill in what it read
+            cache.remove(key, previous);
+            previous = null;
         }
+        Entry entry = new Entry(value, expiresAt, weigh(key, value));
+        if (budgetBytes > 0 && entry.weight > budgetBytes) {
+            // does not fit even into an empty cache, the old value of the key must not stay either
+            removeEntry(key);
+            return;
+        }
+        if (previous != null) {
+            // entries only change under the eviction lock, the previous one is still there
+            cache.put(key, entry);
+            weight += entry.weight - previous.weight;
+            // modifying a cached value counts as a use
+            policy.onHit(key);
+            evictOverBudget();
+            return;
+        }
+        if (hasRoomFor(entry)) {
+            cache.put(key, entry);
+            weight += entry.weight;
+            policy.onInsert(key);
+            return;
+        }
+        String evicted = policy.admit(key);
+        if (key.equals(evicted)) {
+            return;
+        }
+        if (evicted != null) {
+            discard(evicted);
+        }
+        cache.put(key, entry);
+        weight += entry.weight;
+        evictOverBudget();
+    }
+
+    private boolean hasRoomFor(Entry entry) {
+        return policy.size() < size && (budgetBytes <= 0 || weight + entry.weight <= budgetBytes);
+    }
+
+    /**
+     * Evicts keys until the entries fit into the budget, a single large value may push out several small ones
+     */
+    private void evictOverBudget() {
+        while (budgetBytes > 0 && weight > budgetBytes) {
+            String evicted = policy.evict();
+            if (evicted == null) {
+                return;
+            }
+            discard(evicted);
+        }
+    }
+
+    /**
+     * Drops the entry of a key the policy already let go of
+     */
+    private void discard(String key) {
+        Entry entry = cache.remove(key);
+        if (entry != null) {
+            weight -= entry.weight;
+        }
+    }
 
-        private String getKey() {
-            return key;
+    /**
+     * Drops the entry of a key, or the mark of a lookup loading it
+     */
+    private void removeEntry(String key) {
+        Entry entry = cache.get(key);
+        if (entry == null) {
+            return;
+        }
+        if (entry.loading) {
+            cache.remove(key, entry);
+            return;
         }
+        discard(key);
+        policy.remove(key);
+    }
 
-        private void setKey(String key) {
-            this.key = key;
+    protected void remove(String key) {
+        evictionLock.lock();
+        try {
+            if (isCacheSetup) {
+                removeEntry(key);
+                absentKeys.remove(key);
+            }
+        } finally {
+            evictionLock.unlock();
         }
+    }
 
-        private int getStrategyInt() {
-            return strategyInt;
+    /**
+     * Cached value with its expiry and estimated size. A loading entry only marks a key a lookup is reading from
+     * storage, it is not part of the eviction policy
+     */
+    private static class Entry {
+        private final String value;
+        private final long expiresAt;
+        private final long weight;
+        private final boolean loading;
+
+        private Entry(String value, long expiresAt, long weight) {
+            this(value, expiresAt, weight, false);
         }
 
-        private void setStrategyInt(int strategyInt) {
-            this.strategyInt = strategyInt;
+        private Entry(String value, long expiresAt, long weight, boolean loading) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.weight = weight;
+            this.loading = loading;
         }
 
+        private static Entry loading() {
+            return new Entry(null, Expiry.NEVER, 0, true);
+        }
 
-        /**
-         * compares 2 keystrategypairs together
-         *
-         * @param o object to compare to
-         * @return -1 if self is greater than o
-         * 1 if self is less than o
-         * 0 if equals
-         */
         @Override
-        public int compareTo(KeyStrategyPair o) {
-            if (this.getStrategyInt() < o.getStrategyInt()) {
-                return -1;
-            } else if (this.getStrategyInt() > o.getStrategyInt()) {
-                return 1;
-            }
-            return 0;
+        public String toString() {
+            return value;
         }
     }
 
@@ -251,58 +461,60 @@ public class Cache {
         // testing caching
         new LogSetup("logs/server/server.log", Level.ALL);
 
-        Cache.setup(3, CacheStrategy.LFU);
-        Persist.init("");
+        Persist persist = new Persist();
+        Cache cache = new Cache(3, CacheStrategy.LFU, persist);
+        persist.setCache(cache);
+        persist.init("");
 
-        Persist.write("ab", "test1");
-        System.out.println(Cache.cache.toString());
+        persist.write("ab", "test1");
+        System.out.println(cache.cache.toString());
 
-        Persist.write("ab", null);
-        System.out.println(Cache.cache.toString());
+        persist.write("ab", null);
+        System.out.println(cache.cache.toString());
 
-        Persist.write("ac", "test2");
-        System.out.println(Cache.cache.toString());
+        persist.write("ac", "test2");
+        System.out.println(cache.cache.toString());
 
-        Cache.clearCache();
+        cache.clearCache();
 
-//        Persist.write("ac", null);
-//        System.out.println(Cache.cache.toString());
+//        persist.write("ac", null);
+//        System.out.println(cache.cache.toString());
 
-        Persist.write("ad", "test3");
-        System.out.println(Cache.cache.toString());
+        persist.write("ad", "test3");
+        System.out.println(cache.cache.toString());
 
-        Persist.write("ae", "test4");
-        System.out.println(Cache.cache.toString());
+        persist.write("ae", "test4");
+        System.out.println(cache.cache.toString());
 
-        Persist.write("ac", "testX");
-        System.out.println(Cache.cache.toString());
+        persist.write("ac", "testX");
+        System.out.println(cache.cache.toString());
 
-        Persist.write("af", "test5");
-        System.out.println(Cache.cache.toString());
+        persist.write("af", "test5");
+        System.out.println(cache.cache.toString());
 
-        Persist.write("ag", "test6");
-        System.out.println(Cache.cache.toString());
+        persist.write("ag", "test6");
+        System.out.println(cache.cache.toString());
 
-        Persist.write("ah", "test7");
-        System.out.println(Cache.cache.toString());
+        persist.write("ah", "test7");
+        System.out.println(cache.cache.toString());
 
-        Persist.write("ai", "test8");
-        System.out.println(Cache.cache.toString());
+        persist.write("ai", "test8");
+        System.out.println(cache.cache.toString());
 
-        Persist.write("aj", "test9");
-        System.out.println(Cache.cache.toString());
+        persist.write("aj", "test9");
+        System.out.println(cache.cache.toString());
 
-        Persist.write("ak", "test10");
-        System.out.println(Cache.cache.toString());
+        persist.write("ak", "test10");
+        System.out.println(cache.cache.toString());
 
-        lookup("ab");
-        System.out.println(Cache.cache.toString());
+        cache.lookup("ab");
+        System.out.println(cache.cache.toString());
 
-        lookup("ab");
-        System.out.println(Cache.cache.toString());
+        cache.lookup("ab");
+        System.out.println(cache.cache.toString());
 
-        lookup("ab");
-        System.out.println(Cache.cache.toString());
+        cache.lookup("ab");
+        System.out.println(cache.cache.toString());
 
 
     }
@@ -2,6 +2,7 @@ package app_kvServer;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
+import common.ChunkedValue;
 import common.ClientServerRequestResponse;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.LogManager;
@@ -72,12 +73,8 @@ public class ClientConnection implements Runnable {
                 try {
                     String reqLine;
                     while ((reqLine = bufferedInputStream.readLine()) != null) {
-                        ClientServerRequestResponse response = handleRequest(reqLine);
-
-                        Gson gson = new Gson();
-                        outputStreamWriter.write(gson.toJson(response, ClientServerRequestResponse.class) + "\r\n");
-                        outputStreamWriter.flush();
-
+                        ClientServerRequestResponse response = handleRequest(reqLine, bufferedInputStream);
+                        writeResponse(outputStreamWriter, response);
                     }
 
                     /* connection either terminated by the client or lost due to
@@ -109,20 +106,45 @@ public class ClientConnection implements Runnable {
         }
     }
 
+    /**
+     * Writes the response, a large value follows it in chunks
+     *
+     * @throws IOException if the connection fails
+     */
+    private void writeResponse(Writer out, ClientServerRequestResponse response) throws IOException {
+        if (response.getValueStream() == null && ChunkedValue.isLarge(response.getValue())) {
+            response.setValueStream(new StringReader(response.getValue()));
+            response.setValue(null);
+        }
+        out.write(new Gson().toJson(response, ClientServerRequestResponse.class) + "\r\n");
+        if (response.isStreamed()) {
+            try (Reader value = response.getValueStream()) {
+                ChunkedValue.write(out, response.getId(), response.getKey(), value);
+            }
+        }
+        out.flush();
+    }
+
     /**
      * Handles request and request validation
      *
+     * @param in connection the request was read from, the chunks of a streamed value are read from it
      * @return Response to send back to server
+     * @throws IOException if the chunks of a streamed value can not be read
      */
-    public ClientServerRequestResponse handleRequest(String reqLine) {
+    public ClientServerRequestResponse handleRequest(String reqLine, BufferedReader in) throws IOException {
 
         ClientServerRequestResponse request;
         ClientServerRequestResponse response;
+        ChunkedValue.ChunkReader valueChunks = null;
 
         Gson gson = new Gson();
         try {
             // deserialize string into a request and pass it off to handle it
             request = gson.fromJson(reqLine, ClientServerRequestResponse.class);
+            if (request != null && request.isStreamed() && request.getStatus() == StatusType.PUT) {
+                valueChunks = ChunkedValue.read(in);
+            }
             if (validateRequest(request)) {
                 if (!kvServer.isAcceptingRequests()) {
                     return new ClientServerRequestResponse(request.getId(), request.getKey(), request.getValue(),
@@ -137,10 +159,13 @@ public class ClientConnection implements Runnable {
                                 return new ClientServerRequestResponse(request.getId(), request.getKey(), request.getValue(),
                                         StatusType.SERVER_WRITE_LOCK, null);
                             }
+                            if (valueChunks != null) {
+                                return putStream(request, valueChunks);
+                            }
                             try {
                                 boolean keyExistInStorage = kvServer.inStorage(request.getKey());
                                 boolean writeModifyDeleteStatus = kvServer.putKVWithError(request.getKey(), request
-                                        .getValue());
+                                        .getValue(), request.getTtlMillis());
 
                                 // If the user is trying to delete
                                 if (StringUtils.isEmpty(request.getValue())) {
@@ -186,6 +211,14 @@ public class ClientConnection implements Runnable {
                                 return new ClientServerRequestResponse(request.getId(), request.getKey(), request.getValue(),
                                         StatusType.SERVER_NOT_RESPONSIBLE, kvServer.getMetadata());
                             try {
+                                Reader valueStream = kvServer.getKVStream(request.getKey());
+                                if (valueStream != null) {
+                                    logger.info("get success");
+                                    ClientServerRequestResponse streamed = new ClientServerRequestResponse(request
+                                            .getId(), request.getKey(), null, StatusType.GET_SUCCESS, null);
+                                    streamed.setValueStream(valueStream);
+                                    return streamed;
+                                }
                                 String value = kvServer.getKV(request.getKey());
                                 if (value != null) {
                                     logger.info("get success");
@@ -209,11 +242,37 @@ public class ClientConnection implements Runnable {
             logger.error("Unable to parse JSON Request");
         } finally {
             response = new ClientServerRequestResponse(-1, null, null, StatusType.INVALID_REQUEST, null);
+            // the next request follows the streamed value, so the value is read off even if it was rejected
+            if (valueChunks != null) {
+                valueChunks.drain();
+            }
         }
 
         return response;
     }
 
+    /**
+     * Stores a value that arrives in chunks without holding all of it in memory
+     *
+     * @return Response to send back once the whole value is stored
+     */
+    private ClientServerRequestResponse putStream(ClientServerRequestResponse request,
+                                                  ChunkedValue.ChunkReader valueChunks) {
+        try {
+            if (kvServer.putKVStream(request.getKey(), valueChunks, request.getTtlMillis())) {
+                logger.info("write success");
+                return new ClientServerRequestResponse(request.getId(), request.getKey(), null,
+                        StatusType.PUT_SUCCESS, null);
+            }
+            logger.info("modify success");
+            return new ClientServerRequestResponse(request.getId(), request.getKey(), null,
+                    StatusType.PUT_UPDATE, null);
+        } catch (IOException e) {
+            logger.error("Unable to write streamed value to disk - " + e.getMessage());
+            return new ClientServerRequestResponse(-1, null, null, StatusType.SERVER_ERROR, null);
+        }
+    }
+
     /**
      * Validates requests
      *
@@ -221,6 +280,10 @@ public class ClientConnection implements Runnable {
      */
     private boolean validateRequest(ClientServerRequestResponse request) {
         // if status is not get or put, send invalid request
+        if (request == null) {
+            logger.error("Empty request");
+            return false;
+        }
         if (request.getStatus() != StatusType.GET && request.getStatus() != StatusType.PUT) {
             logger.error("Unknown request");
             return false;
@@ -228,7 +291,7 @@ public class ClientConnection implements Runnable {
 
         // sanity check for get
         if (request.getStatus() == StatusType.GET) {
-            if (StringUtils.isEmpty(request.getKey()) || request.getValue() != null) {
+            if (StringUtils.isEmpty(request.getKey()) || request.getValue() != null || request.isStreamed()) {
                 logger.error("Invalid GET request");
                 return false;
             }
@@ -236,7 +299,8 @@ public class ClientConnection implements Runnable {
 
         // sanity check for put
         if (request.getStatus() == StatusType.PUT) {
-            if (StringUtils.isEmpty(request.getKey())) {
+            if (StringUtils.isEmpty(request.getKey()) || (request.isStreamed() && request.getValue() != null)
+                    || request.getTtlMillis() < 0) {
                 logger.error("Invalid put request");
                 return false;
             }
@@ -5,7 +5,8 @@ public interface IKVServer {
         None("None"),
         LRU("LRU"),
         LFU("LFU"),
-        FIFO("FIFO");
+        FIFO("FIFO"),
+        TINYLFU("TINYLFU");  /* frequency filtered admission, a scan of cold keys does not flush hot ones */
 
         String value;
 
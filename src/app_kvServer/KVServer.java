@@ -1,6 +1,8 @@
 package app_kvServer;
 
+import app_kvServer.storage.StorageConfig;
 import com.google.gson.Gson;
+import common.helper.CacheSize;
 import common.helper.ZkConnector;
 import common.helper.ZkNodeTransaction;
 import common.messages.Metadata;
@@ -21,18 +23,21 @@ import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
 import java.net.InetAddress;
+import java.net.NetworkInterface;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
 import java.net.UnknownHostException;
-import java.nio.file.Files;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.ReentrantLock;
 
+import static app_kvServer.Persist.DELIMITER;
 import static app_kvServer.Persist.DELIMITER_PATTERN;
-import static app_kvServer.Persist.dbFile;
 import static common.messages.server_server.SrvSrvCommunication.Request.REPLICATE_DATA;
 import static common.messages.server_server.SrvSrvCommunication.Request.TRANSFER_DATA;
 import static common.messages.server_server.SrvSrvCommunication.Response.TRANSFERE_FAIL;
@@ -48,6 +53,9 @@ public class KVServer implements IKVServer, Runnable {
     private int port;
     private int cacheSize;
     private CacheStrategy cacheStrategy;
+    private StorageConfig storageConfig;
+    private StorageEngine storage;
+    private Cache cache;
 
     private InetAddress inetAddress;
 
@@ -105,9 +113,59 @@ public class KVServer implements IKVServer, Runnable {
      * @param strategy  specifies the cache replacement strategy in case the cache
      *                  is full and there is a GET- or PUT-request on a key that is
      *                  currently not contained in the cache. Options are "FIFO", "LRU",
-     *                  and "LFU".
+     *                  "LFU" and "TINYLFU".
      */
     public void initKVServer(int port, int cacheSize, String strategy) throws Exception {
+        initKVServer(port, cacheSize, strategy, new StorageConfig());
+    }
+
+    /**
+     * Start KV Server at given port
+     *
+     * @param port          given port for storage server to operate
+     * @param cacheSize     specifies how many key-value pairs the server is allowed
+     *                      to keep in-memory
+     * @param strategy      specifies the cache replacement strategy in case the cache
+     *                      is full and there is a GET- or PUT-request on a key that is
+     *                      currently not contained in the cache. Options are "FIFO", "LRU",
+     *                      "LFU" and "TINYLFU".
+     * @param storageConfig settings of the storage engine, e.g. whether reads are served from memory mapped segments
+     */
+    public void initKVServer(int port, int cacheSize, String strategy, StorageConfig storageConfig) throws Exception {
+        initKVServer(port, cacheSize, strategy, storageConfig, new Persist());
+    }
+
+    /**
+     * Start KV Server at given port
+     *
+     * @param port          given port for storage server to operate
+     * @param cacheSize     specifies how many key-value pairs the server is allowed
+     *                      to keep in-memory
+     * @param strategy      specifies the cache replacement strategy in case the cache
+     *                      is full and there is a GET- or PUT-request on a key that is
+     *                      currently not contained in the cache. Options are "FIFO", "LRU",
+     *                      "LFU" and "TINYLFU".
+     * @param storageConfig settings of the storage engine, e.g. whether reads are served from memory mapped segments
+     * @param storage       storage engine owned by this server, not shared with any other server
+     */
+    public void initKVServer(int port, int cacheSize, String strategy, StorageConfig storageConfig,
+                             StorageEngine storage) throws Exception {
+        initKVServer(port, CacheSize.ofEntries(cacheSize), strategy, storageConfig, storage);
+    }
+
+    /**
+     * Start KV Server at given port
+     *
+     * @param port          given port for storage server to operate
+     * @param cacheSize     specifies how many key-value pairs or how many bytes of keys
+     *                      and values the server is allowed to keep in-memory
+     * @param strategy      specifies the cache replacement strategy in case the cache
+     *                      is full. Options are "FIFO", "LRU", "LFU" and "TINYLFU".
+     * @param storageConfig settings of the storage engine, e.g. whether reads are served from memory mapped segments
+     * @param storage       storage engine owned by this server, not shared with any other server
+     */
+    public void initKVServer(int port, CacheSize cacheSize, String strategy, StorageConfig storageConfig,
+                             StorageEngine storage) throws Exception {
 
         try {
             new LogSetup("ds_data/" + name + "/logs/server.log", Level.ALL);
@@ -117,8 +175,10 @@ public class KVServer implements IKVServer, Runnable {
 
         // saving server variables
         this.port = port;
-        this.cacheSize = cacheSize;
+        this.cacheSize = cacheSize.getEntries();
         this.cacheStrategy = CacheStrategy.valueOf(strategy);
+        this.storageConfig = storageConfig;
+        this.storage = storage;
 
         // getting host info
         try {
@@ -130,9 +190,10 @@ public class KVServer implements IKVServer, Runnable {
         // Initializing the server
         logger.info("Attempting to initialize server...");
         // setting up cache
-        Cache.setup(cacheSize, cacheStrategy);
+        cache = new Cache(cacheSize, cacheStrategy, storage);
+        storage.setCache(cache);
         // setting up Database
-        if (!Persist.init("/" + name)) {
+        if (!storage.init("/" + name, storageConfig)) {
             logger.fatal("Can't start a server without a database!");
             // if persist is not available exit server.. cant live without persist but can live without cache
             System.exit(-1);
@@ -350,24 +411,30 @@ public class KVServer implements IKVServer, Runnable {
                         logger.info("lock-write");
                         lockWrite();
 
-                        HashMap<String, String> newDataPairs = req.getKvToImport();
-                        Iterator it = newDataPairs.entrySet().iterator();
-                        while (it.hasNext()) {
-                            Map.Entry next = (Map.Entry) it.next();
-                            if (!Persist.write((String) next.getKey(), (String) next.getValue())) {
-                                logger.error("Write Not Successful!");
-                                SrvSrvResponse response = new SrvSrvResponse(name, req.getServerName(), TRANSFERE_FAIL);
-                                zkNodeTransaction.createZNode(SERVER_SERVER_RESPONSE.getValue() + RESPONSE.getValue(),
-                                        gson.toJson(response).getBytes(), CreateMode.PERSISTENT_SEQUENTIAL);
-                                unlockWrite();
+                        SrvSrvResponse response;
+                        try {
+                            if (req.getSnapshotFiles() != null) {
+                                // the sender keeps its copy until we answer, a failed import is sent again as keys
+                                for (String snapshotFile : req.getSnapshotFiles()) {
+                                    storage.importRange(new File(snapshotFile));
+                                }
+                            } else {
+                                // all or nothing, so the sender only drops its copy if every key arrived
+                                storage.writeBatch(req.getKvToImport());
                             }
+                            logger.info("Write Successful!");
+                            response = new SrvSrvResponse(name, req.getServerName(), TRANSFERE_SUCCESS);
+                        } catch (IOException e) {
+                            logger.error("Write Not Successful! " + e.getMessage());
+                            response = new SrvSrvResponse(name, req.getServerName(), TRANSFERE_FAIL);
+                        }
+                        try {
+                            zkNodeTransaction.createZNode(SERVER_SERVER_RESPONSE.getValue() + RESPONSE.getValue(),
+                                    gson.toJson(response).getBytes(), CreateMode.PERSISTENT_SEQUENTIAL);
+                            logger.info("Responding with " + response.toString());
+                        } finally {
+                            unlockWrite();
                         }
-                        logger.info("Write Successful!");
-                        SrvSrvResponse response = new SrvSrvResponse(name, req.getServerName(), TRANSFERE_SUCCESS);
-                        zkNodeTransaction.createZNode(SERVER_SERVER_RESPONSE.getValue() + RESPONSE.getValue(),
-                                gson.toJson(response).getBytes(), CreateMode.PERSISTENT_SEQUENTIAL);
-                        logger.info("Responding with " + response.toString());
-                        unlockWrite();
                         break;
                     }
                     case REPLICATE_DATA: {
@@ -376,8 +443,6 @@ public class KVServer implements IKVServer, Runnable {
                             //locking to prevent data being written while a backup data transfer is happening
 
                             logger.info("got a replicate data request - " + req.toString());
-                            HashMap<String, String> newDataPairs = req.getKvToImport();
-                            Iterator it = newDataPairs.entrySet().iterator();
 
                             //assuming no byzantine failures plox
                             if (!existsInReplica(req.getHashRange())) {
@@ -393,35 +458,24 @@ public class KVServer implements IKVServer, Runnable {
                                 replicaRanges.add(insert);
                             }
                             if (req.getHashRange()[0].compareTo(req.getHashRange()[1]) >= 0) {
-                                Persist.deleteRangeReplica(new String[]{req.getHashRange()[0], Metadata.MAX_MD5});
-                                Persist.deleteRangeReplica(new String[]{Metadata.MIN_MD5, req.getHashRange()[1]});
+                                storage.deleteRangeReplica(new String[]{req.getHashRange()[0], Metadata.MAX_MD5});
+                                storage.deleteRangeReplica(new String[]{Metadata.MIN_MD5, req.getHashRange()[1]});
                             } else {
-                                Persist.deleteRangeReplica(req.getHashRange());
+                                storage.deleteRangeReplica(req.getHashRange());
                             }
                             //plz
 
-                            while (it.hasNext()) {
-                                Map.Entry next = (Map.Entry) it.next();
-                                try {
-                                    if (!Persist.writeReplica((String) next.getKey(), (String) next.getValue())) {
-                                        logger.error("Write Replica Not Successful!");
-                                        SrvSrvResponse response = new SrvSrvResponse(name, req.getServerName(),
-                                                TRANSFERE_FAIL);
-                                        zkNodeTransaction.createZNode(SERVER_SERVER_RESPONSE.getValue() + RESPONSE
-                                                        .getValue(),
-                                                gson.toJson(response).getBytes(), CreateMode.PERSISTENT_SEQUENTIAL);
-                                    } else {
-                                        logger.info("Write Replica Successful!");
-                                        SrvSrvResponse response = new SrvSrvResponse(name, req.getServerName(), TRANSFERE_SUCCESS);
-
-                                        zkNodeTransaction.createZNode(SERVER_SERVER_RESPONSE.getValue() + RESPONSE
-                                                        .getValue(),
-                                                gson.toJson(response).getBytes(), CreateMode.PERSISTENT_SEQUENTIAL);
-                                    }
-                                }catch (Exception e){
-                                    logger.error(e.getMessage());
-                                }
+                            SrvSrvResponse response;
+                            try {
+                                storage.writeReplicaBatch(req.getKvToImport());
+                                logger.info("Write Replica Successful!");
+                                response = new SrvSrvResponse(name, req.getServerName(), TRANSFERE_SUCCESS);
+                            } catch (IOException e) {
+                                logger.error("Write Replica Not Successful! " + e.getMessage());
+                                response = new SrvSrvResponse(name, req.getServerName(), TRANSFERE_FAIL);
                             }
+                            zkNodeTransaction.createZNode(SERVER_SERVER_RESPONSE.getValue() + RESPONSE.getValue(),
+                                    gson.toJson(response).getBytes(), CreateMode.PERSISTENT_SEQUENTIAL);
 
                         } catch (Exception e) {
                             SrvSrvResponse response = new SrvSrvResponse(name, req.getServerName(),
@@ -454,13 +508,13 @@ public class KVServer implements IKVServer, Runnable {
                         || metadata.isWithinRange(newRange[1], startInterval)
                         || metadata.isWithinRange(newRange[0], endInterval)
                         || metadata.isWithinRange(newRange[1], endInterval)) {
-                    Persist.deleteRangeReplica(startInterval);
-                    Persist.deleteRangeReplica(endInterval);
+                    storage.deleteRangeReplica(startInterval);
+                    storage.deleteRangeReplica(endInterval);
                     replicaRanges.remove(replicaRange);
                 }
             } else if (metadata.isWithinRange(newRange[0], replicaRange)
                     || metadata.isWithinRange(newRange[1], replicaRange)) {
-                Persist.deleteRangeReplica(replicaRange);
+                storage.deleteRangeReplica(replicaRange);
                 replicaRanges.remove(replicaRange);
             }
         }
@@ -555,7 +609,8 @@ public class KVServer implements IKVServer, Runnable {
                         key = kv.split(DELIMITER_PATTERN)[0];
                         value = kv.split(DELIMITER_PATTERN)[1];
                         if (metadata.isWithinRange(key, this.getName())) {
-                            Persist.write(key, value);
+                            // backups hold the stored form, a value with a time to live keeps its expiry
+                            storage.writeBatch(Collections.singletonMap(key, value));
                             zkNodeTransaction.delete(path);
                             logger.info("writing backup: " + key + ":" + value);
                         }
@@ -622,6 +677,13 @@ public class KVServer implements IKVServer, Runnable {
         return cacheSize;
     }
 
+    /**
+     * @return storage engine of this server
+     */
+    public StorageEngine getStorage() {
+        return storage;
+    }
+
     public Metadata getMetadata() {
         return this.metadata;
     }
@@ -629,7 +691,7 @@ public class KVServer implements IKVServer, Runnable {
     @Override
     public boolean inStorage(String key) {
         try {
-            return Persist.checkIfExists(key);
+            return storage.checkIfExists(key);
         } catch (IOException e) {
             logger.error("Can't check if " + key + " exists in storage: " + e.getMessage());
         }
@@ -642,12 +704,12 @@ public class KVServer implements IKVServer, Runnable {
 
     @Override
     public boolean inCache(String key) {
-        return Cache.inCache(key);
+        return cache.inCache(key);
     }
 
     @Override
     public String getKV(String key) throws IOException {
-        return Cache.lookup(key);
+        return cache.lookup(key);
     }
 
     @Override
@@ -656,17 +718,48 @@ public class KVServer implements IKVServer, Runnable {
     }
 
     public boolean putKVWithError(String key, String value) throws IOException {
-        return Persist.write(key, value);
+        return putKVWithError(key, value, 0);
+    }
+
+    /**
+     * Stores a value that is deleted once its time to live is over
+     *
+     * @param ttlMillis time to live of the value, 0 for a value that never expires
+     * @return true if the key was added or deleted, false if an existing key was modified or a missing key deleted
+     */
+    public boolean putKVWithError(String key, String value, long ttlMillis) throws IOException {
+        return storage.write(key, value, ttlMillis);
+    }
+
+    /**
+     * @return reader over the value of the key if it is large enough to be kept in a blob file, null otherwise
+     */
+    public Reader getKVStream(String key) throws IOException {
+        // cached values are served by getKV, a key known to be absent has no blob either
+        if (cache.inCache(key) || cache.isKnownAbsent(key)) {
+            return null;
+        }
+        return storage.readBlob(key);
+    }
+
+    /**
+     * Stores a value streamed from the reader without holding all of it in memory
+     *
+     * @param ttlMillis time to live of the value, 0 for a value that never expires
+     * @return true if the key is new, false if an existing key was modified
+     */
+    public boolean putKVStream(String key, Reader value, long ttlMillis) throws IOException {
+        return storage.writeBlob(key, value, ttlMillis);
     }
 
     @Override
     public void clearCache() {
-        Cache.clearCache();
+        cache.clearCache();
     }
 
     @Override
     public void clearStorage() {
-        Persist.clearStorage();
+        storage.clearStorage();
     }
 
     @Override
@@ -710,17 +803,10 @@ public class KVServer implements IKVServer, Runnable {
 
         stopScheduler();
 
-        // backing up data onto zookeeper
-        try {
-            ArrayList<String> fileLines = (ArrayList<String>) Files.readAllLines(dbFile.toPath());
-            logger.info("Adding keys to backup: " + fileLines.toString());
-            for (String fileLine : fileLines) {
-                zkNodeTransaction.createZNode(ZkStructureNodes.BACKUP_DATA.getValue()
-                        + ZkStructureNodes.NODE.getValue(), fileLine.getBytes(), CreateMode.PERSISTENT_SEQUENTIAL);
-            }
-        } catch (IOException | InterruptedException | KeeperException e) {
-            logger.error("failed to create a copy of the data on zookeeper b4 shutdown!");
-        }
+        backupData();
+
+        logger.info("Storage stats: " + storage.getCompressionStats() + ", " + storage.getBloomFilterStats() + ", "
+                + storage.getCompactionStats());
 
         logger.info("Closing zookeeper");
         try {
@@ -747,6 +833,31 @@ public class KVServer implements IKVServer, Runnable {
         System.exit(0);
     }
 
+    /**
+     * Keeps the data of this server for its next start: in RECOVER mode the local store is simply closed and reopened
+     * on restart, otherwise every key is copied onto zookeeper
+     */
+    private void backupData() {
+        if (storageConfig != null && storageConfig.getRecoveryMode() == StorageConfig.RecoveryMode.RECOVER) {
+            logger.info("Keeping data in the local store for recovery");
+            storage.close();
+            return;
+        }
+
+        // backing up data onto zookeeper
+        try {
+            HashMap<String, String> keyValues = storage.readAll();
+            logger.info("Adding keys to backup: " + keyValues.keySet().toString());
+            for (Map.Entry<String, String> keyValue : keyValues.entrySet()) {
+                String backupLine = keyValue.getKey() + DELIMITER + keyValue.getValue();
+                zkNodeTransaction.createZNode(ZkStructureNodes.BACKUP_DATA.getValue()
+                        + ZkStructureNodes.NODE.getValue(), backupLine.getBytes(), CreateMode.PERSISTENT_SEQUENTIAL);
+            }
+        } catch (IOException | InterruptedException | KeeperException e) {
+            logger.error("failed to create a copy of the data on zookeeper b4 shutdown!");
+        }
+    }
+
     // special function only used for testing so it does not kill junit process (removed system.exit)
     public void closeTest() {
         logger.info("Entering close()");
@@ -759,17 +870,7 @@ public class KVServer implements IKVServer, Runnable {
 
         stopScheduler();
 
-        // backing up data onto zookeeper
-        try {
-            ArrayList<String> fileLines = (ArrayList<String>) Files.readAllLines(dbFile.toPath());
-            logger.info("Adding keys to backup: " + fileLines.toString());
-            for (String fileLine : fileLines) {
-                zkNodeTransaction.createZNode(ZkStructureNodes.BACKUP_DATA.getValue()
-                        + ZkStructureNodes.NODE.getValue(), fileLine.getBytes(), CreateMode.PERSISTENT_SEQUENTIAL);
-            }
-        } catch (IOException | InterruptedException | KeeperException e) {
-            logger.error("failed to create a copy of the data on zookeeper b4 shutdown!");
-        }
+        backupData();
 
         logger.info("Closing zookeeper");
         try {
@@ -863,10 +964,10 @@ public class KVServer implements IKVServer, Runnable {
         //handling wraparound case
         HashMap<String, String> myKeyValues = new HashMap<>();
         if (hashRange[0].compareTo(hashRange[1]) > 0) {
-            myKeyValues.putAll(Persist.readRange(new String[]{hashRange[0], Metadata.MAX_MD5}));
-            myKeyValues.putAll(Persist.readRange(new String[]{Metadata.MIN_MD5, hashRange[1]}));
+            myKeyValues.putAll(storage.readRange(new String[]{hashRange[0], Metadata.MAX_MD5}));
+            myKeyValues.putAll(storage.readRange(new String[]{Metadata.MIN_MD5, hashRange[1]}));
         } else {
-            myKeyValues.putAll(Persist.readRange(hashRange));
+            myKeyValues.putAll(storage.readRange(hashRange));
         }
         return myKeyValues;
     }
@@ -875,10 +976,10 @@ public class KVServer implements IKVServer, Runnable {
         //handling wraparound case
         HashMap<String, String> myKeyValues = new HashMap<>();
         if (hashRange[0].compareTo(hashRange[1]) > 0) {
-            myKeyValues.putAll(Persist.readRangeReplica(new String[]{hashRange[0], Metadata.MAX_MD5}));
-            myKeyValues.putAll(Persist.readRangeReplica(new String[]{Metadata.MIN_MD5, hashRange[1]}));
+            myKeyValues.putAll(storage.readRangeReplica(new String[]{hashRange[0], Metadata.MAX_MD5}));
+            myKeyValues.putAll(storage.readRangeReplica(new String[]{Metadata.MIN_MD5, hashRange[1]}));
         } else {
-            myKeyValues.putAll(Persist.readRangeReplica(hashRange));
+            myKeyValues.putAll(storage.readRangeReplica(hashRange));
         }
         return myKeyValues;
     }
@@ -913,19 +1014,17 @@ public class KVServer implements IKVServer, Runnable {
         logger.info("locking server!");
         lockWrite();
 
-        //handling wraparound case
-        HashMap<String, String> myKeyValues = getKeyValues(hashRange);
-
         cleanseOldResponses();
 
-        if (sendServerReq(targetName, myKeyValues, hashRange, TRANSFER_DATA)) {
+        if (sendRangeSnapshots(targetName, hashRange)
+                || sendServerReq(targetName, getKeyValues(hashRange), hashRange, TRANSFER_DATA)) {
             logger.info("got a srv-srv response for move data");
 
             if (hashRange[0].compareTo(hashRange[1]) > 0) {
-                Persist.deleteRange(new String[]{hashRange[0], Metadata.MAX_MD5});
-                Persist.deleteRange(new String[]{Metadata.MIN_MD5, hashRange[1]});
+                storage.deleteRange(new String[]{hashRange[0], Metadata.MAX_MD5});
+                storage.deleteRange(new String[]{Metadata.MIN_MD5, hashRange[1]});
             } else {
-                Persist.deleteRange(hashRange);
+                storage.deleteRange(hashRange);
             }
             logger.info("unlock write and return success");
             unlockWrite();
@@ -936,12 +1035,81 @@ public class KVServer implements IKVServer, Runnable {
         return false;
     }
 
+    /**
+     * Hands the range to the target as snapshot files it can link into its store. The request only carries the paths
+     * of the files, so this is only tried if the target runs on the same host; any other target gets the keys right
+     * away, without cutting snapshots first
+     *
+     * @return true if the target took the range over, false if the keys have to be sent instead
+     */
+    private boolean sendRangeSnapshots(String targetName, String[] hashRange) throws KeeperException,
+            InterruptedException {
+        if (!isOnThisHost(targetName)) {
+            return false;
+        }
+        List<File> snapshots = new ArrayList<>();
+        try {
+            //handling wraparound case
+            if (hashRange[0].compareTo(hashRange[1]) > 0) {
+                snapshots.add(storage.exportRange(new String[]{hashRange[0], Metadata.MAX_MD5}));
+                snapshots.add(storage.exportRange(new String[]{Metadata.MIN_MD5, hashRange[1]}));
+            } else {
+                snapshots.add(storage.exportRange(hashRange));
+            }
+            List<String> snapshotFiles = new ArrayList<>();
+            for (File snapshot : snapshots) {
+                snapshotFiles.add(snapshot.getAbsolutePath());
+            }
+            if (sendServerReq(targetName, null, hashRange, TRANSFER_DATA, snapshotFiles)) {
+                return true;
+            }
+            logger.info("Target did not take over the range snapshots, sending the keys instead");
+        } catch (IOException e) {
+            logger.warn("Unable to cut range snapshots, sending the keys instead - " + e.getMessage());
+        } finally {
+            for (File snapshot : snapshots) {
+                if (!snapshot.delete()) {
+                    logger.warn("Unable to delete range snapshot " + snapshot.getName());
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the server of the given name runs on the same host as this one and can read its files
+     */
+    private boolean isOnThisHost(String serverName) {
+        if (metadata == null) {
+            return false;
+        }
+        for (ECSNode node : metadata.getEcsNodes()) {
+            if (node.getNodeName().equals(serverName)) {
+                try {
+                    InetAddress address = InetAddress.getByName(node.getNodeHost());
+                    return address.isLoopbackAddress() || NetworkInterface.getByInetAddress(address) != null;
+                } catch (UnknownHostException | SocketException e) {
+                    logger.warn("Unable to resolve host of " + serverName + " - " + e.getMessage());
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
     private boolean sendServerReq(String targetName, HashMap<String, String> myKeyValues, String[] hashRange,
                                   SrvSrvCommunication.Request requestType) throws KeeperException,
             InterruptedException {
+        return sendServerReq(targetName, myKeyValues, hashRange, requestType, null);
+    }
+
+    private boolean sendServerReq(String targetName, HashMap<String, String> myKeyValues, String[] hashRange,
+                                  SrvSrvCommunication.Request requestType, List<String> snapshotFiles)
+            throws KeeperException, InterruptedException {
 
         logger.info("creating a server-server req");
         SrvSrvRequest request = new SrvSrvRequest(name, targetName, hashRange, requestType, myKeyValues);
+        request.setSnapshotFiles(snapshotFiles);
         zkNodeTransaction.createZNode(SERVER_SERVER_REQUEST.getValue() + REQUEST.getValue(),
                 new Gson().toJson(request).getBytes(), CreateMode.PERSISTENT_SEQUENTIAL);
         logger.info("requesting with: " + request.toString());
@@ -976,7 +1144,18 @@ public class KVServer implements IKVServer, Runnable {
         //        }
 
         KVServer server = new KVServer(args[0], args[1], Integer.parseInt(args[2]));
-        server.initKVServer(Integer.parseInt(args[3]), Integer.parseInt(args[4]), args[5]);
+        StorageConfig storageConfig = new StorageConfig();
+        // optional 7th argument: WIPE or RECOVER
+        if (args.length > 6) {
+            storageConfig.setRecoveryMode(StorageConfig.RecoveryMode.valueOf(args[6]));
+        }
+        // optional 8th argument: DISK or OFF_HEAP
+        if (args.length > 7) {
+            storageConfig.setEngine(StorageConfig.Engine.valueOf(args[7]));
+        }
+        // 5th argument is a number of key-value pairs or a budget like 64MB
+        server.initKVServer(Integer.parseInt(args[3]), CacheSize.parse(args[4]), args[5], storageConfig,
+                new Persist());
         Thread thread = new Thread(server);
         thread.start();
 
@@ -1,5 +1,21 @@
 package app_kvServer;
 
+import app_kvServer.storage.AppliedBatch;
+import app_kvServer.storage.BlobStore;
+import app_kvServer.storage.BloomFilterStats;
+import app_kvServer.storage.CompactionStats;
+import app_kvServer.storage.Committer;
+import app_kvServer.storage.Compactor;
+import app_kvServer.storage.CompressionStats;
+import app_kvServer.storage.Expirer;
+import app_kvServer.storage.Expiry;
+import app_kvServer.storage.HintFile;
+import app_kvServer.storage.KeyValueStore;
+import app_kvServer.storage.PartitionedStore;
+import app_kvServer.storage.RangeSnapshot;
+import app_kvServer.storage.Snapshotter;
+import app_kvServer.storage.StorageConfig;
+import common.ChunkedValue;
 import common.helper.ConsistentHash;
 import logger.LogSetup;
 import org.apache.commons.lang3.StringUtils;
@@ -8,40 +24,86 @@ import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 
-public class Persist {
+public class Persist implements StorageEngine {
 
-    // Save data into multiple DB_FILES - 1 for each letter and 1 extra for all other
+    // Save data into append-only segment files of binary records - 1 set per hash bucket for primary data and for
+    // replicated data. data.db and dataREP.db are the files of the old line based format, only read for migration
     private static final String ROOT_PATH = "ds_data";
     private static final String DB_FILE_PATH = "/db";
     private static final String DB_FILE_NAME = "data.db";
     private static final String DB_REPLICA_FILE_NAME = "dataREP.db";
-    private static final String DELIMITER = "~*~*";
+    private static final String MIGRATED_SUFFIX = ".migrated";
+    private static final String DB_STORE_NAME = "data";
+    private static final String DB_REPLICA_STORE_NAME = "dataREP";
+    private static final String BLOB_DIRECTORY = "blobs";
+    private static final String TRANSFER_DIRECTORY = "transfer";
+    protected static final String DELIMITER = "~*~*";
     protected static final String DELIMITER_PATTERN = Pattern.quote(DELIMITER);
     // logger
     private static Logger logger = LogManager.getLogger(Persist.class);
-    protected static volatile File dbFile;
-    protected static volatile File dbFileReplica;
+    private volatile PartitionedStore store;
+    private volatile PartitionedStore replicaStore;
+    private volatile Compactor compactor;
+    private volatile Snapshotter snapshotter;
+    private volatile Committer committer;
+    // kept up to date with every write, null if the server runs without cache
+    private volatile Cache cache;
+    // one lock per bucket, held around a write together with the cache update that goes with it, so a concurrent
+    // write to the same key can not leave the cache with a value the store already overwrote. Primary and replica
+    // store share the locks as they share the cache
+    private volatile ReentrantLock[] shardLocks = new ReentrantLock[0];
+    // large values of the primary and replica store
+    private volatile BlobStore blobStore;
+    private volatile BlobStore replicaBlobStore;
+    private volatile int blobThreshold;
+    // range snapshots cut for and received from other servers
+    private volatile File transferDirectory;
+    private volatile int compressionThreshold;
+    // delete keys once their time to live is over, the replicas expire on their own at the same time as the original
+    private volatile Expirer expirer;
+    private volatile Expirer replicaExpirer;
 
 
-    private Persist() {
+    public Persist() {
     }
 
 
     /**
-     * Initiates directory and DB_FILES on the server to allow persisting
+     * Initiates directory and segment files on the server to allow persisting
      *
      * @param serverName
      * @return true if it server is ready to persist data, false otherwise
      */
-    public static boolean init(String serverName) {
+    public boolean init(String serverName) {
+        return init(serverName, new StorageConfig());
+    }
+
+    /**
+     * Initiates directory and segment files on the server to allow persisting
+     *
+     * @param serverName
+     * @param config     storage engine settings such as the read mode
+     * @return true if it server is ready to persist data, false otherwise
+     */
+    @Override
+    public synchronized boolean init(String serverName, StorageConfig config) {
 
         // creating directory if needed
         File directory = new File(ROOT_PATH + serverName + DB_FILE_PATH);
@@ -52,43 +114,120 @@ public class Persist {
             }
         }
 
-        // creating files if needed
+        closeStores();
+        committer = new Committer(config);
+        shardLocks = new ReentrantLock[config.getBucketCount()];
+        for (int shard = 0; shard < shardLocks.length; shard++) {
+            shardLocks[shard] = new ReentrantLock();
+        }
+
+        boolean recover = config.getRecoveryMode() == StorageConfig.RecoveryMode.RECOVER;
+
+        // creating segment files, or reopening the ones of the previous run
         try {
-            dbFile = new File(ROOT_PATH + serverName + DB_FILE_PATH + "/" + DB_FILE_NAME);
-            if(dbFile.exists()){
-                dbFile.delete();
+            store = new PartitionedStore(directory, DB_STORE_NAME, config, committer);
+            if (recover) {
+                store.recover();
+            } else {
+                store.open();
             }
-            dbFile.createNewFile();
         } catch (IOException e) {
             logger.error("Unable to create DB_FILES " + e.getMessage());
             return false;
         }
 
-        // creating replica files if needed
+        // creating replica segment files
         try {
-            dbFileReplica = new File(ROOT_PATH + serverName + DB_FILE_PATH + "/" + DB_REPLICA_FILE_NAME);
-            if(dbFileReplica.exists()){
-                dbFileReplica.delete();
+            replicaStore = new PartitionedStore(directory, DB_REPLICA_STORE_NAME, config, committer);
+            if (recover) {
+                replicaStore.recover();
+            } else {
+                replicaStore.open();
             }
-            dbFileReplica.createNewFile();
         } catch (IOException e) {
             logger.error("Unable to create DB_REPLICA_FILES " + e.getMessage());
             return false;
         }
-        
-        logger.info("Server ready to persist data");
+
+        // blob files of large values, dropped together with the segment files unless they are recovered
+        try {
+            blobStore = new BlobStore(new File(directory, BLOB_DIRECTORY + "/" + DB_STORE_NAME));
+            replicaBlobStore = new BlobStore(new File(directory, BLOB_DIRECTORY + "/" + DB_REPLICA_STORE_NAME));
+            if (recover) {
+                blobStore.open();
+                replicaBlobStore.open();
+                indexBlobs(store, blobStore);
+                indexBlobs(replicaStore, replicaBlobStore);
+            } else {
+                blobStore.clear();
+                replicaBlobStore.clear();
+            }
+        } catch (IOException e) {
+            logger.error("Unable to create blob directories " + e.getMessage());
+            return false;
+        }
+        blobThreshold = config.getBlobThreshold();
+
+        // range snapshots only live for the duration of a transfer, whatever is left belongs to an aborted one
+        transferDirectory = new File(directory, TRANSFER_DIRECTORY);
+        try {
+            if (!transferDirectory.exists() && !transferDirectory.mkdirs()) {
+                throw new IOException("Unable to create " + transferDirectory.getPath());
+            }
+            File[] leftovers = transferDirectory.listFiles();
+            if (leftovers == null) {
+                throw new IOException("Unable to list " + transferDirectory.getPath());
+            }
+            for (File leftover : leftovers) {
+                Files.delete(leftover.toPath());
+            }
+        } catch (IOException e) {
+            logger.error("Unable to prepare transfer directory " + e.getMessage());
+            return false;
+        }
+        compressionThreshold = config.getCompressionThreshold();
+
+        // one-shot import of data files written in the old line based format
+        try {
+            migrateLegacyFile(new File(directory, DB_FILE_NAME), store);
+            migrateLegacyFile(new File(directory, DB_REPLICA_FILE_NAME), replicaStore);
+        } catch (IOException e) {
+            logger.error("Unable to migrate old DB_FILES " + e.getMessage());
+            return false;
+        }
+
+        // making appends durable and compacting dead records of both stores in the background
+        committer.start();
+        List<KeyValueStore> buckets = new ArrayList<>(store.getBuckets());
+        buckets.addAll(replicaStore.getBuckets());
+        compactor = new Compactor(buckets, config);
+        compactor.start();
+        snapshotter = new Snapshotter(buckets, config);
+        snapshotter.start();
+        expirer = new Expirer("expirer", config, keys -> purgeExpired(store, blobStore, keys));
+        expirer.start();
+        replicaExpirer = new Expirer("replica-expirer", config,
+                keys -> purgeExpired(replicaStore, replicaBlobStore, keys));
+        replicaExpirer.start();
+        if (recover) {
+            scheduleRecovered(store, expirer);
+            scheduleRecovered(replicaStore, replicaExpirer);
+        }
+
+        logger.info("Server ready to persist data with " + config.toString());
         return true;
     }
 
 
     /**
-     * checks if a key exists in db;
+     * checks if a key exists in db; a key whose time to live is over does not exist any more
      *
      * @return value if key-value pair is found else null
      * @throws IOException if unable to to check if key exists in db due to db DB_FILES not opening
      */
-    public static boolean checkIfExists(String key) throws IOException {
-        return !(read(key) == null);
+    @Override
+    public boolean checkIfExists(String key) throws IOException {
+        return isLive(store, expirer, key);
     }
 
     /**
@@ -97,19 +236,12 @@ public class Persist {
      * @return value if key-value pair is found else null
      * @throws IOException if unable to to check if key exists in db due to db DB_FILES not opening
      */
-    public static synchronized String read(String key) throws IOException {
-
-        ArrayList<String> fileLines = (ArrayList<String>) Files.readAllLines(dbFile.toPath());
-        ArrayList<String> keys = new ArrayList<>();
-
-        for (String keyValue : fileLines) {
-            keys.add(keyValue.split(DELIMITER_PATTERN)[0]);
-        }
-
-        int index = keys.indexOf(key);
-        if (index != -1) {
+    @Override
+    public String read(String key) throws IOException {
+        String value = Expiry.unwrap(resolveBlob(store, blobStore, key, readStored(store, blobStore, expirer, key)));
+        if (value != null) {
             logger.info("Found key " + key + " in database!");
-            return fileLines.get(index).split(DELIMITER_PATTERN)[1];
+            return value;
         }
 
         logger.info("key \"" + key + "\" not found in database!");
@@ -119,225 +251,876 @@ public class Persist {
     /**
      * reads value from database given a range
      *
-     * @return key-value pairs within range
+     * @return key-value pairs within range, values in their stored form that carries their expiry, see
+     * {@link Expiry}; expired keys are left out
      * @throws IOException if unable to to check if key exists in db due to db DB_FILES not opening
      */
-    public static synchronized HashMap<String, String> readRange(String[] range) throws IOException {
+    @Override
+    public HashMap<String, String> readRange(String[] range) throws IOException {
+        return resolveBlobs(store, blobStore, store.readRange(range));
+    }
+
+    /**
+     * reads every key-value pair of the database
+     *
+     * @return all key-value pairs, values in their stored form that carries their expiry
+     * @throws IOException if unable to read from the db DB_FILES
+     */
+    @Override
+    public HashMap<String, String> readAll() throws IOException {
+        return resolveBlobs(store, blobStore, store.readAll());
+    }
 
-        ArrayList<String> fileLines = (ArrayList<String>) Files.readAllLines(dbFile.toPath());
-        HashMap<String, String> valuePairs = new HashMap<>();
+    /**
+     * writes value into database given a key; updates cache as well. Returns once the write is durable according to
+     * the durability mode, waiting happens outside the store lock so concurrent writers can share one group commit
+     *
+     * @return true if all is deleted false if not
+     * @throws IOException if unable to to check if key exists in db due to db DB_FILES not opening
+     */
+    @Override
+    public boolean write(String key, String value) throws IOException {
+        return write(key, value, 0);
+    }
 
-        for (String keyValue : fileLines) {
-            if (ConsistentHash.getMD5(keyValue.split(DELIMITER_PATTERN)[0]).compareTo(range[1]) <= 0
-                    && ConsistentHash.getMD5(keyValue.split(DELIMITER_PATTERN)[0]).compareTo(range[0]) >= 0)
-                valuePairs.put(keyValue.split(DELIMITER_PATTERN)[0], keyValue.split(DELIMITER_PATTERN)[1]);
+    /**
+     * writes value into database given a key, the key is deleted once its time to live is over
+     *
+     * @param ttlMillis time to live of the value, 0 for a value that lives until it is overwritten or deleted
+     * @return true if all is deleted false if not
+     * @throws IOException if unable to to check if key exists in db due to db DB_FILES not opening
+     */
+    @Override
+    public boolean write(String key, String value, long ttlMillis) throws IOException {
+        if (BlobStore.isLarge(value, blobThreshold)) {
+            return writeBlob(key, new StringReader(value), ttlMillis);
         }
+        boolean status = writeToStore(key, value, StringUtils.isEmpty(value) ? Expiry.NEVER
+                : Expiry.expiresAt(ttlMillis));
+        committer.awaitDurable();
+        return status;
+    }
 
-        return valuePairs;
+    private boolean writeToStore(String key, String value, long expiresAt) throws IOException {
+        ReentrantLock lock = shardLock(key);
+        lock.lock();
+        try {
+            boolean expired = Expiry.isExpired(storedExpiry(store, expirer, key), System.currentTimeMillis());
+            // scenario1: delete value
+            if (StringUtils.isEmpty(value)) {
+                boolean deleted = store.delete(key);
+                if (deleted) {
+                    expirer.cancel(key);
+                    blobStore.remove(key);
+                    removeFromCache(key);
+                }
+                //1.1 should not delete a none existent value, nor one whose time to live is over
+                if (!deleted || expired) {
+                    logger.warn("Trying to delete a non existing key");
+                    return false;
+                }
+                //1.2 tombstone appended for existing key
+                logger.info("deleted key: " + key);
+                return true;
+            }
+
+            // scenario2: write new key or modify existing key
+            boolean existed = store.put(key, Expiry.wrap(value, expiresAt)) && !expired;
+            expirer.schedule(key, expiresAt);
+            blobStore.remove(key);
+            updateCache(key, value, expiresAt);
+            if (!existed) {
+                logger.info("added new key: " + key + " with value: " + value);
+                return true;
+            }
+            logger.info("Modified key: " + key + " with value of: " + value);
+            return false;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
-     * writes value into database given a key; updates cache as well
+     * writes a batch of key-value pairs into database, an empty value deletes the key; all pairs are written or none
+     * of them. Returns once the whole batch is durable according to the durability mode. Values are taken in their
+     * stored form as returned by {@link #readRange(String[])}, so they keep their expiry
+     *
+     * @throws IOException if the batch could not be written, the database is left as it was before
+     */
+    @Override
+    public void writeBatch(Map<String, String> keyValues) throws IOException {
+        awaitBatch(store, expirer, keyValues.keySet(), writeBatchToStore(store, blobStore, expirer, keyValues));
+    }
+
+    /**
+     * writes a batch of key-value pairs into the replica database, all pairs are written or none of them. Values are
+     * taken in their stored form, so they expire at the same time as the original
+     *
+     * @throws IOException if the batch could not be written, the replica database is left as it was before
+     */
+    @Override
+    public void writeReplicaBatch(Map<String, String> keyValues) throws IOException {
+        awaitBatch(replicaStore, replicaExpirer, keyValues.keySet(),
+                writeBatchToStore(replicaStore, replicaBlobStore, replicaExpirer, keyValues));
+    }
+
+    /**
+     * Waits for a batch to become durable without holding its shard locks, so one sync covers the writes of other
+     * clients as well. A batch that can not be made durable is reverted under the locks again; keys written since
+     * keep their new value
+     *
+     * @throws IOException if the batch could not be made durable
+     */
+    private void awaitBatch(PartitionedStore target, Expirer targetExpirer, Collection<String> keys,
+                            List<AppliedBatch> applied) throws IOException {
+        try {
+            committer.awaitDurable();
+        } catch (IOException e) {
+            TreeSet<Integer> shards = new TreeSet<>();
+            for (String key : keys) {
+                shards.add(target.bucketIndexOf(key));
+            }
+            lockShards(shards);
+            try {
+                target.revert(applied);
+                for (String key : keys) {
+                    removeFromCache(key);
+                    try {
+                        // the reverted value brings back its own expiry
+                        String stored = target.get(key);
+                        targetExpirer.schedule(key, stored == null ? Expiry.NEVER : Expiry.expiryOf(stored));
+                    } catch (IOException readFailure) {
+                        logger.error("Unable to read reverted key " + key + " - " + readFailure.getMessage());
+                    }
+                }
+            } finally {
+                unlockShards(shards);
+            }
+            logger.error("Reverted batch of " + keys.size() + " keys that could not be made durable");
+            throw e;
+        }
+    }
+
+    private List<AppliedBatch> writeBatchToStore(PartitionedStore target, BlobStore blobs, Expirer targetExpirer,
+                                                 Map<String, String> keyValues) throws IOException {
+        HashMap<String, String> batch = new HashMap<>();
+        TreeSet<Integer> shards = new TreeSet<>();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, String> keyValue : keyValues.entrySet()) {
+            // a value whose time to live ran out on its way here is deleted instead
+            String value = keyValue.getValue();
+            batch.put(keyValue.getKey(), StringUtils.isEmpty(value) || Expiry.isExpired(value, now) ? null : value);
+            shards.add(target.bucketIndexOf(keyValue.getKey()));
+        }
+        // all shards of the batch at once, in ascending order so two batches can not deadlock
+        List<AppliedBatch> applied;
+        lockShards(shards);
+        try {
+            applied = target.writeBatch(batch);
+            for (Map.Entry<String, String> keyValue : batch.entrySet()) {
+                // batch values are stored inline, blobs of earlier values are outdated
+                blobs.remove(keyValue.getKey());
+                if (keyValue.getValue() == null) {
+                    targetExpirer.cancel(keyValue.getKey());
+                    removeFromCache(keyValue.getKey());
+                } else {
+                    long expiresAt = Expiry.expiryOf(keyValue.getValue());
+                    targetExpirer.schedule(keyValue.getKey(), expiresAt);
+                    updateCache(keyValue.getKey(), Expiry.unwrap(keyValue.getValue()), expiresAt);
+                }
+            }
+        } finally {
+            unlockShards(shards);
+        }
+        logger.info("Wrote batch of " + batch.size() + " keys");
+        return applied;
+    }
+
+    /**
+     * deletes values over a range; buckets inside the range are dropped as a whole and the rest of the range is
+     * deleted with one range tombstone per bucket, so this does not write anything per key. Shards are locked one at
+     * a time, writes to the other shards carry on meanwhile
      *
-     * @return true if all is deleted false if not
      * @throws IOException if unable to to check if key exists in db due to db DB_FILES not opening
      */
-    public static synchronized boolean write(String key, String value) throws IOException {
-        ArrayList<String> fileLines = (ArrayList<String>) Files.readAllLines(dbFile.toPath());
-        ArrayList<String> keys = new ArrayList<>();
+    @Override
+    public void deleteRange(String[] range) throws IOException {
+        logger.info("Deleting keys within range: " + range[0] +"-" + range[1] + "...");
+        List<String> deletedKeys = deleteRangeFromStore(store, blobStore, expirer, range);
+        logger.info("Done deleting " + deletedKeys.size() + " keys within range: " + range[0] +"-" + range[1]
+                + " as they were moved to another server");
+    }
 
+    /**
+     * @return replicated key-value pairs within range, values in their stored form that carries their expiry
+     */
+    @Override
+    public HashMap<String, String> readRangeReplica(String[] range) throws IOException {
+        return resolveBlobs(replicaStore, replicaBlobStore, replicaStore.readRange(range));
+    }
 
-        for (String keyValue : fileLines) {
-            keys.add(keyValue.split(DELIMITER_PATTERN)[0]);
+    @Override
+    public String readReplica(String key) throws IOException {
+        String value = Expiry.unwrap(resolveBlob(replicaStore, replicaBlobStore, key,
+                readStored(replicaStore, replicaBlobStore, replicaExpirer, key)));
+        if (value != null) {
+            logger.info("Found replica key " + key + " in database!");
+            return value;
         }
 
-        int index = keys.indexOf(key);
-        // scenario1: key does not exist
-        if (index == -1) {
-            //1.1 should not delete a none existent value
+        logger.info("replica key \"" + key + "\" not found in database!");
+        return null;
+    }
+
+    /**
+     * writes a replicated key-value pair, the value is taken in its stored form so it keeps its expiry
+     */
+    @Override
+    public boolean writeReplica(String key, String value) throws IOException {
+        if (BlobStore.isLarge(Expiry.unwrap(value), blobThreshold)) {
+            writeBlobToStore(replicaStore, replicaBlobStore, replicaExpirer, key, "",
+                    new StringReader(Expiry.unwrap(value)), Expiry.expiryOf(value));
+            committer.awaitDurable();
+            return true;
+        }
+        boolean status = writeReplicaToStore(key, value);
+        committer.awaitDurable();
+        return status;
+    }
+
+    private boolean writeReplicaToStore(String key, String value) throws IOException {
+        ReentrantLock lock = shardLock(key);
+        lock.lock();
+        try {
+            // scenario1: delete value
             if (StringUtils.isEmpty(value)) {
-                logger.warn("Trying to delete a non existing key");
-                return false;
+                //1.1 should not delete a none existent value
+                if (!replicaStore.delete(key)) {
+                    logger.warn("Trying to delete a non existing key");
+                    return false;
+                }
+                //1.2 tombstone appended for existing key
+                logger.info("deleted replica key: " + key);
+                replicaExpirer.cancel(key);
+                replicaBlobStore.remove(key);
+                removeFromCache(key);
+                return true;
+            }
+
+            // scenario2: write new key or modify existing key
+            if (!replicaStore.put(key, value)) {
+                logger.info("added new replica key: " + key + " with value: " + value);
+            } else {
+                logger.info("Modified replica key: " + key + " with value of: " + value);
             }
-            //1.2 write non existent key at end of file
-            fileLines.add(key + DELIMITER + value);
-            Files.write(dbFile.toPath(), fileLines);
-            logger.info("added new key: " + key + " with value: " + value);
-            Cache.updateCache(key, value);
+            long expiresAt = Expiry.expiryOf(value);
+            replicaExpirer.schedule(key, expiresAt);
+            replicaBlobStore.remove(key);
+            updateCache(key, Expiry.unwrap(value), expiresAt);
             return true;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        // scenario2: key exists
-        // 2.1 delete value
-        if (StringUtils.isEmpty(value)) {
-            fileLines.remove(index);
-            Files.write(dbFile.toPath(), fileLines);
-            logger.info("deleted key: " + key);
-            Cache.remove(key);
-            return true;
+    @Override
+    public void deleteRangeReplica(String[] range) throws IOException {
+        logger.info("Deleting replica keys within range: " + range[0] +"-" + range[1] + "...");
+        List<String> deletedKeys = deleteRangeFromStore(replicaStore, replicaBlobStore, replicaExpirer, range);
+        logger.info("Done deleting " + deletedKeys.size() + " replica keys within range: " + range[0] + "-"
+                + range[1]);
+    }
+
+    private List<String> deleteRangeFromStore(PartitionedStore target, BlobStore blobs, Expirer targetExpirer,
+                                              String[] range) throws IOException {
+        List<String> deletedKeys = new ArrayList<>();
+        for (int shard : target.bucketsOverlapping(range)) {
+            ReentrantLock lock = shardLocks[shard];
+            lock.lock();
+            try {
+                List<String> shardKeys = target.deleteRange(range, shard);
+                for (String key : shardKeys) {
+                    targetExpirer.cancel(key);
+                    blobs.remove(key);
+                    removeFromCache(key);
+                }
+                deletedKeys.addAll(shardKeys);
+            } finally {
+                lock.unlock();
+            }
         }
-        // 2.2 modify value
-        fileLines.set(index, key + DELIMITER + value);
-        Files.write(dbFile.toPath(), fileLines);
-        logger.info("Modified key: " + key + " with value of: " + value);
-        Cache.updateCache(key, value);
-        return false;
+        return deletedKeys;
     }
 
     /**
-     * deletes values over a range
+     * Cuts a point-in-time snapshot of the primary keys within [range[0], range[1]] into a single file sorted by key
+     * hash, see {@link RangeSnapshot}. Writes to the range wait until the snapshot is written. Blob values are copied
+     * into the snapshot as they are, values with a time to live keep their expiry and expired keys are left out.
      *
-     * @throws IOException if unable to to check if key exists in db due to db DB_FILES not opening
+     * @param range hash range to cut, must not wrap around
+     * @return the snapshot file, to be deleted by the caller once it is transferred
+     * @throws IOException if the snapshot can not be written
      */
-    public static synchronized void deleteRange(String[] range) throws IOException {
-        logger.info("Deleting keys within range: " + range[0] +"-" + range[1] + "...");
-        ArrayList<String> fileLines = (ArrayList<String>) Files.readAllLines(dbFile.toPath());
-        for (String keyValue : fileLines) {
-            if (ConsistentHash.getMD5(keyValue.split(DELIMITER_PATTERN)[0]).compareTo(range[1]) <= 0
-                    && ConsistentHash.getMD5(keyValue.split(DELIMITER_PATTERN)[0]).compareTo(range[0]) >= 0) {
-                String key = keyValue.split(DELIMITER_PATTERN)[0];
-                Persist.write(key, null);
-                Cache.remove(key);
-                logger.info("Deleted key: " + key + " as it was moved to another server");
+    @Override
+    public File exportRange(String[] range) throws IOException {
+        File file = new File(transferDirectory, "range-" + range[0] + "-" + range[1] + "-" + System.nanoTime()
+                + RangeSnapshot.SUFFIX);
+        List<Integer> shards = store.bucketsOverlapping(range);
+        lockShards(shards);
+        try (RangeSnapshot.Writer writer = RangeSnapshot.create(file, range, compressionThreshold)) {
+            for (int shard : shards) {
+                HashMap<String, String> keyValues = resolveBlobs(store, blobStore, store.readRange(range, shard));
+                List<String[]> hashedKeys = new ArrayList<>(keyValues.size());
+                for (String key : keyValues.keySet()) {
+                    hashedKeys.add(new String[]{ConsistentHash.getMD5(key), key});
+                }
+                hashedKeys.sort((first, second) -> first[0].equals(second[0]) ? first[1].compareTo(second[1])
+                        : first[0].compareTo(second[0]));
+                for (String[] hashedKey : hashedKeys) {
+                    writer.add(hashedKey[1], keyValues.get(hashedKey[1]));
+                }
             }
+            RangeSnapshot snapshot = writer.finish();
+            logger.info("Cut snapshot of " + snapshot.getEntries().size() + " keys within range: " + range[0] + "-"
+                    + range[1] + " into " + file.getName());
+            return file;
+        } finally {
+            unlockShards(shards);
+        }
+    }
+
+    /**
+     * Takes over a range snapshot cut by {@link #exportRange(String[])}, replacing whatever the primary store holds
+     * in the range of the snapshot. The snapshot is verified, then linked into the store directory, or copied there
+     * once if it lives on another file system, and every bucket links it in as a segment of its own instead of
+     * writing its keys one by one. The expiries of the keys are scheduled from the index of the snapshot.
+     *
+     * @return number of keys taken over
+     * @throws IOException if the snapshot is damaged or can not be taken over
+     */
+    @Override
+    public int importRange(File file) throws IOException {
+        RangeSnapshot received = RangeSnapshot.open(file);
+        received.verify();
+        File local = new File(transferDirectory, "import-" + System.nanoTime() + RangeSnapshot.SUFFIX);
+        try {
+            try {
+                Files.createLink(local.toPath(), file.toPath());
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(file.toPath(), local.toPath());
+                try (FileChannel channel = FileChannel.open(local.toPath(), StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                }
+            }
+            RangeSnapshot snapshot = RangeSnapshot.open(local);
+            String[] range = snapshot.getRange();
+            TreeMap<Integer, List<HintFile.Entry>> entries = store.entriesByBucket(snapshot);
+            int ingested = 0;
+            for (int shard : store.bucketsOverlapping(range)) {
+                ReentrantLock lock = shardLocks[shard];
+                lock.lock();
+                try {
+                    for (String key : store.deleteRange(range, shard)) {
+                        expirer.cancel(key);
+                        blobStore.remove(key);
+                        removeFromCache(key);
+                    }
+                    List<HintFile.Entry> shardEntries = entries.get(shard);
+                    if (shardEntries == null) {
+                        continue;
+                    }
+                    ingested += store.ingest(snapshot, shard, shardEntries);
+                    for (HintFile.Entry entry : shardEntries) {
+                        Long expiresAt = snapshot.getExpiries().get(entry.getKey());
+                        expirer.schedule(entry.getKey(), expiresAt == null ? Expiry.NEVER : expiresAt);
+                        blobStore.remove(entry.getKey());
+                        removeFromCache(entry.getKey());
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            committer.awaitDurable();
+            logger.info("Took over " + ingested + " keys within range: " + range[0] + "-" + range[1] + " from "
+                    + file.getName());
+            return ingested;
+        } finally {
+            // the buckets hold links of their own
+            Files.deleteIfExists(local.toPath());
+        }
+    }
+
+    @Override
+    public void clearStorage() {
+        List<Integer> shards = new ArrayList<>();
+        for (int shard = 0; shard < shardLocks.length; shard++) {
+            shards.add(shard);
         }
-        logger.info("Done deleting.. keys within range: " + range[0] +"-" + range[1]);
+        lockShards(shards);
+        try {
+            try {
+                store.clear();
+                blobStore.clear();
+                expirer.clear();
+            } catch (IOException e) {
+                logger.error("Unable to clear storage");
+            }
 
 
+            // clearing cache
+            if (cache != null) {
+                cache.clearCache();
+            }
+        } finally {
+            unlockShards(shards);
+        }
+    }
+
+    /**
+     * @return compaction debt and throughput of the primary and replica stores
+     */
+    @Override
+    public CompactionStats getCompactionStats() {
+        return compactor.getStats();
     }
 
-    public static synchronized HashMap<String, String> readRangeReplica(String[] range) throws IOException {
+    /**
+     * runs a compaction pass over all stores on the calling thread
+     */
+    public void compact() {
+        compactor.compactAll();
+    }
 
-        ArrayList<String> fileLines = (ArrayList<String>) Files.readAllLines(dbFileReplica.toPath());
-        HashMap<String, String> valuePairs = new HashMap<>();
+    /**
+     * writes a snapshot of every in-memory bucket on the calling thread
+     *
+     * @return number of snapshots written
+     */
+    public int snapshot() {
+        return snapshotter.snapshotAll();
+    }
 
-        for (String keyValue : fileLines) {
-            if (ConsistentHash.getMD5(keyValue.split(DELIMITER_PATTERN)[0]).compareTo(range[1]) <= 0
-                    && ConsistentHash.getMD5(keyValue.split(DELIMITER_PATTERN)[0]).compareTo(range[0]) >= 0)
-                valuePairs.put(keyValue.split(DELIMITER_PATTERN)[0], keyValue.split(DELIMITER_PATTERN)[1]);
+    /**
+     * Imports a data file of the old line based "key~*~*value" format into the store and renames it, so every file is
+     * only migrated once
+     *
+     * @throws IOException if the old file can not be read or the records can not be written
+     */
+    private void migrateLegacyFile(File legacyFile, PartitionedStore target) throws IOException {
+        if (!legacyFile.exists()) {
+            return;
         }
+        int migrated = 0;
+        for (String line : Files.readAllLines(legacyFile.toPath())) {
+            int delimiter = line.indexOf(DELIMITER);
+            if (delimiter <= 0) {
+                logger.warn("Skipping malformed line while migrating " + legacyFile.getName());
+                continue;
+            }
+            String value = line.substring(delimiter + DELIMITER.length());
+            if (!value.isEmpty()) {
+                target.put(line.substring(0, delimiter), value);
+                migrated++;
+            }
+        }
+        Files.move(legacyFile.toPath(), new File(legacyFile.getPath() + MIGRATED_SUFFIX).toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        logger.info("Migrated " + migrated + " keys from " + legacyFile.getName());
+    }
 
-        return valuePairs;
+    /**
+     * @return how many lookups of missing keys the bloom filters of the primary and replica store answered alone
+     */
+    @Override
+    public BloomFilterStats getBloomFilterStats() {
+        return store.getBloomFilterStats().add(replicaStore.getBloomFilterStats());
     }
 
-    public static synchronized String readReplica(String key) throws IOException {
+    /**
+     * @return compression ratio of the values written to the primary and replica stores of this server
+     */
+    @Override
+    public CompressionStats getCompressionStats() {
+        return store.getCompressionStats().add(replicaStore.getCompressionStats());
+    }
 
-        ArrayList<String> fileLines = (ArrayList<String>) Files.readAllLines(dbFileReplica.toPath());
-        ArrayList<String> keys = new ArrayList<>();
+    /**
+     * Makes all written data durable and closes the stores, a server started in RECOVER mode picks them up again
+     */
+    @Override
+    public synchronized void close() {
+        closeStores();
+        logger.info("Closed database, " + getCompressionStats() + ", " + getBloomFilterStats() + ", "
+                + getCompactionStats());
+    }
 
-        for (String keyValue : fileLines) {
-            keys.add(keyValue.split(DELIMITER_PATTERN)[0]);
+    /**
+     * writes a value of any size, streaming it from the reader so it is never held in memory as a whole. A value that
+     * reaches the blob threshold goes into a blob file of its own, which is written before the shard lock is taken;
+     * under the lock only the small marker record is written. A shorter value is stored inline
+     *
+     * @return true if the key is new, false if an existing key was modified
+     * @throws IOException if the value can not be read or written
+     */
+    @Override
+    public boolean writeBlob(String key, Reader value) throws IOException {
+        return writeBlob(key, value, 0);
+    }
+
+    /**
+     * writes a value of any size into a blob file of its own, the key is deleted once its time to live is over
+     *
+     * @param ttlMillis time to live of the value, 0 for a value that lives until it is overwritten or deleted
+     * @return true if the key is new, false if an existing key was modified
+     * @throws IOException if the value can not be read or written
+     */
+    @Override
+    public boolean writeBlob(String key, Reader value, long ttlMillis) throws IOException {
+        // the client streams every value above its chunk size, only the threshold decides where the value is kept
+        int threshold = blobThreshold;
+        StringBuilder head = new StringBuilder();
+        if (threshold > 0) {
+            // read chunk by chunk, at most threshold characters are held before the value goes to its blob file
+            char[] chunk = new char[Math.min(threshold, ChunkedValue.CHUNK_SIZE)];
+            int read;
+            while (head.length() < threshold
+                    && (read = value.read(chunk, 0, Math.min(chunk.length, threshold - head.length()))) >= 0) {
+                head.append(chunk, 0, read);
+            }
+            if (head.length() < threshold) {
+                String inline = head.toString();
+                if (!inline.isEmpty() && !BlobStore.isLarge(inline, threshold)) {
+                    return write(key, inline, ttlMillis);
+                }
+            }
         }
+        boolean added = writeBlobToStore(store, blobStore, expirer, key, head, value, Expiry.expiresAt(ttlMillis));
+        committer.awaitDurable();
+        return added;
+    }
 
-        int index = keys.indexOf(key);
-        if (index != -1) {
-            logger.info("Found replica key " + key + " in database!");
-            return fileLines.get(index).split(DELIMITER_PATTERN)[1];
+    private boolean writeBlobToStore(PartitionedStore target, BlobStore blobs, Expirer targetExpirer, String key,
+                                     CharSequence head, Reader rest, long expiresAt) throws IOException {
+        File temp = blobs.write(head, rest);
+        ReentrantLock lock = shardLock(key);
+        lock.lock();
+        try {
+            String marker = blobs.commit(key, temp);
+            boolean expired = Expiry.isExpired(storedExpiry(target, targetExpirer, key), System.currentTimeMillis());
+            boolean existed = target.put(key, Expiry.wrap(marker, expiresAt)) && !expired;
+            targetExpirer.schedule(key, expiresAt);
+            blobs.removeOthers(key, marker);
+            // large values are not cached, whatever the cache holds for the key is outdated
+            removeFromCache(key);
+            logger.info((existed ? "Modified" : "added new") + " key: " + key + " with a blob value");
+            return !existed;
+        } finally {
+            lock.unlock();
+            if (temp.exists() && !temp.delete()) {
+                logger.warn("Unable to delete " + temp.getName());
+            }
         }
+    }
 
-        logger.info("replica key \"" + key + "\" not found in database!");
-        return null;
+    /**
+     * opens the value of a key that is kept in a blob file, looking at the primary data first and at the replicas
+     * if the key is not in the primary data. Whether a key is a blob is known from memory, a key that is not takes
+     * neither a lock nor a look at the file system
+     *
+     * @return reader over the value, null if the key is not stored or its value is stored inline
+     * @throws IOException if the blob can not be opened
+     */
+    @Override
+    public Reader readBlob(String key) throws IOException {
+        if (blobStore.contains(key)) {
+            return openBlob(store, blobStore, expirer, key);
+        }
+        if (!replicaBlobStore.contains(key) || store.contains(key)) {
+            return null;
+        }
+        return openBlob(replicaStore, replicaBlobStore, replicaExpirer, key);
     }
 
-    public static synchronized boolean writeReplica(String key, String value) throws IOException {
-        ArrayList<String> fileLines = (ArrayList<String>) Files.readAllLines(dbFileReplica.toPath());
-        ArrayList<String> keys = new ArrayList<>();
+    private Reader openBlob(PartitionedStore target, BlobStore blobs, Expirer targetExpirer, String key)
+            throws IOException {
+        // an open blob stays readable when a concurrent write replaces it, but it must not go away before it is open
+        ReentrantLock lock = shardLock(key);
+        lock.lock();
+        try {
+            String marker = Expiry.unwrap(readStored(target, blobs, targetExpirer, key));
+            return BlobStore.isMarker(marker) ? blobs.open(key, marker) : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Finds the keys of a recovered store whose stored value is a blob marker, only keys that have a blob directory
+     * are looked at
+     *
+     * @throws IOException if a stored value can not be read
+     */
+    private static void indexBlobs(PartitionedStore target, BlobStore blobs) throws IOException {
+        for (String hash : blobs.keyHashes()) {
+            for (Map.Entry<String, String> keyValue : target.readRange(new String[]{hash, hash}).entrySet()) {
+                if (BlobStore.isMarker(Expiry.unwrap(keyValue.getValue()))) {
+                    blobs.index(keyValue.getKey());
+                }
+            }
+        }
+    }
 
+    /**
+     * @return the stored value itself, or the content of the blob with the expiry of the stored value if the stored
+     * value is a blob marker
+     */
+    private String resolveBlob(PartitionedStore target, BlobStore blobs, String key, String value)
+            throws IOException {
+        if (!BlobStore.isMarker(Expiry.unwrap(value))) {
+            return value;
+        }
+        ReentrantLock lock = shardLock(key);
+        lock.lock();
+        try {
+            // read again under the lock, the blob may have been replaced since
+            String current = target.get(key);
+            String marker = Expiry.unwrap(current);
+            return BlobStore.isMarker(marker) ? Expiry.wrap(blobs.read(key, marker), Expiry.expiryOf(current))
+                    : current;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        for (String keyValue : fileLines) {
-            keys.add(keyValue.split(DELIMITER_PATTERN)[0]);
+    /**
+     * @return the key-value pairs in their stored form with the content of blobs in place of blob markers, expired
+     * keys left out
+     */
+    private HashMap<String, String> resolveBlobs(PartitionedStore target, BlobStore blobs,
+                                                 HashMap<String, String> keyValues) throws IOException {
+        long now = System.currentTimeMillis();
+        keyValues.values().removeIf(value -> Expiry.isExpired(value, now));
+        for (Map.Entry<String, String> keyValue : keyValues.entrySet()) {
+            if (BlobStore.isMarker(Expiry.unwrap(keyValue.getValue()))) {
+                keyValue.setValue(resolveBlob(target, blobs, keyValue.getKey(), keyValue.getValue()));
+            }
         }
+        keyValues.values().removeIf(value -> value == null);
+        return keyValues;
+    }
 
-        int index = keys.indexOf(key);
-        // scenario1: key does not exist
-        if (index == -1) {
-            //1.1 should not delete a none existent value
-            if (StringUtils.isEmpty(value)) {
-                logger.warn("Trying to delete a non existing key");
-                return false;
+    /**
+     * @return stored form of the value of the key, null if the key is not stored or its time to live is over. An
+     * expired key is deleted right away instead of waiting for the background expiration
+     */
+    private String readStored(PartitionedStore target, BlobStore blobs, Expirer targetExpirer, String key)
+            throws IOException {
+        String stored = target.get(key);
+        if (!Expiry.isExpired(stored, System.currentTimeMillis())) {
+            return stored;
+        }
+        ReentrantLock lock = shardLock(key);
+        lock.lock();
+        try {
+            // read again under the lock, the key may have been written again since
+            stored = target.get(key);
+            if (!Expiry.isExpired(stored, System.currentTimeMillis())) {
+                return stored;
             }
-            //1.2 write non existent key at end of file
-            fileLines.add(key + DELIMITER + value);
-            Files.write(dbFileReplica.toPath(), fileLines);
-            logger.info("added new replica key: " + key + " with value: " + value);
-            Cache.updateCache(key, value);
-            return true;
+            target.delete(key);
+            targetExpirer.cancel(key);
+            blobs.remove(key);
+            removeFromCache(key);
+            logger.info("key \"" + key + "\" expired");
+            return null;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        // scenario2: key exists
-        // 2.1 delete value
-        if (StringUtils.isEmpty(value)) {
-            fileLines.remove(index);
-            Files.write(dbFileReplica.toPath(), fileLines);
-            logger.info("deleted replica key: " + key);
-            Cache.remove(key);
-            return true;
+    /**
+     * @return true if the key is stored and its time to live is not over
+     */
+    private boolean isLive(PartitionedStore target, Expirer targetExpirer, String key) throws IOException {
+        return target.contains(key)
+                && !Expiry.isExpired(storedExpiry(target, targetExpirer, key), System.currentTimeMillis());
+    }
+
+    /**
+     * @return expiry of the value stored for the key, {@link Expiry#NEVER} if it has none or is not stored. With
+     * background expiration the expiry is taken from the timing wheel, so the value does not have to be read
+     */
+    private long storedExpiry(PartitionedStore target, Expirer targetExpirer, String key) throws IOException {
+        return targetExpirer.isEnabled() ? targetExpirer.deadlineOf(key) : Expiry.expiryOf(target.get(key));
+    }
+
+    /**
+     * @return expiry of the value {@link #read(String)} returns for the key, or of the replica if the key is not in
+     * the primary data; {@link Expiry#NEVER} if it has none
+     * @throws IOException if the value has to be read and can not be
+     */
+    @Override
+    public long getExpiry(String key) throws IOException {
+        if (store.contains(key)) {
+            return storedExpiry(store, expirer, key);
         }
-        // 2.2 modify value
-        fileLines.set(index, key + DELIMITER + value);
-        Files.write(dbFileReplica.toPath(), fileLines);
-        logger.info("Modified replica key: " + key + " with value of: " + value);
-        Cache.updateCache(key, value);
-        return true;
+        return storedExpiry(replicaStore, replicaExpirer, key);
     }
 
-    public static synchronized void deleteRangeReplica(String[] range) throws IOException {
-        logger.info("Deleting replica keys within range: " + range[0] +"-" + range[1] + "...");
-        ArrayList<String> fileLines = (ArrayList<String>) Files.readAllLines(dbFileReplica.toPath());
-        for (String keyValue : fileLines) {
-            if (ConsistentHash.getMD5(keyValue.split(DELIMITER_PATTERN)[0]).compareTo(range[1]) <= 0
-                    && ConsistentHash.getMD5(keyValue.split(DELIMITER_PATTERN)[0]).compareTo(range[0]) >= 0) {
-                String key = keyValue.split(DELIMITER_PATTERN)[0];
-                Persist.writeReplica(key, null);
-                Cache.remove(key);
-                logger.info("Deleted replica key: " + key + " as it was moved to another server");
+    /**
+     * Deletes keys the timing wheel found due, each one only if its stored value is still expired as it may have
+     * been written again since. Keys are deleted in one batch per shard
+     *
+     * @throws IOException if a batch can not be written
+     */
+    private void purgeExpired(PartitionedStore target, BlobStore blobs, List<String> keys) throws IOException {
+        TreeMap<Integer, List<String>> keysByShard = new TreeMap<>();
+        for (String key : keys) {
+            keysByShard.computeIfAbsent(target.bucketIndexOf(key), shard -> new ArrayList<>()).add(key);
+        }
+        for (Map.Entry<Integer, List<String>> shardKeys : keysByShard.entrySet()) {
+            ReentrantLock lock = shardLocks[shardKeys.getKey()];
+            lock.lock();
+            try {
+                long now = System.currentTimeMillis();
+                HashMap<String, String> batch = new HashMap<>();
+                for (String key : shardKeys.getValue()) {
+                    if (Expiry.isExpired(target.get(key), now)) {
+                        batch.put(key, null);
+                    }
+                }
+                if (batch.isEmpty()) {
+                    continue;
+                }
+                target.writeBatch(batch);
+                for (String key : batch.keySet()) {
+                    blobs.remove(key);
+                    removeFromCache(key);
+                }
+            } finally {
+                lock.unlock();
             }
         }
-        logger.info("Done deleting replica.. keys within range: " + range[0] +"-" + range[1]);
+    }
+
+    /**
+     * Puts the expiries of recovered keys on the timing wheel. Runs bucket by bucket on the expiration thread, so the
+     * server does not wait for it to start; keys that expire before their bucket is reached are dropped when they
+     * are read
+     */
+    private void scheduleRecovered(PartitionedStore target, Expirer targetExpirer) {
+        if (!targetExpirer.isEnabled()) {
+            return;
+        }
+        targetExpirer.submit(() -> {
+            int scheduled = 0;
+            for (int shard = 0; shard < target.getBucketCount(); shard++) {
+                ReentrantLock lock = shardLocks[shard];
+                lock.lock();
+                try {
+                    for (Map.Entry<String, String> keyValue : target.getBuckets().get(shard).readAll().entrySet()) {
+                        long expiresAt = Expiry.expiryOf(keyValue.getValue());
+                        if (expiresAt != Expiry.NEVER) {
+                            targetExpirer.schedule(keyValue.getKey(), expiresAt);
+                            scheduled++;
+                        }
+                    }
+                } catch (IOException e) {
+                    logger.error("Unable to read expiries of recovered keys " + e.getMessage());
+                } finally {
+                    lock.unlock();
+                }
+            }
+            logger.info("Scheduled expiry of " + scheduled + " recovered keys");
+        });
+    }
 
+    @Override
+    public void setCache(Cache cache) {
+        this.cache = cache;
+    }
 
+    private void updateCache(String key, String value, long expiresAt) {
+        if (cache != null) {
+            cache.updateCache(key, value, expiresAt);
+        }
     }
 
-    public static void clearStorage() {
-        PrintWriter writer;
-        try {
-            writer = new PrintWriter(dbFile);
-            writer.print("");
-            writer.close();
-        } catch (FileNotFoundException e) {
-            logger.error("Unable to clear storage");
+    private void removeFromCache(String key) {
+        if (cache != null) {
+            cache.remove(key);
         }
+    }
 
+    private ReentrantLock shardLock(String key) {
+        return shardLocks[store.bucketIndexOf(key)];
+    }
 
-        // clearing cache
-        Cache.clearCache();
+    /**
+     * Locks the given shards in ascending order
+     */
+    private void lockShards(Collection<Integer> shards) {
+        for (int shard : shards) {
+            shardLocks[shard].lock();
+        }
+    }
+
+    private void unlockShards(Collection<Integer> shards) {
+        for (int shard : shards) {
+            shardLocks[shard].unlock();
+        }
+    }
+
+    private void closeStores() {
+        if (expirer != null) {
+            expirer.stop();
+        }
+        if (replicaExpirer != null) {
+            replicaExpirer.stop();
+        }
+        if (snapshotter != null) {
+            snapshotter.stop();
+        }
+        if (compactor != null) {
+            compactor.stop();
+        }
+        if (committer != null) {
+            committer.stop();
+        }
+        if (store != null) {
+            store.close();
+        }
+        if (replicaStore != null) {
+            replicaStore.close();
+        }
     }
 
     public static void main(String[] args) throws IOException {
         new LogSetup("logs/server/server.log", Level.ALL);
-        if (init("")) {
+        Persist persist = new Persist();
+        if (persist.init("")) {
 //            System.out.println(read("hi"));
 //            System.out.println(read("acd"));
 //            System.out.println(read("ax~~"));
 //            System.out.println(checkIfExists("ax~~"));
 //            System.out.println(checkIfExists("hi"));
 
-            write("ax~~", "hh");
-            System.out.println(checkIfExists("ax~~"));
+            persist.write("ax~~", "hh");
+            System.out.println(persist.checkIfExists("ax~~"));
 
-            write("ax~~", "hh");
-            System.out.println(checkIfExists("ax~~"));
+            persist.write("ax~~", "hh");
+            System.out.println(persist.checkIfExists("ax~~"));
 
-            write("ax~~", null);
-            System.out.println(checkIfExists("ax~~"));
+            persist.write("ax~~", null);
+            System.out.println(persist.checkIfExists("ax~~"));
 
-            write("ax~~", null);
+            persist.write("ax~~", null);
 
 
-            write("ax~~", "ssc");
-            System.out.println(checkIfExists("ax~~"));
+            persist.write("ax~~", "ssc");
+            System.out.println(persist.checkIfExists("ax~~"));
 
-            clearStorage();
+            persist.clearStorage();
 
 //            System.out.println(checkIfExists("ax~~"));
 //
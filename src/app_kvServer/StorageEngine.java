@@ -0,0 +1,204 @@
+package app_kvServer;
+
+import app_kvServer.storage.BloomFilterStats;
+import app_kvServer.storage.CompactionStats;
+import app_kvServer.storage.CompressionStats;
+import app_kvServer.storage.StorageConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Storage of a single {@link KVServer}: the primary data the server is responsible for and the replicas it keeps for
+ * other servers. Every server owns its own engine instance, so several servers can run in one process, and a server
+ * can be started with a different implementation than {@link Persist}.
+ */
+public interface StorageEngine {
+
+    /**
+     * Opens the storage of a server
+     *
+     * @param serverName name of the server, data of different servers is kept apart
+     * @param config     storage engine settings
+     * @return true if the storage is ready, false otherwise
+     */
+    boolean init(String serverName, StorageConfig config);
+
+    /**
+     * Gives the engine the cache it has to keep up to date with its writes
+     */
+    void setCache(Cache cache);
+
+    /**
+     * @return true if the key is in the primary data and its time to live is not over
+     * @throws IOException if the storage can not be read
+     */
+    boolean checkIfExists(String key) throws IOException;
+
+    /**
+     * @return value of the key in the primary data or null if it is not stored
+     * @throws IOException if the storage can not be read
+     */
+    String read(String key) throws IOException;
+
+    /**
+     * @return value of the key in the replicas or null if it is not stored
+     * @throws IOException if the storage can not be read
+     */
+    String readReplica(String key) throws IOException;
+
+    /**
+     * @return expiry of the value {@link #read(String)} or {@link #readReplica(String)} returns for the key, 0 if it
+     * never expires
+     * @throws IOException if the storage can not be read
+     */
+    long getExpiry(String key) throws IOException;
+
+    /**
+     * @return primary key-value pairs whose key hash lies within [range[0], range[1]], values in the stored form that
+     * carries their expiry so {@link #writeBatch(Map)} and {@link #writeReplicaBatch(Map)} can take them as they are
+     * @throws IOException if the storage can not be read
+     */
+    HashMap<String, String> readRange(String[] range) throws IOException;
+
+    /**
+     * @return replicated key-value pairs whose key hash lies within [range[0], range[1]]
+     * @throws IOException if the storage can not be read
+     */
+    HashMap<String, String> readRangeReplica(String[] range) throws IOException;
+
+    /**
+     * @return all primary key-value pairs
+     * @throws IOException if the storage can not be read
+     */
+    HashMap<String, String> readAll() throws IOException;
+
+    /**
+     * Writes a primary key-value pair, an empty value deletes the key
+     *
+     * @return true if the key was added or deleted, false if an existing key was modified or a missing key deleted
+     * @throws IOException if the write failed
+     */
+    boolean write(String key, String value) throws IOException;
+
+    /**
+     * Writes a primary key-value pair that is deleted once its time to live is over, an empty value deletes the key
+     *
+     * @param ttlMillis time to live of the value, 0 for a value that never expires
+     * @return true if the key was added or deleted, false if an existing key was modified or a missing key deleted
+     * @throws IOException if the write failed
+     */
+    boolean write(String key, String value, long ttlMillis) throws IOException;
+
+    /**
+     * Writes a replicated key-value pair in its stored form, an empty value deletes the key
+     *
+     * @return false if a missing key was deleted, true otherwise
+     * @throws IOException if the write failed
+     */
+    boolean writeReplica(String key, String value) throws IOException;
+
+    /**
+     * Writes a primary value of any size without holding all of it in memory. A value that reaches the configured
+     * blob threshold is kept in a blob file, a shorter one is stored like any other value
+     *
+     * @param value reader over the value, read until its end
+     * @return true if the key is new, false if an existing key was modified
+     * @throws IOException if the value can not be read or written
+     */
+    boolean writeBlob(String key, Reader value) throws IOException;
+
+    /**
+     * Writes a primary value of any size that is deleted once its time to live is over
+     *
+     * @param value     reader over the value, read until its end
+     * @param ttlMillis time to live of the value, 0 for a value that never expires
+     * @return true if the key is new, false if an existing key was modified
+     * @throws IOException if the value can not be read or written
+     */
+    boolean writeBlob(String key, Reader value, long ttlMillis) throws IOException;
+
+    /**
+     * Opens a value that is kept in a blob file so it can be streamed, primary data first and replicas second
+     *
+     * @return reader over the value, null if the key is not stored or its value is small enough to be read whole
+     * @throws IOException if the blob can not be opened
+     */
+    Reader readBlob(String key) throws IOException;
+
+    /**
+     * Writes a batch of primary key-value pairs in their stored form, all of them or none of them; an empty value
+     * deletes the key
+     *
+     * @throws IOException if the batch could not be written, nothing was changed in that case
+     */
+    void writeBatch(Map<String, String> keyValues) throws IOException;
+
+    /**
+     * Writes a batch of replicated key-value pairs in their stored form, all of them or none of them; an empty value
+     * deletes the key
+     *
+     * @throws IOException if the batch could not be written, nothing was changed in that case
+     */
+    void writeReplicaBatch(Map<String, String> keyValues) throws IOException;
+
+    /**
+     * Deletes all primary keys whose hash lies within [range[0], range[1]]
+     *
+     * @throws IOException if the deletion could not be written
+     */
+    void deleteRange(String[] range) throws IOException;
+
+    /**
+     * Deletes all replicated keys whose hash lies within [range[0], range[1]]
+     *
+     * @throws IOException if the deletion could not be written
+     */
+    void deleteRangeReplica(String[] range) throws IOException;
+
+    /**
+     * Writes the primary keys whose hash lies within [range[0], range[1]] into a single snapshot file another server
+     * can take over with {@link #importRange(File)}
+     *
+     * @param range hash range to cut, must not wrap around
+     * @return the snapshot file, to be deleted by the caller once it is transferred
+     * @throws IOException if the snapshot could not be written
+     */
+    File exportRange(String[] range) throws IOException;
+
+    /**
+     * Takes over a snapshot file written by {@link #exportRange(String[])}, replacing the primary keys in its range
+     *
+     * @return number of keys taken over
+     * @throws IOException if the snapshot is damaged or could not be taken over
+     */
+    int importRange(File snapshot) throws IOException;
+
+    /**
+     * @return how many lookups of missing keys the bloom filters of the primary and replica storage answered alone
+     */
+    BloomFilterStats getBloomFilterStats();
+
+    /**
+     * @return compression ratio of the values written to the primary and replica storage
+     */
+    CompressionStats getCompressionStats();
+
+    /**
+     * @return compaction debt and throughput of the primary and replica storage
+     */
+    CompactionStats getCompactionStats();
+
+    /**
+     * Removes all primary data and empties the cache
+     */
+    void clearStorage();
+
+    /**
+     * Makes all written data durable and releases the storage
+     */
+    void close();
+}
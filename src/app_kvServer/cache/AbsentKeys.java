@@ -0,0 +1,82 @@
+package app_kvServer.cache;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keys recently found in neither storage, each remembered until its expiry. Kept apart from the cached values so a
+ * burst of lookups for missing keys can not push the working set out of the cache: at most a fixed number of keys are
+ * remembered, the oldest make room for new ones, and expired keys are dropped whenever keys are added or removed.
+ * Lookups are lock free; adding, removing and expiring keys has to be done by one thread at a time.
+ */
+public class AbsentKeys {
+
+    private final int capacity;
+    private final ConcurrentHashMap<String, Long> expiries = new ConcurrentHashMap<>();
+    // keys in the order they were added, i.e. by expiry as all of them live equally long
+    private final ArrayDeque<Absent> order = new ArrayDeque<>();
+
+    /**
+     * @param capacity number of keys remembered at most
+     */
+    public AbsentKeys(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * @return true if the key is known to be absent at the given time
+     */
+    public boolean contains(String key, long now) {
+        Long expiresAt = expiries.get(key);
+        return expiresAt != null && expiresAt > now;
+    }
+
+    /**
+     * Remembers a key as absent until the given time, forgetting the oldest key if there are too many
+     */
+    public void add(String key, long expiresAt, long now) {
+        expire(now);
+        while (expiries.size() >= capacity && !order.isEmpty()) {
+            Absent oldest = order.poll();
+            expiries.remove(oldest.key, oldest.expiresAt);
+        }
+        expiries.put(key, expiresAt);
+        order.add(new Absent(key, expiresAt));
+    }
+
+    /**
+     * Forgets a key, e.g. because it was just written
+     */
+    public void remove(String key) {
+        expiries.remove(key);
+    }
+
+    /**
+     * Drops every key whose expiry has passed
+     */
+    public void expire(long now) {
+        while (!order.isEmpty() && order.peek().expiresAt <= now) {
+            Absent expired = order.poll();
+            expiries.remove(expired.key, expired.expiresAt);
+        }
+    }
+
+    public void clear() {
+        expiries.clear();
+        order.clear();
+    }
+
+    public int size() {
+        return expiries.size();
+    }
+
+    private static class Absent {
+        private final String key;
+        private final Long expiresAt;
+
+        private Absent(String key, long expiresAt) {
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
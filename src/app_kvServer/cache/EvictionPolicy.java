@@ -0,0 +1,49 @@
+package app_kvServer.cache;
+
+/**
+ * Decides which key a full {@link app_kvServer.Cache} drops to make room for a new one. The cache keeps the values,
+ * the policy only tracks keys. Policies are not thread safe, the cache calls them under its own lock.
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Records a key that was added to the cache
+     */
+    void onInsert(String key);
+
+    /**
+     * Records a key that is added to a full cache and picks the key that makes room for it. Unless the policy
+     * filters what it admits, this is the key {@link #evict()} removes
+     *
+     * @return the key the cache has to drop, the new key itself if the policy does not admit it
+     */
+    default String admit(String key) {
+        String evicted = evict();
+        onInsert(key);
+        return evicted;
+    }
+
+    /**
+     * Records a read or an overwrite of a cached key
+     */
+    void onHit(String key);
+
+    /**
+     * Removes the key that has to go next
+     *
+     * @return the evicted key, null if the policy tracks no keys
+     */
+    String evict();
+
+    /**
+     * Stops tracking a key that was removed from the cache
+     */
+    void remove(String key);
+
+    void clear();
+
+    /**
+     * @return number of keys tracked
+     */
+    int size();
+}
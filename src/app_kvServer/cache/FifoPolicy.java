@@ -0,0 +1,47 @@
+package app_kvServer.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * First in first out eviction, keys leave the cache in the order they entered it no matter how often they are read.
+ */
+public class FifoPolicy implements EvictionPolicy {
+
+    private final LinkedHashSet<String> keys = new LinkedHashSet<>();
+
+    @Override
+    public void onInsert(String key) {
+        keys.add(key);
+    }
+
+    @Override
+    public void onHit(String key) {
+    }
+
+    @Override
+    public String evict() {
+        Iterator<String> oldest = keys.iterator();
+        if (!oldest.hasNext()) {
+            return null;
+        }
+        String key = oldest.next();
+        oldest.remove();
+        return key;
+    }
+
+    @Override
+    public void remove(String key) {
+        keys.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        keys.clear();
+    }
+
+    @Override
+    public int size() {
+        return keys.size();
+    }
+}
@@ -0,0 +1,98 @@
+package app_kvServer.cache;
+
+/**
+ * Count-Min sketch estimating how often keys were used recently, in a fixed amount of memory no matter how many
+ * different keys it sees. Every long of the table holds sixteen 4-bit counters; a key is counted in four of them,
+ * each picked by a different hash, and its estimate is the smallest of the four, so collisions can only make a key
+ * look more popular than it is. Once the sketch has counted ten times as many uses as the cache holds keys, all
+ * counters are halved, so the estimates follow the current workload rather than all of history.
+ */
+public class FrequencySketch {
+
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+            0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param capacity number of keys of the cache the sketch estimates for
+     */
+    public FrequencySketch(int capacity) {
+        int size = 16;
+        while (size < capacity && size < (1 << 30)) {
+            size <<= 1;
+        }
+        table = new long[size];
+        tableMask = size - 1;
+        sampleSize = 10 * Math.max(capacity, 1);
+    }
+
+    /**
+     * @return estimated number of recent uses of the key, at most 15
+     */
+    public int frequency(String key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int offset = (start + i) << 2;
+            int count = (int) ((table[indexOf(hash, i)] >>> offset) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Counts a use of the key
+     */
+    public void increment(String key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = indexOf(hash, i);
+            int offset = (start + i) << 2;
+            if (((table[index] >>> offset) & 0xfL) != MAX_COUNT) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = 0;
+        }
+        additions = 0;
+    }
+
+    /**
+     * Halves every counter
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & tableMask;
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
@@ -0,0 +1,195 @@
+package app_kvServer.cache;
+
+import java.util.HashMap;
+
+/**
+ * Least frequently used eviction. Keys are kept in buckets of equal use count, the buckets form a list in ascending
+ * order of their count. A hit moves its key into the bucket of the next count, which is either the neighbour of its
+ * current bucket or is created right behind it, and an eviction takes the oldest key of the first bucket, so both
+ * take constant time. Within a bucket keys are ordered by the time they reached the count of the bucket, ties are
+ * broken in favour of the key used more recently.
+ * <p>
+ * Without aging keys that were hot once keep their counts forever and pin the cache after the workload shifts, so
+ * every agingInterval hits all counts are halved. Halving walks all keys once, spread over agingInterval hits this
+ * still takes constant time per hit as long as the interval is not shorter than the cache.
+ */
+public class LfuPolicy implements EvictionPolicy {
+
+    // aging interval of a cache as a multiple of its size
+    public static final int DEFAULT_AGING_FACTOR = 10;
+
+    private final HashMap<String, Node> nodes = new HashMap<>();
+    // sentinel of the circular list of buckets, buckets.next has the lowest count
+    private final Bucket buckets = new Bucket(0);
+    private final long agingInterval;
+    private long hitsSinceAging;
+
+    /**
+     * @param agingInterval number of hits after which all counts are halved, 0 never ages the counts
+     */
+    public LfuPolicy(long agingInterval) {
+        this.agingInterval = agingInterval;
+    }
+
+    @Override
+    public void onInsert(String key) {
+        if (nodes.containsKey(key)) {
+            onHit(key);
+            return;
+        }
+        Node node = new Node(key);
+        nodes.put(key, node);
+        Bucket first = buckets.next;
+        if (first.count != 1) {
+            first = insertBucketAfter(buckets, 1);
+        }
+        first.append(node);
+    }
+
+    @Override
+    public void onHit(String key) {
+        Node node = nodes.get(key);
+        if (node == null) {
+            return;
+        }
+        Bucket current = node.bucket;
+        Bucket next = current.next;
+        if (next == buckets || next.count != current.count + 1) {
+            next = insertBucketAfter(current, current.count + 1);
+        }
+        current.unlink(node);
+        next.append(node);
+        removeIfEmpty(current);
+
+        if (agingInterval > 0 && ++hitsSinceAging >= agingInterval) {
+            age();
+        }
+    }
+
+    @Override
+    public String evict() {
+        Bucket first = buckets.next;
+        if (first == buckets) {
+            return null;
+        }
+        Node oldest = first.nodes.next;
+        first.unlink(oldest);
+        removeIfEmpty(first);
+        nodes.remove(oldest.key);
+        return oldest.key;
+    }
+
+    @Override
+    public void remove(String key) {
+        Node node = nodes.remove(key);
+        if (node != null) {
+            Bucket bucket = node.bucket;
+            bucket.unlink(node);
+            removeIfEmpty(bucket);
+        }
+    }
+
+    @Override
+    public void clear() {
+        nodes.clear();
+        buckets.next = buckets;
+        buckets.prev = buckets;
+        hitsSinceAging = 0;
+    }
+
+    @Override
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * @return use count of the key, 0 if it is not tracked
+     */
+    public long countOf(String key) {
+        Node node = nodes.get(key);
+        return node == null ? 0 : node.bucket.count;
+    }
+
+    /**
+     * Halves every count, keeping each count at least 1. Buckets whose counts become equal are merged, the keys of
+     * the bucket with the lower count go first
+     */
+    public void age() {
+        hitsSinceAging = 0;
+        Bucket bucket = buckets.next;
+        while (bucket != buckets) {
+            Bucket next = bucket.next;
+            long count = Math.max(1, bucket.count / 2);
+            Bucket previous = bucket.prev;
+            if (previous != buckets && previous.count == count) {
+                // counts are ascending, so a merged bucket only ever joins its predecessor
+                while (bucket.nodes.next != bucket.nodes) {
+                    Node node = bucket.nodes.next;
+                    bucket.unlink(node);
+                    previous.append(node);
+                }
+                removeIfEmpty(bucket);
+            } else {
+                bucket.count = count;
+            }
+            bucket = next;
+        }
+    }
+
+    private Bucket insertBucketAfter(Bucket previous, long count) {
+        Bucket bucket = new Bucket(count);
+        bucket.prev = previous;
+        bucket.next = previous.next;
+        previous.next.prev = bucket;
+        previous.next = bucket;
+        return bucket;
+    }
+
+    private void removeIfEmpty(Bucket bucket) {
+        if (bucket != buckets && bucket.nodes.next == bucket.nodes) {
+            bucket.prev.next = bucket.next;
+            bucket.next.prev = bucket.prev;
+        }
+    }
+
+    private static class Bucket {
+        private long count;
+        private Bucket prev = this;
+        private Bucket next = this;
+        // sentinel of the circular list of keys, nodes.next is the oldest key of the bucket
+        private final Node nodes = new Node(null);
+
+        private Bucket(long count) {
+            this.count = count;
+            nodes.prev = nodes;
+            nodes.next = nodes;
+        }
+
+        private void append(Node node) {
+            node.bucket = this;
+            node.next = nodes;
+            node.prev = nodes.prev;
+            nodes.prev.next = node;
+            nodes.prev = node;
+        }
+
+        private void unlink(Node node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            node.bucket = null;
+        }
+    }
+
+    private static class Node {
+        private final String key;
+        private Bucket bucket;
+        private Node prev;
+        private Node next;
+
+        private Node(String key) {
+            this.key = key;
+        }
+    }
+}
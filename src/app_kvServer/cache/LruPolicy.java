@@ -0,0 +1,107 @@
+package app_kvServer.cache;
+
+import java.util.HashMap;
+
+/**
+ * Least recently used eviction. Keys form a doubly linked list ordered by their last use, with the most recently
+ * used key at the head; the nodes are found through a hash map, so a hit moves its key to the head and an eviction
+ * unlinks the tail in constant time no matter how large the cache is.
+ */
+public class LruPolicy implements EvictionPolicy {
+
+    private final HashMap<String, Node> nodes = new HashMap<>();
+    // sentinel of the circular list, head.next is the most and head.prev the least recently used key
+    private final Node head = new Node(null);
+
+    public LruPolicy() {
+        head.prev = head;
+        head.next = head;
+    }
+
+    @Override
+    public void onInsert(String key) {
+        Node node = nodes.get(key);
+        if (node == null) {
+            node = new Node(key);
+            nodes.put(key, node);
+        } else {
+            unlink(node);
+        }
+        linkFirst(node);
+    }
+
+    @Override
+    public void onHit(String key) {
+        Node node = nodes.get(key);
+        if (node != null && head.next != node) {
+            unlink(node);
+            linkFirst(node);
+        }
+    }
+
+    @Override
+    public String evict() {
+        Node last = head.prev;
+        if (last == head) {
+            return null;
+        }
+        unlink(last);
+        nodes.remove(last.key);
+        return last.key;
+    }
+
+    @Override
+    public void remove(String key) {
+        Node node = nodes.remove(key);
+        if (node != null) {
+            unlink(node);
+        }
+    }
+
+    @Override
+    public void clear() {
+        nodes.clear();
+        head.prev = head;
+        head.next = head;
+    }
+
+    @Override
+    public int size() {
+        return nodes.size();
+    }
+
+    public boolean contains(String key) {
+        return nodes.containsKey(key);
+    }
+
+    /**
+     * @return the key {@link #evict()} would remove, without removing it; null if no keys are tracked
+     */
+    public String leastRecent() {
+        return head.prev == head ? null : head.prev.key;
+    }
+
+    private void linkFirst(Node node) {
+        node.prev = head;
+        node.next = head.next;
+        head.next.prev = node;
+        head.next = node;
+    }
+
+    private static void unlink(Node node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+
+    private static class Node {
+        private final String key;
+        private Node prev;
+        private Node next;
+
+        private Node(String key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package app_kvServer.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Records cache hits without a lock, so the {@link EvictionPolicy} can be told about them in batches. Hits go into
+ * one of several small ring buffers picked by the calling thread, so threads rarely share a buffer; a hit that finds
+ * its buffer full or contended is dropped. The policy only needs an approximate picture of the hits, losing a few
+ * under heavy load is cheaper than making every reader wait for the policy.
+ */
+public class ReadBuffer {
+
+    // hits a single ring buffer holds, a power of two
+    private static final int STRIPE_SIZE = 32;
+    private static final int MASK = STRIPE_SIZE - 1;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    public ReadBuffer() {
+        int stripeCount = 1;
+        while (stripeCount < 4 * Runtime.getRuntime().availableProcessors() && stripeCount < 256) {
+            stripeCount <<= 1;
+        }
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+        stripeMask = stripeCount - 1;
+    }
+
+    /**
+     * Records a hit of the key, never blocks
+     *
+     * @return true if the buffer of the calling thread is full and should be drained
+     */
+    public boolean record(String key) {
+        long threadId = Thread.currentThread().getId();
+        Stripe stripe = stripes[(int) (threadId ^ (threadId >>> 16)) & stripeMask];
+        long head = stripe.readIndex;
+        long tail = stripe.writeIndex.get();
+        long used = tail - head;
+        if (used >= STRIPE_SIZE) {
+            return true;
+        }
+        if (stripe.writeIndex.compareAndSet(tail, tail + 1)) {
+            stripe.slots.lazySet((int) (tail & MASK), key);
+            return used + 1 >= STRIPE_SIZE;
+        }
+        return false;
+    }
+
+    /**
+     * Hands every recorded hit to the consumer, only one thread may drain at a time
+     */
+    public void drainTo(Consumer<String> consumer) {
+        for (Stripe stripe : stripes) {
+            long head = stripe.readIndex;
+            long tail = stripe.writeIndex.get();
+            while (head < tail) {
+                int slot = (int) (head & MASK);
+                String key = stripe.slots.get(slot);
+                if (key == null) {
+                    // claimed but not written yet, picked up by the next drain
+                    break;
+                }
+                stripe.slots.lazySet(slot, null);
+                consumer.accept(key);
+                head++;
+            }
+            stripe.readIndex = head;
+        }
+    }
+
+    private static class Stripe {
+        private final AtomicReferenceArray<String> slots = new AtomicReferenceArray<>(STRIPE_SIZE);
+        private final AtomicLong writeIndex = new AtomicLong();
+        private volatile long readIndex;
+    }
+}
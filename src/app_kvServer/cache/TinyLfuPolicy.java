@@ -0,0 +1,133 @@
+package app_kvServer.cache;
+
+/**
+ * W-TinyLFU eviction. New keys enter a small LRU window that takes about 1% of the cache. A key pushed out of the
+ * window has to win against the key the main region would evict next, comparing their use counts estimated by a
+ * {@link FrequencySketch}; the loser leaves the cache. A burst of keys that are read once, such as a scan, therefore
+ * only ever flushes the window and not the keys that are used over and over.
+ * <p>
+ * The main region is a segmented LRU: keys admitted from the window start in the probation segment and move into the
+ * protected segment, which takes up to 80% of the main region, when they are used again. The next victim is the
+ * least recently used key on probation.
+ */
+public class TinyLfuPolicy implements EvictionPolicy {
+
+    private final int windowCapacity;
+    private final int protectedCapacity;
+    private final FrequencySketch sketch;
+    private final LruPolicy window = new LruPolicy();
+    private final LruPolicy probation = new LruPolicy();
+    private final LruPolicy protectedSegment = new LruPolicy();
+
+    /**
+     * @param capacity number of keys the cache holds
+     */
+    public TinyLfuPolicy(int capacity) {
+        this.windowCapacity = Math.max(1, capacity / 100);
+        this.protectedCapacity = (int) ((capacity - windowCapacity) * 0.8);
+        this.sketch = new FrequencySketch(capacity);
+    }
+
+    /**
+     * Adds a key while the cache has room, a key pushed out of the window moves into the main region without having
+     * to compete
+     */
+    @Override
+    public void onInsert(String key) {
+        if (contains(key)) {
+            onHit(key);
+            return;
+        }
+        sketch.increment(key);
+        window.onInsert(key);
+        if (window.size() > windowCapacity) {
+            probation.onInsert(window.evict());
+        }
+    }
+
+    /**
+     * Adds a key to a full cache
+     *
+     * @return the key that lost against the victim of the main region, or the victim if it lost
+     */
+    @Override
+    public String admit(String key) {
+        if (contains(key)) {
+            onHit(key);
+            return evict();
+        }
+        sketch.increment(key);
+        window.onInsert(key);
+        if (window.size() <= windowCapacity) {
+            // the main region holds more than its share, it makes room
+            return evictFromMain();
+        }
+        String candidate = window.evict();
+        String victim = probation.size() > 0 ? probation.leastRecent() : protectedSegment.leastRecent();
+        if (victim == null) {
+            return candidate;
+        }
+        if (sketch.frequency(candidate) > sketch.frequency(victim)) {
+            removeFromMain(victim);
+            probation.onInsert(candidate);
+            return victim;
+        }
+        return candidate;
+    }
+
+    @Override
+    public void onHit(String key) {
+        sketch.increment(key);
+        if (window.contains(key)) {
+            window.onHit(key);
+        } else if (probation.contains(key)) {
+            probation.remove(key);
+            protectedSegment.onInsert(key);
+            if (protectedSegment.size() > protectedCapacity) {
+                probation.onInsert(protectedSegment.evict());
+            }
+        } else {
+            protectedSegment.onHit(key);
+        }
+    }
+
+    @Override
+    public String evict() {
+        String evicted = evictFromMain();
+        return evicted != null ? evicted : window.evict();
+    }
+
+    @Override
+    public void remove(String key) {
+        window.remove(key);
+        probation.remove(key);
+        protectedSegment.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        window.clear();
+        probation.clear();
+        protectedSegment.clear();
+        sketch.clear();
+    }
+
+    @Override
+    public int size() {
+        return window.size() + probation.size() + protectedSegment.size();
+    }
+
+    private boolean contains(String key) {
+        return window.contains(key) || probation.contains(key) || protectedSegment.contains(key);
+    }
+
+    private String evictFromMain() {
+        String evicted = probation.evict();
+        return evicted != null ? evicted : protectedSegment.evict();
+    }
+
+    private void removeFromMain(String key) {
+        probation.remove(key);
+        protectedSegment.remove(key);
+    }
+}
@@ -0,0 +1,35 @@
+package app_kvServer.storage;
+
+import java.util.List;
+
+/**
+ * Batch applied by {@link KeyValueStore#applyBatch(java.util.Map)} together with the values it replaced
+ */
+public class AppliedBatch {
+
+    /**
+     * Recorded instead of a location for keys the batch deleted
+     */
+    static final RecordPointer DELETED = new RecordPointer(-1, -1, 0);
+
+    final List<String> keys;
+    // null for keys that did not exist before the batch
+    final List<String> previousValues;
+    // where the batch put each key, a key whose location changed since has been written again
+    final List<RecordPointer> locations;
+
+    AppliedBatch(List<String> keys, List<String> previousValues, List<RecordPointer> locations) {
+        this.keys = keys;
+        this.previousValues = previousValues;
+        this.locations = locations;
+    }
+
+    /**
+     * @param current where the i-th key of the batch is stored now, null if it is not stored
+     * @return true if the key still holds what the batch wrote, so reverting it does not undo a later write
+     */
+    boolean isUnchanged(int i, RecordPointer current) {
+        RecordPointer written = locations.get(i);
+        return current == null ? written == DELETED : current.equals(written);
+    }
+}
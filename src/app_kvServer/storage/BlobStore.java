@@ -0,0 +1,259 @@
+package app_kvServer.storage;
+
+import common.helper.ConsistentHash;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps large values in files of their own instead of in the records of a {@link PartitionedStore}. The record of
+ * such a key only holds a marker naming the blob file, so the value never has to pass through the segment files,
+ * the index or a single string in memory.
+ * <p>
+ * The blobs of a key live in a directory named after the MD5 hash of the key, which makes "does this key have a
+ * blob" a single file system lookup. A new blob is written to a temporary file first and moved into the directory
+ * before the marker is written; blobs the current marker does not name are removed right after, and by the next
+ * write of the key if the server stopped in between.
+ * <p>
+ * The keys whose stored value is a marker are also kept in memory, so a read can tell whether a key is a blob without
+ * a lock or a file system lookup. The owner of the store rebuilds them with {@link #index(String)} after a restart.
+ */
+public class BlobStore {
+
+    private static Logger logger = LogManager.getLogger(BlobStore.class);
+
+    // stored in place of the value, followed by the name of the blob file; no client value can start with it
+    private static final String MARKER_PREFIX = "\u0000blob:";
+    private static final String TEMP_PREFIX = "blob";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File directory;
+    // keys with a committed blob
+    private final Set<String> keys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param directory directory holding the blob files, used by this store only
+     */
+    public BlobStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Creates the blob directory and removes temporary files of writes that never finished
+     *
+     * @throws IOException if the directory can not be created
+     */
+    public void open() throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create blob directory " + directory.getPath());
+        }
+        File[] temps = directory.listFiles((dir, name) -> name.endsWith(TEMP_SUFFIX));
+        if (temps != null) {
+            for (File temp : temps) {
+                deleteFile(temp);
+            }
+        }
+    }
+
+    /**
+     * @return true if the value has to be kept as a blob: it is at least threshold characters long, or it could
+     * be mistaken for a marker
+     */
+    public static boolean isLarge(String value, int threshold) {
+        return value != null && ((threshold > 0 && value.length() >= threshold) || value.startsWith(MARKER_PREFIX));
+    }
+
+    /**
+     * @return true if a stored value is a marker pointing at a blob
+     */
+    public static boolean isMarker(String value) {
+        return value != null && value.startsWith(MARKER_PREFIX);
+    }
+
+    /**
+     * Writes a value to a temporary blob file and forces it to disk, without touching any store
+     *
+     * @param head start of the value, already read from the reader
+     * @param rest reader over the rest of the value
+     * @return temporary file to pass to {@link #commit(String, File)}
+     * @throws IOException if the value can not be read or written
+     */
+    public File write(CharSequence head, Reader rest) throws IOException {
+        File temp = File.createTempFile(TEMP_PREFIX, TEMP_SUFFIX, directory);
+        try (FileOutputStream file = new FileOutputStream(temp)) {
+            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(file, StandardCharsets.UTF_8),
+                    BUFFER_SIZE);
+            out.append(head);
+            char[] buffer = new char[BUFFER_SIZE];
+            int read;
+            while ((read = rest.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            out.flush();
+            file.getFD().sync();
+        } catch (IOException e) {
+            deleteFile(temp);
+            throw e;
+        }
+        return temp;
+    }
+
+    /**
+     * Moves a temporary blob file into the directory of the key
+     *
+     * @return marker to store as the value of the key
+     * @throws IOException if the file can not be moved
+     */
+    public String commit(String key, File temp) throws IOException {
+        File keyDirectory = keyDirectory(key);
+        if (!keyDirectory.exists() && !keyDirectory.mkdirs()) {
+            throw new IOException("Unable to create blob directory of key " + key);
+        }
+        String name = UUID.randomUUID().toString();
+        Files.move(temp.toPath(), new File(keyDirectory, name).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        keys.add(key);
+        return MARKER_PREFIX + name;
+    }
+
+    /**
+     * @return true if the key may have a blob on disk, false if it definitely has none
+     */
+    public boolean mayHave(String key) {
+        return keyDirectory(key).exists();
+    }
+
+    /**
+     * Looks at memory only, never at the file system
+     *
+     * @return true if a blob was committed for the key and has not been removed since
+     */
+    public boolean contains(String key) {
+        return keys.contains(key);
+    }
+
+    /**
+     * Remembers that the value stored for the key is a marker of this store, for keys stored before a restart
+     */
+    public void index(String key) {
+        keys.add(key);
+    }
+
+    /**
+     * @return MD5 hashes of the keys that have blob directories
+     */
+    public List<String> keyHashes() {
+        List<String> hashes = new ArrayList<>();
+        File[] keyDirectories = directory.listFiles(File::isDirectory);
+        if (keyDirectories != null) {
+            for (File keyDirectory : keyDirectories) {
+                hashes.add(keyDirectory.getName());
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * @param marker value stored for the key
+     * @return reader over the blob the marker points at
+     * @throws IOException if the blob can not be opened
+     */
+    public Reader open(String key, String marker) throws IOException {
+        return new InputStreamReader(new FileInputStream(blobFile(key, marker)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a whole blob into memory, for callers that need the value as a string
+     *
+     * @throws IOException if the blob can not be read
+     */
+    public String read(String key, String marker) throws IOException {
+        return new String(Files.readAllBytes(blobFile(key, marker).toPath()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Removes the blobs of the key except the one the marker points at
+     *
+     * @param marker marker stored for the key, null to remove all blobs of the key
+     */
+    public void removeOthers(String key, String marker) {
+        File keyDirectory = keyDirectory(key);
+        String keep = marker == null ? null : marker.substring(MARKER_PREFIX.length());
+        File[] blobs = keyDirectory.listFiles();
+        if (blobs == null) {
+            return;
+        }
+        for (File blob : blobs) {
+            if (!blob.getName().equals(keep)) {
+                deleteFile(blob);
+            }
+        }
+        if (keep == null) {
+            deleteFile(keyDirectory);
+        }
+    }
+
+    /**
+     * Removes all blobs of the key
+     */
+    public void remove(String key) {
+        keys.remove(key);
+        if (mayHave(key)) {
+            removeOthers(key, null);
+        }
+    }
+
+    /**
+     * Removes every blob, leaving an empty blob directory behind
+     *
+     * @throws IOException if the directory can not be recreated
+     */
+    public void clear() throws IOException {
+        keys.clear();
+        deleteRecursively(directory);
+        open();
+    }
+
+    private File keyDirectory(String key) {
+        return new File(directory, ConsistentHash.getMD5(key));
+    }
+
+    private File blobFile(String key, String marker) throws IOException {
+        if (!isMarker(marker)) {
+            throw new IOException("Value of key " + key + " is not stored as a blob");
+        }
+        return new File(keyDirectory(key), marker.substring(MARKER_PREFIX.length()));
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        deleteFile(file);
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            logger.warn("Unable to delete " + file.getName());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package app_kvServer.storage;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over the keys of a {@link LogStore}. A negative answer is definite, so a lookup for a key that was
+ * never written returns without taking the store lock or looking at the index.
+ * <p>
+ * Keys are only ever added; deleted keys stay in the filter until the store rebuilds it from its index, which it does
+ * after a compaction and whenever the filter outgrows the number of keys it was sized for. Adds come from the single
+ * thread holding the store lock, lookups may run concurrently and see every add made before them.
+ */
+public class BloomFilter {
+
+    private static final double LN_2 = Math.log(2);
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final int expectedKeys;
+    private volatile int insertions;
+
+    /**
+     * @param expectedKeys number of keys the filter is sized for
+     * @param bitsPerKey   bits spent per expected key, 10 bits give about 1% false positives
+     */
+    public BloomFilter(int expectedKeys, int bitsPerKey) {
+        long words = Math.max(1, ((long) expectedKeys * bitsPerKey + 63) / 64);
+        this.bits = new AtomicLongArray((int) Math.min(words, Integer.MAX_VALUE));
+        this.bitCount = bits.length() * 64L;
+        this.hashCount = Math.max(1, Math.min(16, (int) Math.round(bitsPerKey * LN_2)));
+        this.expectedKeys = expectedKeys;
+    }
+
+    public void add(String key) {
+        long hash = hash(key);
+        int first = (int) hash;
+        int second = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((first + (long) i * second) & Long.MAX_VALUE) % bitCount;
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            if ((bits.get(word) & mask) == 0) {
+                bits.set(word, bits.get(word) | mask);
+            }
+        }
+        insertions++;
+    }
+
+    /**
+     * @return false if the key was definitely never added, true if it may have been
+     */
+    public boolean mightContain(String key) {
+        long hash = hash(key);
+        int first = (int) hash;
+        int second = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((first + (long) i * second) & Long.MAX_VALUE) % bitCount;
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true once more keys were added than the filter was sized for
+     */
+    public boolean isFull() {
+        return insertions >= expectedKeys;
+    }
+
+    public int getInsertions() {
+        return insertions;
+    }
+
+    public long getSizeBytes() {
+        return bitCount / 8;
+    }
+
+    /**
+     * @return false positive rate to expect with the keys added so far
+     */
+    public double getExpectedFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-hashCount * (double) insertions / bitCount), hashCount);
+    }
+
+    /**
+     * 64 bit FNV-1a over the characters of the key, finished with the murmur3 mixer so both halves are usable as
+     * independent hashes
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
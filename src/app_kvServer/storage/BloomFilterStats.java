@@ -0,0 +1,71 @@
+package app_kvServer.storage;
+
+/**
+ * Point in time view of how well the {@link BloomFilter}s of the stores answer lookups for keys that are not stored
+ */
+public class BloomFilterStats {
+
+    private final long filteredLookups;
+    private final long falsePositives;
+    private final long keys;
+    private final long sizeBytes;
+
+    public BloomFilterStats(long filteredLookups, long falsePositives, long keys, long sizeBytes) {
+        this.filteredLookups = filteredLookups;
+        this.falsePositives = falsePositives;
+        this.keys = keys;
+        this.sizeBytes = sizeBytes;
+    }
+
+    /**
+     * @return lookups answered by the filters alone
+     */
+    public long getFilteredLookups() {
+        return filteredLookups;
+    }
+
+    /**
+     * @return lookups the filters let through for keys that were not stored
+     */
+    public long getFalsePositives() {
+        return falsePositives;
+    }
+
+    /**
+     * @return share of lookups for keys that are not stored which the filters failed to reject
+     */
+    public double getFalsePositiveRate() {
+        long negativeLookups = filteredLookups + falsePositives;
+        return negativeLookups == 0 ? 0 : (double) falsePositives / negativeLookups;
+    }
+
+    /**
+     * @return keys added to the filters, including deleted keys not yet dropped by a rebuild
+     */
+    public long getKeys() {
+        return keys;
+    }
+
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * Combines the stats of two sets of filters
+     */
+    public BloomFilterStats add(BloomFilterStats other) {
+        return new BloomFilterStats(filteredLookups + other.filteredLookups, falsePositives + other.falsePositives,
+                keys + other.keys, sizeBytes + other.sizeBytes);
+    }
+
+    @Override
+    public String toString() {
+        return "BloomFilterStats{" +
+                "filteredLookups=" + filteredLookups +
+                ", falsePositives=" + falsePositives +
+                ", falsePositiveRate=" + String.format("%.4f", getFalsePositiveRate()) +
+                ", keys=" + keys +
+                ", sizeBytes=" + sizeBytes +
+                '}';
+    }
+}
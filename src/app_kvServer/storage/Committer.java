@@ -0,0 +1,184 @@
+package app_kvServer.storage;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Makes appended records durable according to the configured {@link StorageConfig.Durability}:
+ * <ul>
+ * <li>SYNC - every append is forced to disk before the write returns</li>
+ * <li>PERIODIC - a background thread forces dirty segments every few milliseconds, writes return right away</li>
+ * <li>GROUP_COMMIT - appends of concurrent writers are buffered and a background thread writes and forces them with
+ * one write and one fsync per segment; each writer waits in {@link #awaitDurable()} until its batch is on disk</li>
+ * </ul>
+ */
+public class Committer {
+
+    private static Logger logger = LogManager.getLogger(Committer.class);
+
+    private final StorageConfig.Durability durability;
+    private final long syncIntervalMillis;
+
+    private final Set<Segment> dirtySegments = new LinkedHashSet<>();
+    private long appendedSequence;
+    private long durableSequence;
+    // the last batch that could not be made durable covers the sequences (failedAfter, failedUpTo]
+    private IOException failure;
+    private long failedAfter;
+    private long failedUpTo;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public Committer(StorageConfig config) {
+        this.durability = config.getDurability();
+        this.syncIntervalMillis = config.getSyncIntervalMillis();
+    }
+
+    /**
+     * @return true if segments have to buffer their appends until the committer flushes them
+     */
+    public boolean isBuffered() {
+        return durability == StorageConfig.Durability.GROUP_COMMIT;
+    }
+
+    public void start() {
+        if (durability == StorageConfig.Durability.SYNC) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "committer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the background thread after making everything appended so far durable
+     */
+    public void stop() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    /**
+     * Registers an append to the segment, must be called after every append
+     *
+     * @throws IOException if the durability mode is SYNC and the segment can not be forced to disk
+     */
+    public void markDirty(Segment segment) throws IOException {
+        if (durability == StorageConfig.Durability.SYNC) {
+            segment.sync();
+            return;
+        }
+        synchronized (this) {
+            dirtySegments.add(segment);
+            appendedSequence++;
+            if (isBuffered()) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Blocks until everything appended before this call is durable. Only waits in GROUP_COMMIT mode, in the other
+     * modes appends are either already synced or synced on the next tick.
+     *
+     * @throws IOException if the batch could not be written to disk
+     */
+    public void awaitDurable() throws IOException {
+        if (!isBuffered()) {
+            return;
+        }
+        synchronized (this) {
+            long ticket = appendedSequence;
+            while (durableSequence < ticket && running) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for group commit");
+                }
+            }
+            if (failure != null && ticket > failedAfter && ticket <= failedUpTo) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Writes the buffered appends of a segment and forces them to disk
+     *
+     * @throws IOException if the segment can not be written or forced
+     */
+    protected void force(Segment segment) throws IOException {
+        segment.flush();
+        segment.sync();
+    }
+
+    private void run() {
+        while (true) {
+            List<Segment> segments;
+            long target;
+            synchronized (this) {
+                try {
+                    if (isBuffered()) {
+                        while (running && appendedSequence == durableSequence) {
+                            wait();
+                        }
+                    } else if (running) {
+                        wait(syncIntervalMillis);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!running && appendedSequence == durableSequence) {
+                    notifyAll();
+                    return;
+                }
+                target = appendedSequence;
+                segments = new ArrayList<>(dirtySegments);
+                dirtySegments.clear();
+            }
+
+            IOException batchFailure = null;
+            for (Segment segment : segments) {
+                try {
+                    force(segment);
+                } catch (ClosedChannelException e) {
+                    // segment was closed by a compaction or clear, which flushed or dropped its data already
+                } catch (IOException e) {
+                    logger.error("Unable to sync " + segment.getFile().getName() + " - " + e.getMessage());
+                    batchFailure = e;
+                }
+            }
+
+            synchronized (this) {
+                if (batchFailure != null) {
+                    failure = batchFailure;
+                    failedAfter = durableSequence;
+                    failedUpTo = target;
+                }
+                durableSequence = target;
+                notifyAll();
+            }
+        }
+    }
+}
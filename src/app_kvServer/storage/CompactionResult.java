@@ -0,0 +1,42 @@
+package app_kvServer.storage;
+
+/**
+ * Outcome of merging the sealed segments of a single {@link LogStore}
+ */
+public class CompactionResult {
+
+    private final int mergedSegments;
+    private final long bytesRead;
+    private final long bytesWritten;
+    private final long durationMillis;
+
+    public CompactionResult(int mergedSegments, long bytesRead, long bytesWritten, long durationMillis) {
+        this.mergedSegments = mergedSegments;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+        this.durationMillis = durationMillis;
+    }
+
+    public int getMergedSegments() {
+        return mergedSegments;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return bytes of dead records removed from disk
+     */
+    public long getBytesReclaimed() {
+        return bytesRead - bytesWritten;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+}
@@ -0,0 +1,69 @@
+package app_kvServer.storage;
+
+/**
+ * Point in time view of the compaction debt and the work done by the {@link Compactor} so far
+ */
+public class CompactionStats {
+
+    private final long debtBytes;
+    private final long totalBytes;
+    private final long compactions;
+    private final long bytesRead;
+    private final long bytesReclaimed;
+    private final long busyMillis;
+
+    public CompactionStats(long debtBytes, long totalBytes, long compactions, long bytesRead, long bytesReclaimed,
+                           long busyMillis) {
+        this.debtBytes = debtBytes;
+        this.totalBytes = totalBytes;
+        this.compactions = compactions;
+        this.bytesRead = bytesRead;
+        this.bytesReclaimed = bytesReclaimed;
+        this.busyMillis = busyMillis;
+    }
+
+    /**
+     * @return bytes of dead records currently waiting to be compacted away
+     */
+    public long getDebtBytes() {
+        return debtBytes;
+    }
+
+    /**
+     * @return bytes of all segments on disk
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getCompactions() {
+        return compactions;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesReclaimed() {
+        return bytesReclaimed;
+    }
+
+    /**
+     * @return bytes of segments merged per second while the compactor was busy
+     */
+    public double getThroughputBytesPerSecond() {
+        return busyMillis == 0 ? 0 : bytesRead * 1000.0 / busyMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "CompactionStats{" +
+                "debtBytes=" + debtBytes +
+                ", totalBytes=" + totalBytes +
+                ", compactions=" + compactions +
+                ", bytesRead=" + bytesRead +
+                ", bytesReclaimed=" + bytesReclaimed +
+                ", throughputBytesPerSecond=" + String.format("%.0f", getThroughputBytesPerSecond()) +
+                '}';
+    }
+}
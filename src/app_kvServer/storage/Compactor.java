@@ -0,0 +1,99 @@
+package app_kvServer.storage;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background thread that periodically compacts every {@link KeyValueStore} whose share of dead bytes crossed the
+ * configured threshold. Compactions run one store at a time so foreground requests on other stores are never held up.
+ */
+public class Compactor {
+
+    private static Logger logger = LogManager.getLogger(Compactor.class);
+
+    private final List<KeyValueStore> stores;
+    private final long intervalMillis;
+    private final double minDeadRatio;
+
+    private ScheduledExecutorService scheduler;
+
+    private long compactions;
+    private long bytesRead;
+    private long bytesReclaimed;
+    private long busyMillis;
+
+    /**
+     * @param stores stores to keep compacted
+     * @param config compaction interval and dead byte threshold
+     */
+    public Compactor(List<KeyValueStore> stores, StorageConfig config) {
+        this.stores = new ArrayList<>(stores);
+        this.intervalMillis = config.getCompactionIntervalMillis();
+        this.minDeadRatio = config.getCompactionDeadRatio();
+    }
+
+    /**
+     * Starts the background thread, does nothing if compaction is disabled with an interval of 0
+     */
+    public void start() {
+        if (intervalMillis <= 0) {
+            logger.info("Background compaction disabled");
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::compactAll, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Runs one compaction pass over all stores on the calling thread
+     */
+    public void compactAll() {
+        for (KeyValueStore store : stores) {
+            try {
+                CompactionResult result = store.compact(minDeadRatio);
+                if (result != null) {
+                    record(result);
+                }
+            } catch (IOException e) {
+                logger.error("Compaction failed - " + e.getMessage());
+            }
+        }
+    }
+
+    private synchronized void record(CompactionResult result) {
+        compactions++;
+        bytesRead += result.getBytesRead();
+        bytesReclaimed += result.getBytesReclaimed();
+        busyMillis += result.getDurationMillis();
+        logger.info("Compacted " + result.getMergedSegments() + " segments, reclaimed " + result.getBytesReclaimed()
+                + " bytes in " + result.getDurationMillis() + "ms");
+    }
+
+    public synchronized CompactionStats getStats() {
+        long debtBytes = 0;
+        long totalBytes = 0;
+        for (KeyValueStore store : stores) {
+            debtBytes += store.getDeadBytes();
+            totalBytes += store.getTotalBytes();
+        }
+        return new CompactionStats(debtBytes, totalBytes, compactions, bytesRead, bytesReclaimed, busyMillis);
+    }
+}
@@ -0,0 +1,84 @@
+package app_kvServer.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of record values. A compressed value starts with its uncompressed length so it can be inflated
+ * into a buffer of the right size in one go. Compression runs at the fastest level, the values are text that shrinks
+ * well already.
+ */
+public class Compression {
+
+    private static final int LENGTH_PREFIX = 4;
+
+    private Compression() {
+    }
+
+    /**
+     * @param data      uncompressed value
+     * @param threshold values shorter than this are not compressed, 0 disables compression
+     * @return compressed value, or null if the value is not worth compressing
+     */
+    public static byte[] compress(byte[] data, int threshold) {
+        if (threshold <= 0 || data.length < threshold) {
+            return null;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + LENGTH_PREFIX);
+            out.write(ByteBuffer.allocate(LENGTH_PREFIX).putInt(data.length).array(), 0, LENGTH_PREFIX);
+            byte[] buffer = new byte[Math.min(data.length, 64 * 1024)];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+                if (out.size() >= data.length) {
+                    // incompressible, storing it as it is is smaller
+                    return null;
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @param data value produced by {@link #compress(byte[], int)}
+     * @return uncompressed value
+     * @throws IOException if the data is not a valid compressed value
+     */
+    public static byte[] decompress(byte[] data) throws IOException {
+        if (data.length < LENGTH_PREFIX) {
+            throw new IOException("Compressed value of " + data.length + " bytes is too short");
+        }
+        int length = ByteBuffer.wrap(data).getInt();
+        if (length < 0) {
+            throw new IOException("Invalid uncompressed length " + length);
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, LENGTH_PREFIX, data.length - LENGTH_PREFIX);
+            byte[] value = new byte[length];
+            int inflated = 0;
+            while (inflated < length) {
+                int read = inflater.inflate(value, inflated, length - inflated);
+                if (read == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Compressed value ends after " + inflated + " of " + length + " bytes");
+                }
+                inflated += read;
+            }
+            return value;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted compressed value - " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+}
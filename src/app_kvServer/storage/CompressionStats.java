@@ -0,0 +1,47 @@
+package app_kvServer.storage;
+
+/**
+ * Value bytes written since the stores were opened, before and after {@link Compression}. Values below the threshold
+ * count with the same size on both sides.
+ */
+public class CompressionStats {
+
+    private final long rawBytes;
+    private final long storedBytes;
+
+    public CompressionStats(long rawBytes, long storedBytes) {
+        this.rawBytes = rawBytes;
+        this.storedBytes = storedBytes;
+    }
+
+    public long getRawBytes() {
+        return rawBytes;
+    }
+
+    public long getStoredBytes() {
+        return storedBytes;
+    }
+
+    /**
+     * @return raw bytes per stored byte, 1 if nothing has been written yet
+     */
+    public double getRatio() {
+        return storedBytes == 0 ? 1 : (double) rawBytes / storedBytes;
+    }
+
+    /**
+     * Combines the stats of two sets of stores
+     */
+    public CompressionStats add(CompressionStats other) {
+        return new CompressionStats(rawBytes + other.rawBytes, storedBytes + other.storedBytes);
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionStats{" +
+                "rawBytes=" + rawBytes +
+                ", storedBytes=" + storedBytes +
+                ", ratio=" + String.format("%.2f", getRatio()) +
+                '}';
+    }
+}
@@ -0,0 +1,168 @@
+package app_kvServer.storage;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background thread that deletes keys once their time to live is over. Expiries are kept in a {@link TimingWheel},
+ * every tick the keys that became due are handed to the purge callback in one go. Without background expiration
+ * nothing is scheduled and expired keys are only dropped when they are read.
+ */
+public class Expirer {
+
+    /**
+     * Deletes keys whose expiry has passed
+     */
+    public interface Purge {
+
+        /**
+         * @param keys keys that were due, each one has to be checked again as it may have been overwritten since
+         * @throws IOException if the keys can not be deleted
+         */
+        void purge(List<String> keys) throws IOException;
+    }
+
+    private static Logger logger = LogManager.getLogger(Expirer.class);
+
+    private final String name;
+    private final long tickMillis;
+    private final boolean enabled;
+    private final TimingWheel wheel;
+    private final Purge purge;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param name   name of the thread
+     * @param config expiration tick
+     * @param purge  deletes the keys that are due
+     */
+    public Expirer(String name, StorageConfig config, Purge purge) {
+        this.name = name;
+        this.tickMillis = config.getExpirationTickMillis();
+        this.enabled = tickMillis > 0;
+        this.wheel = enabled ? new TimingWheel(tickMillis, System.currentTimeMillis()) : null;
+        this.purge = purge;
+    }
+
+    /**
+     * Starts the background thread, does nothing if background expiration is disabled
+     */
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::expireDue, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            try {
+                scheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Runs a task on the expiration thread, used to schedule the expiries of recovered keys without holding up the
+     * start of the server. The task runs on the calling thread if background expiration is disabled
+     */
+    public void submit(Runnable task) {
+        if (scheduler != null) {
+            scheduler.execute(task);
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * Schedules the key to be deleted at the given time, a key that never expires is taken off the wheel
+     */
+    public void schedule(String key, long expiresAt) {
+        if (!enabled) {
+            return;
+        }
+        if (expiresAt == Expiry.NEVER) {
+            wheel.cancel(key);
+        } else {
+            wheel.schedule(key, expiresAt);
+        }
+    }
+
+    public void cancel(String key) {
+        if (enabled) {
+            wheel.cancel(key);
+        }
+    }
+
+    public void clear() {
+        if (enabled) {
+            wheel.clear();
+        }
+    }
+
+    /**
+     * @return true if expiries are scheduled and deleted in the background
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return scheduled expiry of the key, {@link Expiry#NEVER} if it has none or background expiration is disabled
+     */
+    public long deadlineOf(String key) {
+        return enabled ? wheel.deadlineOf(key) : Expiry.NEVER;
+    }
+
+    /**
+     * @return number of keys waiting to expire
+     */
+    public int size() {
+        return enabled ? wheel.size() : 0;
+    }
+
+    /**
+     * Purges every key that is due on the calling thread
+     *
+     * @return number of keys handed to the purge callback
+     */
+    public int expireDue() {
+        if (!enabled) {
+            return 0;
+        }
+        List<String> due = wheel.advance(System.currentTimeMillis());
+        if (due.isEmpty()) {
+            return 0;
+        }
+        try {
+            purge.purge(due);
+            logger.info("Expired " + due.size() + " keys");
+        } catch (IOException e) {
+            logger.error("Expiration failed - " + e.getMessage());
+            // tried again on the next tick, unless the key was written again meanwhile
+            long retryAt = System.currentTimeMillis();
+            for (String key : due) {
+                if (wheel.deadlineOf(key) == Expiry.NEVER) {
+                    wheel.schedule(key, retryAt);
+                }
+            }
+        }
+        return due.size();
+    }
+}
@@ -0,0 +1,80 @@
+package app_kvServer.storage;
+
+/**
+ * Stored form of a value with a time to live. The value is prefixed with the absolute time it expires at, so the
+ * expiry travels with the value wherever it is copied to, replicas and migrated ranges expire at the same moment as
+ * the original:
+ * <pre>
+ * \u0000ttl:&lt;expires at, epoch millis&gt;:&lt;value&gt;
+ * </pre>
+ * Values without a time to live are stored as they are.
+ */
+public class Expiry {
+
+    // expiry of a value that lives until it is overwritten or deleted
+    public static final long NEVER = 0;
+
+    private static final String PREFIX = "\u0000ttl:";
+    private static final char SEPARATOR = ':';
+
+    private Expiry() {
+    }
+
+    /**
+     * @param ttlMillis time to live, 0 or less for a value that never expires
+     * @return absolute expiry of a value written now
+     */
+    public static long expiresAt(long ttlMillis) {
+        return ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : NEVER;
+    }
+
+    /**
+     * @return stored form of the value, the value itself if it never expires and can not be mistaken for a stored
+     * form
+     */
+    public static String wrap(String value, long expiresAt) {
+        if (value == null || (expiresAt == NEVER && !isWrapped(value))) {
+            return value;
+        }
+        return PREFIX + expiresAt + SEPARATOR + value;
+    }
+
+    /**
+     * @return value without its expiry
+     */
+    public static String unwrap(String stored) {
+        if (!isWrapped(stored)) {
+            return stored;
+        }
+        return stored.substring(stored.indexOf(SEPARATOR, PREFIX.length()) + 1);
+    }
+
+    /**
+     * @return absolute expiry of a stored value, {@link #NEVER} if it has none
+     */
+    public static long expiryOf(String stored) {
+        if (!isWrapped(stored)) {
+            return NEVER;
+        }
+        try {
+            return Long.parseLong(stored.substring(PREFIX.length(), stored.indexOf(SEPARATOR, PREFIX.length())));
+        } catch (NumberFormatException e) {
+            return NEVER;
+        }
+    }
+
+    /**
+     * @return true if the stored value has an expiry that is not later than now
+     */
+    public static boolean isExpired(String stored, long now) {
+        return isExpired(expiryOf(stored), now);
+    }
+
+    public static boolean isExpired(long expiresAt, long now) {
+        return expiresAt != NEVER && expiresAt <= now;
+    }
+
+    private static boolean isWrapped(String stored) {
+        return stored != null && stored.startsWith(PREFIX) && stored.indexOf(SEPARATOR, PREFIX.length()) > 0;
+    }
+}
@@ -0,0 +1,93 @@
+package app_kvServer.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Keys ordered by their 128 bit MD5 hash, kept in a skip list. Extracting the keys of a hash range is a seek to the
+ * start of the range followed by a sequential walk, so it costs O(log n + k) instead of hashing every stored key.
+ * The index is maintained on every write and delete and rebuilt from the key index whenever a store is opened.
+ */
+public class HashIndex {
+
+    private final ConcurrentSkipListSet<HashedKey> keys = new ConcurrentSkipListSet<>();
+
+    public void add(String hash, String key) {
+        keys.add(new HashedKey(hash, key));
+    }
+
+    public void remove(String hash, String key) {
+        keys.remove(new HashedKey(hash, key));
+    }
+
+    /**
+     * @return keys whose hash lies within [from, to] ordered by hash; from has to be less or equal to to
+     */
+    public List<String> range(String from, String to) {
+        NavigableSet<HashedKey> subSet = keys.subSet(HashedKey.lowerBound(from), true, HashedKey.upperBound(to),
+                true);
+        List<String> rangeKeys = new ArrayList<>();
+        for (HashedKey hashedKey : subSet) {
+            rangeKeys.add(hashedKey.key);
+        }
+        return rangeKeys;
+    }
+
+    /**
+     * Removes all keys whose hash lies within [from, to]; from has to be less or equal to to
+     */
+    public void removeRange(String from, String to) {
+        keys.subSet(HashedKey.lowerBound(from), true, HashedKey.upperBound(to), true).clear();
+    }
+
+    public void clear() {
+        keys.clear();
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    private static class HashedKey implements Comparable<HashedKey> {
+        private final String hash;
+        // null marks an upper bound that sorts after every key with the same hash
+        private final String key;
+
+        private HashedKey(String hash, String key) {
+            this.hash = hash;
+            this.key = key;
+        }
+
+        private static HashedKey lowerBound(String hash) {
+            return new HashedKey(hash, "");
+        }
+
+        private static HashedKey upperBound(String hash) {
+            return new HashedKey(hash, null);
+        }
+
+        @Override
+        public int compareTo(HashedKey o) {
+            int hashCompare = hash.compareTo(o.hash);
+            if (hashCompare != 0) {
+                return hashCompare;
+            }
+            if (key == null || o.key == null) {
+                return key == null ? (o.key == null ? 0 : 1) : -1;
+            }
+            return key.compareTo(o.key);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof HashedKey && compareTo((HashedKey) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * hash.hashCode() + (key == null ? 0 : key.hashCode());
+        }
+    }
+}
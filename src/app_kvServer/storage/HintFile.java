@@ -0,0 +1,171 @@
+package app_kvServer.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checkpoint of the index entries of a sealed {@link Segment}, so a restarted {@link LogStore} can rebuild its index
+ * without reading every value. All numbers are big endian:
+ * <pre>
+ * | segment size (8) | entry count (4) | entries | crc32c (4) |
+ * entry: | sequence (8) | flags (1) | offset (8) | length (4) | key length (4) | key |
+ * </pre>
+ * The segment size ties the hint file to the exact segment content it describes; a hint file whose segment has a
+ * different size, or whose checksum does not match, is ignored and the segment is scanned instead.
+ */
+public class HintFile {
+
+    // suffix of the temporary file a hint file is written to before it is moved into place
+    public static final String TEMP_SUFFIX = ".tmp";
+
+    private HintFile() {
+    }
+
+    /**
+     * Atomically writes the hint file of a segment
+     *
+     * @param file        hint file to write
+     * @param segmentSize size of the segment the entries describe
+     * @param entries     one entry per record of the segment
+     * @throws IOException if the file can not be written
+     */
+    public static void write(File file, long segmentSize, List<Entry> entries) throws IOException {
+        write(file, segmentSize, entries, false);
+    }
+
+    /**
+     * Atomically writes the hint file of a segment
+     *
+     * @param file        hint file to write
+     * @param segmentSize size of the segment the entries describe
+     * @param entries     one entry per record of the segment
+     * @param durable     true to force the file onto the disk before it is moved into place, for hint files the
+     *                    segment can not be read without
+     * @throws IOException if the file can not be written
+     */
+    public static void write(File file, long segmentSize, List<Entry> entries, boolean durable) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(segmentSize);
+        out.writeInt(entries.size());
+        for (Entry entry : entries) {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            out.writeLong(entry.getSequence());
+            out.writeByte(entry.getFlags());
+            out.writeLong(entry.getOffset());
+            out.writeInt(entry.getLength());
+            out.writeInt(key.length);
+            out.write(key);
+        }
+        Crc32c crc = new Crc32c();
+        crc.update(bytes.toByteArray(), 0, bytes.size());
+        out.writeInt((int) crc.getValue());
+        out.flush();
+
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        Files.write(temp.toPath(), bytes.toByteArray());
+        if (durable) {
+            try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads the hint file of a segment
+     *
+     * @param file        hint file to read
+     * @param segmentSize current size of the segment
+     * @return entries of the segment or null if there is no hint file or it does not match the segment
+     * @throws IOException if the file exists but can not be read
+     */
+    public static List<Entry> read(File file, long segmentSize) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        byte[] data = Files.readAllBytes(file.toPath());
+        if (data.length < 16) {
+            return null;
+        }
+        Crc32c crc = new Crc32c();
+        crc.update(data, 0, data.length - 4);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.getInt(data.length - 4) != (int) crc.getValue() || buffer.getLong() != segmentSize) {
+            return null;
+        }
+        int count = buffer.getInt();
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long sequence = buffer.getLong();
+            byte flags = buffer.get();
+            long offset = buffer.getLong();
+            int length = buffer.getInt();
+            byte[] key = new byte[buffer.getInt()];
+            buffer.get(key);
+            entries.add(new Entry(new String(key, StandardCharsets.UTF_8), sequence, flags, offset, length));
+        }
+        return entries;
+    }
+
+    /**
+     * Location and sequence number of a single record, without its value
+     */
+    public static class Entry {
+
+        private final String key;
+        private final long sequence;
+        private final byte flags;
+        private final long offset;
+        private final int length;
+
+        /**
+         * @param flags record flags, see {@link Record}
+         */
+        public Entry(String key, long sequence, byte flags, long offset, int length) {
+            this.key = key;
+            this.sequence = sequence;
+            this.flags = flags;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public byte getFlags() {
+            return flags;
+        }
+
+        public boolean isTombstone() {
+            return (flags & Record.FLAG_TOMBSTONE) != 0;
+        }
+
+        public boolean isRangeTombstone() {
+            return (flags & Record.FLAG_RANGE_TOMBSTONE) != 0;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+}
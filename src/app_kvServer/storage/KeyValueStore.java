@@ -0,0 +1,143 @@
+package app_kvServer.storage;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single bucket of a {@link PartitionedStore}. Implemented by the disk engine {@link LogStore} and the in-memory
+ * engine {@link OffHeapStore}; the engine is chosen with {@link StorageConfig.Engine}.
+ */
+public interface KeyValueStore {
+
+    /**
+     * Opens the store empty, removing anything left over from a previous run
+     *
+     * @throws IOException if the store can not be created
+     */
+    void open() throws IOException;
+
+    /**
+     * Opens the store keeping the data of a previous run
+     *
+     * @return number of files that had to be scanned record by record
+     * @throws IOException if the data can not be recovered
+     */
+    int recover() throws IOException;
+
+    /**
+     * @return value of the key or null if the key is not stored
+     * @throws IOException if the value can not be read
+     */
+    String get(String key) throws IOException;
+
+    boolean contains(String key);
+
+    /**
+     * @return true if the key already existed, false if it is new
+     * @throws IOException if the value can not be written
+     */
+    boolean put(String key, String value) throws IOException;
+
+    /**
+     * @return true if the key existed and was deleted, false if it did not exist
+     * @throws IOException if the deletion can not be written
+     */
+    boolean delete(String key) throws IOException;
+
+    /**
+     * Applies a batch of puts and deletes (null values), either all of them or none of them
+     *
+     * @return what is needed to revert the batch with {@link #revert(AppliedBatch)}
+     * @throws IOException if the batch can not be applied, nothing has been changed in that case
+     */
+    AppliedBatch applyBatch(Map<String, String> keyValues) throws IOException;
+
+    /**
+     * Reverts a batch by writing the previous values back, skipping keys that have been written again since
+     *
+     * @throws IOException if a previous value can not be written back
+     */
+    void revert(AppliedBatch batch) throws IOException;
+
+    /**
+     * Takes over entries of a range snapshot, the keys order after everything the store held before
+     *
+     * @param entries entries of the snapshot whose keys belong to this store
+     * @return number of keys taken over
+     * @throws IOException if the snapshot can not be taken over
+     */
+    int ingest(RangeSnapshot snapshot, List<HintFile.Entry> entries) throws IOException;
+
+    /**
+     * Reads all key-value pairs whose key hash lies within [range[0], range[1]]
+     *
+     * @throws IOException if a value can not be read
+     */
+    HashMap<String, String> readRange(String[] range) throws IOException;
+
+    /**
+     * Deletes all keys whose key hash lies within [range[0], range[1]]
+     *
+     * @return deleted keys
+     * @throws IOException if the deletion can not be written
+     */
+    List<String> deleteRange(String[] range) throws IOException;
+
+    /**
+     * Deletes every key of the store at once
+     *
+     * @return deleted keys
+     * @throws IOException if the deletion can not be written
+     */
+    List<String> deleteAll() throws IOException;
+
+    /**
+     * @return all stored key-value pairs
+     * @throws IOException if a value can not be read
+     */
+    HashMap<String, String> readAll() throws IOException;
+
+    int size();
+
+    /**
+     * Removes every key, leaving an empty store behind
+     *
+     * @throws IOException if the store can not be recreated
+     */
+    void clear() throws IOException;
+
+    /**
+     * @return bytes taken by overwritten values and deletions
+     */
+    long getDeadBytes();
+
+    /**
+     * @return bytes taken by live and dead data
+     */
+    long getTotalBytes();
+
+    /**
+     * Reclaims the space of dead data if its share crossed the threshold
+     *
+     * @param minDeadRatio share of dead bytes the store needs before it is compacted
+     * @return result of the compaction or null if there was nothing worth compacting
+     * @throws IOException if the compacted data can not be written
+     */
+    CompactionResult compact(double minDeadRatio) throws IOException;
+
+    /**
+     * Writes a point-in-time copy of the store to disk for engines that keep their data in memory
+     *
+     * @return true if a snapshot was written, false if the engine does not need one or nothing changed
+     * @throws IOException if the snapshot can not be written
+     */
+    boolean snapshot() throws IOException;
+
+    BloomFilterStats getBloomFilterStats();
+
+    CompressionStats getCompressionStats();
+
+    void close();
+}
@@ -0,0 +1,1050 @@
+package app_kvServer.storage;
+
+import common.helper.ConsistentHash;
+import common.messages.Metadata;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-structured key-value store. Every write is a single append of a binary {@link Record} to the active segment and
+ * an in-memory index maps each key to the location of its latest record, so reads are a single positioned read.
+ * Deletes append a tombstone record and drop the key from the index. Every record carries a sequence number that
+ * orders the writes of the store. Next to the key index a {@link HashIndex} keeps the keys ordered by hash so range
+ * operations seek straight to the keys of a hash range. A {@link BloomFilter} in front of the index answers lookups of
+ * keys that were never stored without taking the store lock.
+ * <p>
+ * Segment files are named {@code <name>-<id>.log}; once the active segment grows past the configured size a new one
+ * is started. Depending on the {@link StorageConfig.ReadMode} records are read through the file channel or from memory
+ * mapped segments.
+ * <p>
+ * Overwrites and tombstones leave dead records behind; {@link #compact(double)} merges all sealed segments into one,
+ * keeping only the records the index still points to. The merged segment is written as {@code <name>-<id>.compact}
+ * and committed by creating {@code <name>-<id>.merged}: from then on it replaces every segment up to its id, and a
+ * restart finishes a switch it finds half done.
+ * <p>
+ * Every sealed segment gets a {@link HintFile} ({@code <name>-<id>.hint}) listing its records without their values.
+ * {@link #recover()} rebuilds the index of a restarted store from these hint files, falling back to scanning a segment
+ * whose hint file is missing or stale. The sequence numbers of the records decide which record of a key is the latest,
+ * independent of the segment it ended up in.
+ * <p>
+ * A {@link RangeSnapshot} is taken over by {@link #ingest(RangeSnapshot, List)} as a sealed segment of its own: the
+ * snapshot file is hard linked in as {@code <name>-<id>.sst} and its entries are written to {@code <name>-<id>.sidx}.
+ * The records keep the sequence numbers the snapshot gave them, the entries add the sequence number the store was at
+ * when it took the snapshot over, so they order after everything written before.
+ */
+public class LogStore implements KeyValueStore {
+
+    private static Logger logger = LogManager.getLogger(LogStore.class);
+
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String COMPACTION_SUFFIX = ".compact";
+    private static final String MERGED_SUFFIX = ".merged";
+    private static final String HINT_SUFFIX = ".hint";
+    private static final String INGESTED_SUFFIX = RangeSnapshot.SUFFIX;
+    private static final String INGESTED_INDEX_SUFFIX = ".sidx";
+    private static final int COMPACTION_BUFFER_SIZE = 1024 * 1024;
+    private static final int INITIAL_FILTER_KEYS = 1024;
+
+    private final File directory;
+    private final String name;
+    private final long maxSegmentSize;
+    private final boolean memoryMapped;
+    private final int bloomFilterBitsPerKey;
+    private final int compressionThreshold;
+    private final Committer committer;
+
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final HashMap<String, RecordPointer> index = new HashMap<>();
+    private final HashIndex hashIndex = new HashIndex();
+    // number added to the sequence numbers of the records of every segment taken over from a range snapshot
+    private final HashMap<Integer, Long> sequenceBases = new HashMap<>();
+    // null if bloom filters are disabled
+    private volatile BloomFilter bloomFilter;
+    private final LongAdder filteredLookups = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    private Segment activeSegment;
+    // index entries of the records in the active segment, written as its hint file once it is sealed
+    private final List<HintFile.Entry> activeHints = new ArrayList<>();
+    private long sequence;
+    // bytes of all segments and bytes of the records the index points to, the difference is dead data
+    private long totalBytes;
+    private long liveBytes;
+    // value bytes written since the store was opened, before and after compression
+    private long rawValueBytes;
+    private long storedValueBytes;
+    // changes whenever the segments are thrown away so a running compaction knows its input is gone
+    private long generation;
+
+    /**
+     * @param directory directory holding the segment files
+     * @param name      prefix of the segment files, has to be unique within the directory
+     * @param config    segment size and read mode of the store
+     * @param committer makes appends durable according to the durability mode
+     */
+    public LogStore(File directory, String name, StorageConfig config, Committer committer) {
+        this.directory = directory;
+        this.name = name;
+        this.maxSegmentSize = config.getMaxSegmentSize();
+        this.memoryMapped = config.getReadMode() == StorageConfig.ReadMode.MMAP;
+        this.bloomFilterBitsPerKey = config.getBloomFilterBitsPerKey();
+        this.compressionThreshold = config.getCompressionThreshold();
+        this.committer = committer;
+    }
+
+    /**
+     * Opens the store, removing any segments left over from a previous run
+     *
+     * @throws IOException if the segment files can not be removed or created
+     */
+    @Override
+    public synchronized void open() throws IOException {
+        deleteFiles(SEGMENT_SUFFIX);
+        deleteFiles(COMPACTION_SUFFIX);
+        deleteFiles(MERGED_SUFFIX);
+        deleteFiles(HINT_SUFFIX);
+        deleteFiles(HINT_SUFFIX + HintFile.TEMP_SUFFIX);
+        deleteFiles(INGESTED_SUFFIX);
+        deleteFiles(INGESTED_INDEX_SUFFIX);
+        deleteFiles(INGESTED_INDEX_SUFFIX + HintFile.TEMP_SUFFIX);
+        segments.clear();
+        reset();
+        logger.info("Opened log store " + name + " in " + directory.getPath());
+    }
+
+    /**
+     * Opens the store keeping the segments of a previous run and rebuilds the index from them. Each segment is loaded
+     * from its hint file if it matches the segment, otherwise the segment is scanned record by record and a torn or
+     * corrupted tail is cut off. A compaction that was interrupted before it committed is thrown away, the segments it
+     * was merging are all still there. One that committed is finished: its merged segment is moved in place and the
+     * segments it merged are deleted, so none of their records outlive the tombstones the merge dropped.
+     *
+     * @return number of segments that had to be scanned because they had no usable hint file
+     * @throws IOException if a segment can not be read or truncated
+     */
+    @Override
+    public synchronized int recover() throws IOException {
+        for (File marker : listFiles(MERGED_SUFFIX)) {
+            finishCompaction(idOf(marker, MERGED_SUFFIX));
+        }
+        deleteFiles(COMPACTION_SUFFIX);
+        deleteFiles(HINT_SUFFIX + HintFile.TEMP_SUFFIX);
+        deleteFiles(INGESTED_INDEX_SUFFIX + HintFile.TEMP_SUFFIX);
+        segments.clear();
+        sequenceBases.clear();
+        index.clear();
+        hashIndex.clear();
+        activeHints.clear();
+        totalBytes = 0;
+        liveBytes = 0;
+        sequence = 0;
+        generation++;
+
+        TreeMap<Integer, File> segmentFiles = new TreeMap<>();
+        for (File file : listFiles(SEGMENT_SUFFIX)) {
+            segmentFiles.put(idOf(file, SEGMENT_SUFFIX), file);
+        }
+        for (File file : listFiles(INGESTED_SUFFIX)) {
+            int id = idOf(file, INGESTED_SUFFIX);
+            if (segmentFiles.containsKey(id)) {
+                // merged into the segment of the same id by a compaction that did not get to delete it
+                Files.delete(file.toPath());
+                continue;
+            }
+            segmentFiles.put(id, file);
+        }
+        for (File file : listFiles(INGESTED_INDEX_SUFFIX)) {
+            File ingestedFile = segmentFile(idOf(file, INGESTED_INDEX_SUFFIX), INGESTED_SUFFIX);
+            if (!ingestedFile.exists()) {
+                Files.delete(file.toPath());
+            }
+        }
+
+        // sequence number of the latest record seen for every key, including deleted keys
+        HashMap<String, Long> latest = new HashMap<>();
+        List<HintFile.Entry> rangeTombstones = new ArrayList<>();
+        int scanned = 0;
+        for (Map.Entry<Integer, File> segmentFile : segmentFiles.entrySet()) {
+            Segment segment = new Segment(segmentFile.getKey(), segmentFile.getValue(), memoryMapped, false);
+            if (segment.size() == 0) {
+                // active segment of a run that ended before anything was written to it
+                deleteSegment(segment);
+                continue;
+            }
+            List<HintFile.Entry> entries;
+            if (segment.getFile().getName().endsWith(INGESTED_SUFFIX)) {
+                // the entries are written before the snapshot is linked in, without them it is a leftover of a
+                // compaction that had merged it already
+                entries = HintFile.read(ingestedIndexFile(segment.getId()), segment.size());
+                if (entries == null) {
+                    logger.warn("Dropping " + segment.getFile().getName() + " without its entries");
+                    deleteSegment(segment);
+                    continue;
+                }
+                sequenceBases.put(segment.getId(), sequenceBaseOf(segment, entries));
+                segments.put(segment.getId(), segment);
+            } else {
+                segments.put(segment.getId(), segment);
+                entries = HintFile.read(hintFile(segment.getId()), segment.size());
+                if (entries == null) {
+                    entries = scan(segment);
+                    writeHints(segment, entries);
+                    scanned++;
+                }
+            }
+            for (HintFile.Entry entry : entries) {
+                sequence = Math.max(sequence, entry.getSequence());
+                if (entry.isRangeTombstone()) {
+                    rangeTombstones.add(entry);
+                    continue;
+                }
+                Long previous = latest.get(entry.getKey());
+                if (previous != null && previous > entry.getSequence()) {
+                    continue;
+                }
+                latest.put(entry.getKey(), entry.getSequence());
+                if (entry.isTombstone()) {
+                    index.remove(entry.getKey());
+                } else {
+                    index.put(entry.getKey(), new RecordPointer(segment.getId(), entry.getOffset(),
+                            entry.getLength()));
+                }
+            }
+            totalBytes += segment.size();
+        }
+        Iterator<Map.Entry<String, RecordPointer>> entries = index.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, RecordPointer> entry = entries.next();
+            String hash = ConsistentHash.getMD5(entry.getKey());
+            if (isRangeDeleted(hash, latest.get(entry.getKey()), rangeTombstones)) {
+                entries.remove();
+                continue;
+            }
+            liveBytes += entry.getValue().getLength();
+            hashIndex.add(hash, entry.getKey());
+        }
+        rebuildFilter();
+
+        // appends always go to a fresh segment, the recovered ones stay sealed
+        activeSegment = null;
+        rollSegment();
+        logger.info("Recovered log store " + name + " with " + index.size() + " keys from " + segmentFiles.size()
+                + " segments, " + scanned + " of them scanned");
+        return scanned;
+    }
+
+    /**
+     * @return true if a range tombstone written after the record of the key covers the hash of the key
+     */
+    private static boolean isRangeDeleted(String hash, long recordSequence, List<HintFile.Entry> rangeTombstones) {
+        for (HintFile.Entry rangeTombstone : rangeTombstones) {
+            String[] range = Record.parseRange(rangeTombstone.getKey());
+            if (rangeTombstone.getSequence() > recordSequence && hash.compareTo(range[0]) >= 0
+                    && hash.compareTo(range[1]) <= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return value of the key or null if the key is not stored
+     * @throws IOException if the record can not be read from its segment
+     */
+    @Override
+    public String get(String key) throws IOException {
+        if (isFilteredOut(key)) {
+            return null;
+        }
+        String value = getIndexed(key);
+        if (value == null) {
+            recordFalsePositive();
+        }
+        return value;
+    }
+
+    private synchronized String getIndexed(String key) throws IOException {
+        RecordPointer pointer = index.get(key);
+        if (pointer == null) {
+            return null;
+        }
+        return readValue(key, pointer);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        if (isFilteredOut(key)) {
+            return false;
+        }
+        boolean contains;
+        synchronized (this) {
+            contains = index.containsKey(key);
+        }
+        if (!contains) {
+            recordFalsePositive();
+        }
+        return contains;
+    }
+
+    /**
+     * @return value bytes written since the store was opened before and after compression
+     */
+    @Override
+    public synchronized CompressionStats getCompressionStats() {
+        return new CompressionStats(rawValueBytes, storedValueBytes);
+    }
+
+    /**
+     * @return counters of the bloom filter of this store
+     */
+    @Override
+    public synchronized BloomFilterStats getBloomFilterStats() {
+        BloomFilter filter = bloomFilter;
+        return new BloomFilterStats(filteredLookups.sum(), falsePositives.sum(),
+                filter == null ? 0 : filter.getInsertions(), filter == null ? 0 : filter.getSizeBytes());
+    }
+
+    /**
+     * Appends a new record for the key
+     *
+     * @return true if the key already existed, false if it is new
+     * @throws IOException if the record can not be appended
+     */
+    @Override
+    public synchronized boolean put(String key, String value) throws IOException {
+        RecordPointer pointer = append(key, value);
+        RecordPointer previous = index.put(key, pointer);
+        liveBytes += pointer.getLength();
+        if (previous != null) {
+            liveBytes -= previous.getLength();
+            return true;
+        }
+        hashIndex.add(ConsistentHash.getMD5(key), key);
+        addToFilter(key);
+        return false;
+    }
+
+    /**
+     * Appends a tombstone for the key
+     *
+     * @return true if the key existed and was deleted, false if it did not exist
+     * @throws IOException if the tombstone can not be appended
+     */
+    @Override
+    public synchronized boolean delete(String key) throws IOException {
+        if (!index.containsKey(key)) {
+            return false;
+        }
+        append(key, null);
+        liveBytes -= index.remove(key).getLength();
+        hashIndex.remove(ConsistentHash.getMD5(key), key);
+        return true;
+    }
+
+    /**
+     * Applies a batch of puts and deletes (null values) with a single append to the active segment, so either all of
+     * them or none of them make it into the store
+     *
+     * @return what is needed to revert the batch with {@link #revert(AppliedBatch)}
+     * @throws IOException if the batch can not be appended, nothing has been changed in that case
+     */
+    @Override
+    public synchronized AppliedBatch applyBatch(Map<String, String> keyValues) throws IOException {
+        List<String> keys = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        List<String> previousValues = new ArrayList<>();
+        for (Map.Entry<String, String> entry : keyValues.entrySet()) {
+            RecordPointer previous = index.get(entry.getKey());
+            if (entry.getValue() == null && previous == null) {
+                // nothing to delete
+                continue;
+            }
+            keys.add(entry.getKey());
+            values.add(entry.getValue());
+            previousValues.add(previous == null ? null : readValue(entry.getKey(), previous));
+        }
+        if (keys.isEmpty()) {
+            return new AppliedBatch(keys, previousValues, new ArrayList<>());
+        }
+
+        List<RecordPointer> pointers = appendAll(keys, values);
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            RecordPointer previous = values.get(i) == null ? index.remove(key) : index.put(key, pointers.get(i));
+            if (previous != null) {
+                liveBytes -= previous.getLength();
+            }
+            if (values.get(i) == null) {
+                hashIndex.remove(ConsistentHash.getMD5(key), key);
+                continue;
+            }
+            liveBytes += pointers.get(i).getLength();
+            if (previous == null) {
+                hashIndex.add(ConsistentHash.getMD5(key), key);
+                addToFilter(key);
+            }
+        }
+        List<RecordPointer> locations = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            // a deleted key has no location, it is reverted as long as nobody wrote it since
+            locations.add(values.get(i) == null ? AppliedBatch.DELETED : pointers.get(i));
+        }
+        return new AppliedBatch(keys, previousValues, locations);
+    }
+
+    /**
+     * Reverts a batch applied by {@link #applyBatch(Map)} by writing the previous values back, skipping keys that
+     * have been written again since
+     *
+     * @throws IOException if a previous value can not be written back
+     */
+    @Override
+    public synchronized void revert(AppliedBatch batch) throws IOException {
+        for (int i = 0; i < batch.keys.size(); i++) {
+            String key = batch.keys.get(i);
+            if (!batch.isUnchanged(i, index.get(key))) {
+                continue;
+            }
+            String previousValue = batch.previousValues.get(i);
+            if (previousValue == null) {
+                delete(key);
+            } else {
+                put(key, previousValue);
+            }
+        }
+    }
+
+    /**
+     * Takes over records of a range snapshot without copying or rewriting them: the snapshot file is hard linked into
+     * the store as a sealed segment and the entries are indexed from the snapshot's index block. The entries are
+     * written, durably, before the link is created, and the records order after everything the store holds so far.
+     * Appends continue in a new segment.
+     *
+     * @param snapshot snapshot to take over, has to be on the same file system as the store
+     * @param entries  entries of the snapshot whose keys belong to this store
+     * @return number of keys taken over
+     * @throws IOException if the snapshot can not be linked in, nothing has been changed in that case
+     */
+    @Override
+    public synchronized int ingest(RangeSnapshot snapshot, List<HintFile.Entry> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return 0;
+        }
+        int id = segments.lastKey() + 1;
+        long base = sequence;
+        long lastSequence = sequence;
+        List<HintFile.Entry> ingested = new ArrayList<>(entries.size());
+        for (HintFile.Entry entry : entries) {
+            if (entry.isTombstone() || entry.isRangeTombstone()) {
+                throw new IOException("Snapshot " + snapshot.getFile().getName() + " holds deletions");
+            }
+            ingested.add(new HintFile.Entry(entry.getKey(), base + entry.getSequence(), entry.getFlags(),
+                    entry.getOffset(), entry.getLength()));
+            lastSequence = Math.max(lastSequence, base + entry.getSequence());
+        }
+        File indexFile = ingestedIndexFile(id);
+        File link = segmentFile(id, INGESTED_SUFFIX);
+        HintFile.write(indexFile, snapshot.size(), ingested, true);
+        Segment segment;
+        try {
+            Files.createLink(link.toPath(), snapshot.getFile().toPath());
+            segment = new Segment(id, link, memoryMapped, false);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.deleteIfExists(link.toPath());
+            Files.deleteIfExists(indexFile.toPath());
+            throw new IOException("Unable to link " + snapshot.getFile().getName() + " into " + name + " - "
+                    + e.getMessage());
+        }
+        segments.put(id, segment);
+        sequenceBases.put(id, base);
+        sequence = lastSequence;
+        totalBytes += segment.size();
+        for (HintFile.Entry entry : ingested) {
+            RecordPointer previous = index.put(entry.getKey(), new RecordPointer(id, entry.getOffset(),
+                    entry.getLength()));
+            liveBytes += entry.getLength();
+            if (previous != null) {
+                liveBytes -= previous.getLength();
+                continue;
+            }
+            hashIndex.add(ConsistentHash.getMD5(entry.getKey()), entry.getKey());
+            addToFilter(entry.getKey());
+        }
+        rollSegment();
+        logger.info("Ingested " + ingested.size() + " keys of " + snapshot.getFile().getName() + " into " + name);
+        return ingested.size();
+    }
+
+    /**
+     * Reads all key-value pairs whose key hash lies within [range[0], range[1]]
+     *
+     * @throws IOException if a record can not be read
+     */
+    @Override
+    public synchronized HashMap<String, String> readRange(String[] range) throws IOException {
+        HashMap<String, String> valuePairs = new HashMap<>();
+        for (String key : hashIndex.range(range[0], range[1])) {
+            valuePairs.put(key, readValue(key, index.get(key)));
+        }
+        return valuePairs;
+    }
+
+    /**
+     * Deletes all keys whose key hash lies within [range[0], range[1]] with a single range tombstone, the keys are
+     * only dropped from the in-memory index
+     *
+     * @return deleted keys
+     * @throws IOException if the range tombstone can not be appended
+     */
+    @Override
+    public synchronized List<String> deleteRange(String[] range) throws IOException {
+        List<String> deletedKeys = hashIndex.range(range[0], range[1]);
+        if (deletedKeys.isEmpty()) {
+            return deletedKeys;
+        }
+        appendRangeTombstone(range[0], range[1]);
+        for (String key : deletedKeys) {
+            liveBytes -= index.remove(key).getLength();
+        }
+        hashIndex.removeRange(range[0], range[1]);
+        return deletedKeys;
+    }
+
+    /**
+     * Deletes every key by dropping all segments at once. A range tombstone over the whole hash ring is made durable
+     * in a fresh segment first, so a crash while the old segments are deleted can not bring any of their keys back.
+     *
+     * @return deleted keys
+     * @throws IOException if the range tombstone can not be written
+     */
+    @Override
+    public synchronized List<String> deleteAll() throws IOException {
+        List<String> deletedKeys = new ArrayList<>(index.keySet());
+        if (deletedKeys.isEmpty()) {
+            return deletedKeys;
+        }
+        rollSegment();
+        appendRangeTombstone(Metadata.MIN_MD5, Metadata.MAX_MD5);
+        activeSegment.flush();
+        activeSegment.sync();
+        for (Segment segment : new ArrayList<>(segments.headMap(activeSegment.getId()).values())) {
+            segments.remove(segment.getId());
+            deleteSegment(segment);
+        }
+        index.clear();
+        hashIndex.clear();
+        liveBytes = 0;
+        totalBytes = activeSegment.size();
+        // a running compaction must not bring back the dropped segments
+        generation++;
+        rebuildFilter();
+        return deletedKeys;
+    }
+
+    /**
+     * @return all stored key-value pairs
+     * @throws IOException if a record can not be read
+     */
+    @Override
+    public synchronized HashMap<String, String> readAll() throws IOException {
+        HashMap<String, String> valuePairs = new HashMap<>();
+        for (Map.Entry<String, RecordPointer> entry : index.entrySet()) {
+            valuePairs.put(entry.getKey(), readValue(entry.getKey(), entry.getValue()));
+        }
+        return valuePairs;
+    }
+
+    @Override
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Removes every key and every segment, leaving an empty store behind
+     *
+     * @throws IOException if a new segment can not be created
+     */
+    @Override
+    public synchronized void clear() throws IOException {
+        for (Segment segment : segments.values()) {
+            deleteSegment(segment);
+        }
+        segments.clear();
+        reset();
+    }
+
+    /**
+     * @return bytes on disk taken by overwritten values and tombstones
+     */
+    @Override
+    public synchronized long getDeadBytes() {
+        return totalBytes - liveBytes;
+    }
+
+    @Override
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Merges all sealed segments into a single segment that only holds the records the index still points to.
+     * Superseded values and tombstones are dropped: every older record of a key lives in one of the merged segments,
+     * so a tombstone has nothing left to shadow. The records are copied without holding the store lock, only the final
+     * swap of segments and index pointers is done under it. Keys written while the copy runs keep their new location.
+     *
+     * @param minDeadRatio share of dead bytes the store needs before it is compacted
+     * @return result of the compaction or null if there was nothing worth compacting
+     * @throws IOException if the merged segment can not be written
+     */
+    @Override
+    public CompactionResult compact(double minDeadRatio) throws IOException {
+        List<Segment> sealedSegments;
+        List<Map.Entry<String, RecordPointer>> liveRecords = new ArrayList<>();
+        Map<Integer, Long> bases;
+        long startGeneration;
+        synchronized (this) {
+            if (segments.size() < 2 || totalBytes == 0 || (double) getDeadBytes() / totalBytes < minDeadRatio) {
+                return null;
+            }
+            sealedSegments = new ArrayList<>(segments.headMap(activeSegment.getId()).values());
+            int lastSealedId = sealedSegments.get(sealedSegments.size() - 1).getId();
+            for (Map.Entry<String, RecordPointer> entry : index.entrySet()) {
+                if (entry.getValue().getSegmentId() <= lastSealedId) {
+                    liveRecords.add(new AbstractMap.SimpleImmutableEntry<>(entry));
+                }
+            }
+            bases = new HashMap<>(sequenceBases);
+            startGeneration = generation;
+        }
+
+        long startTime = System.currentTimeMillis();
+        // the merged segment takes over the id of the newest sealed segment so it stays older than the active one
+        int targetId = sealedSegments.get(sealedSegments.size() - 1).getId();
+        Segment output = new Segment(targetId, segmentFile(targetId, COMPACTION_SUFFIX), memoryMapped, false);
+        HashMap<String, RecordPointer> movedRecords = new HashMap<>();
+        List<HintFile.Entry> outputHints = new ArrayList<>();
+        long bytesRead = 0;
+        try {
+            // copying in file order keeps the reads sequential
+            liveRecords.sort(Comparator.comparingInt((Map.Entry<String, RecordPointer> entry) ->
+                    entry.getValue().getSegmentId()).thenComparingLong(entry -> entry.getValue().getOffset()));
+            Map<Integer, Segment> sources = new HashMap<>();
+            for (Segment segment : sealedSegments) {
+                sources.put(segment.getId(), segment);
+                bytesRead += segment.size();
+            }
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(COMPACTION_BUFFER_SIZE);
+            for (Map.Entry<String, RecordPointer> entry : liveRecords) {
+                RecordPointer pointer = entry.getValue();
+                byte[] record = sources.get(pointer.getSegmentId()).read(pointer.getOffset(), pointer.getLength());
+                long offset = output.size() + buffer.size();
+                movedRecords.put(entry.getKey(), new RecordPointer(targetId, offset, record.length));
+                // records keep their sequence number so recovery still orders them against newer segments
+                Record decoded = Record.decode(record);
+                long recordSequence = decoded.getSequence();
+                Long base = bases.get(pointer.getSegmentId());
+                if (base != null) {
+                    // records of a snapshot are numbered within the snapshot, the merged segment has no base
+                    recordSequence += base;
+                    record = Record.withSequence(record, recordSequence);
+                }
+                outputHints.add(new HintFile.Entry(entry.getKey(), recordSequence, decoded.getFlags(), offset,
+                        record.length));
+                buffer.write(record);
+                if (buffer.size() >= COMPACTION_BUFFER_SIZE) {
+                    output.append(buffer.toByteArray());
+                    buffer.reset();
+                }
+            }
+            output.append(buffer.toByteArray());
+            output.sync();
+        } catch (IOException e) {
+            output.delete();
+            throw e;
+        }
+
+        synchronized (this) {
+            if (generation != startGeneration) {
+                logger.info("Store " + name + " was cleared while compacting, dropping merged segment");
+                output.delete();
+                return null;
+            }
+            // commit point: once the marker exists a restart completes the switch instead of keeping the inputs,
+            // whose older records would otherwise come back without the tombstones the merge dropped
+            File marker = segmentFile(targetId, MERGED_SUFFIX);
+            try {
+                Files.write(marker.toPath(), new byte[0], StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.SYNC);
+            } catch (IOException e) {
+                output.delete();
+                Files.deleteIfExists(marker.toPath());
+                throw e;
+            }
+            // the old hint file of the target id must not describe the merged segment, not even after a crash
+            deleteHints(targetId);
+            output.moveTo(segmentFile(targetId, SEGMENT_SUFFIX));
+            long sealedBytes = 0;
+            for (Segment segment : sealedSegments) {
+                sealedBytes += segment.size();
+                segments.remove(segment.getId());
+                if (segment.getId() == targetId && !sequenceBases.containsKey(targetId)) {
+                    // its file has already been replaced by the merged segment
+                    segment.close();
+                } else {
+                    deleteSegment(segment);
+                }
+            }
+            segments.put(targetId, output);
+            writeHints(output, outputHints);
+            if (!marker.delete()) {
+                // harmless, a restart only finds nothing left to finish
+                logger.warn("Unable to delete " + marker.getName());
+            }
+            for (Map.Entry<String, RecordPointer> entry : liveRecords) {
+                if (index.get(entry.getKey()) == entry.getValue()) {
+                    index.put(entry.getKey(), movedRecords.get(entry.getKey()));
+                }
+            }
+            totalBytes += output.size() - sealedBytes;
+            // drops the keys deleted since the last rebuild
+            rebuildFilter();
+            return new CompactionResult(sealedSegments.size(), bytesRead, output.size(),
+                    System.currentTimeMillis() - startTime);
+        }
+    }
+
+    /**
+     * Segments are the durable state of the store already, there is nothing to snapshot
+     *
+     * @return always false
+     */
+    @Override
+    public boolean snapshot() {
+        return false;
+    }
+
+    /**
+     * Closes all segments and writes the hint file of the active segment, so a later {@link #recover()} does not have
+     * to scan it
+     */
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments.values()) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                logger.error("Unable to close segment " + segment.getFile().getName());
+            }
+        }
+        if (activeSegment != null && !activeHints.isEmpty()) {
+            writeHints(activeSegment, activeHints);
+            activeHints.clear();
+        }
+    }
+
+    /**
+     * Appends a record, or a tombstone if the value is null
+     */
+    private RecordPointer append(String key, String value) throws IOException {
+        return appendAll(Collections.singletonList(key), Collections.singletonList(value)).get(0);
+    }
+
+    /**
+     * Appends a range tombstone for all keys whose hash lies within [from, to]
+     */
+    private void appendRangeTombstone(String from, String to) throws IOException {
+        appendAll(Collections.singletonList(Record.rangeKey(from, to)), Collections.singletonList(null),
+                Record.FLAG_RANGE_TOMBSTONE);
+    }
+
+    private List<RecordPointer> appendAll(List<String> keys, List<String> values) throws IOException {
+        return appendAll(keys, values, Record.FLAG_TOMBSTONE);
+    }
+
+    /**
+     * Appends records with a single write to the active segment, null values are appended as deletions with the given
+     * tombstone flag. If the write can not be made durable the segment is cut back, so the records are either all
+     * appended or none of them.
+     */
+    private List<RecordPointer> appendAll(List<String> keys, List<String> values, byte tombstoneFlag)
+            throws IOException {
+        if (activeSegment.size() >= maxSegmentSize) {
+            rollSegment();
+        }
+        byte[][] records = new byte[keys.size()][];
+        byte[] flags = new byte[keys.size()];
+        long firstSequence = sequence + 1;
+        long rawBytes = 0;
+        long storedBytes = 0;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        for (int i = 0; i < records.length; i++) {
+            byte[] storedValue = new byte[0];
+            if (values.get(i) == null) {
+                flags[i] = tombstoneFlag;
+            } else {
+                byte[] value = values.get(i).getBytes(StandardCharsets.UTF_8);
+                byte[] compressed = Compression.compress(value, compressionThreshold);
+                flags[i] = compressed == null ? 0 : Record.FLAG_COMPRESSED;
+                storedValue = compressed == null ? value : compressed;
+                rawBytes += value.length;
+                storedBytes += storedValue.length;
+            }
+            records[i] = Record.encodeStored(firstSequence + i, flags[i], keys.get(i), storedValue);
+            buffer.write(records[i], 0, records[i].length);
+        }
+        long offset = activeSegment.append(records.length == 1 ? records[0] : buffer.toByteArray());
+        try {
+            committer.markDirty(activeSegment);
+        } catch (IOException e) {
+            activeSegment.truncate(offset);
+            throw e;
+        }
+        sequence += records.length;
+        totalBytes += buffer.size();
+        rawValueBytes += rawBytes;
+        storedValueBytes += storedBytes;
+
+        List<RecordPointer> pointers = new ArrayList<>(records.length);
+        long position = offset;
+        for (int i = 0; i < records.length; i++) {
+            activeHints.add(new HintFile.Entry(keys.get(i), firstSequence + i, flags[i], position,
+                    records[i].length));
+            pointers.add(new RecordPointer(activeSegment.getId(), position, records[i].length));
+            position += records[i].length;
+        }
+        return pointers;
+    }
+
+    /**
+     * Reads every record of a segment in file order. Reading stops at the first record that is incomplete or does not
+     * pass its checksum and the segment is truncated there, as nothing after it can be trusted.
+     */
+    private List<HintFile.Entry> scan(Segment segment) throws IOException {
+        if (segment.size() > Integer.MAX_VALUE) {
+            throw new IOException("Segment " + segment.getFile().getName() + " is too large to be scanned");
+        }
+        List<HintFile.Entry> entries = new ArrayList<>();
+        if (segment.size() == 0) {
+            return entries;
+        }
+        byte[] data = segment.read(0, (int) segment.size());
+        int offset = 0;
+        while (offset < data.length) {
+            Record record;
+            int length;
+            try {
+                if (data.length - offset < Record.HEADER_SIZE) {
+                    throw new IOException("Incomplete record header");
+                }
+                length = Record.lengthOf(Arrays.copyOfRange(data, offset, offset + Record.HEADER_SIZE));
+                if (length > data.length - offset) {
+                    throw new IOException("Record runs past the end of the segment");
+                }
+                record = Record.decode(Arrays.copyOfRange(data, offset, offset + length));
+            } catch (IOException e) {
+                logger.warn("Truncating segment " + segment.getFile().getName() + " at " + offset + " of "
+                        + data.length + " bytes - " + e.getMessage());
+                segment.truncate(offset);
+                break;
+            }
+            entries.add(new HintFile.Entry(record.getKey(), record.getSequence(), record.getFlags(), offset,
+                    length));
+            offset += length;
+        }
+        return entries;
+    }
+
+    /**
+     * Completes a compaction that committed but did not get to switch over: moves the merged segment in place if it
+     * is still waiting and deletes every segment it merged, i.e. every segment with a lower id
+     */
+    private void finishCompaction(int targetId) throws IOException {
+        File merged = segmentFile(targetId, COMPACTION_SUFFIX);
+        deleteHints(targetId);
+        if (merged.exists()) {
+            Files.move(merged.toPath(), segmentFile(targetId, SEGMENT_SUFFIX).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        String[] suffixes = {SEGMENT_SUFFIX, INGESTED_SUFFIX, INGESTED_INDEX_SUFFIX, HINT_SUFFIX};
+        for (String suffix : suffixes) {
+            for (File file : listFiles(suffix)) {
+                if (idOf(file, suffix) < targetId) {
+                    Files.delete(file.toPath());
+                }
+            }
+        }
+        // an ingested segment of the target id was merged as well, the recovery below drops it
+        Files.delete(segmentFile(targetId, MERGED_SUFFIX).toPath());
+        logger.info("Finished interrupted compaction into segment " + targetId + " of " + name);
+    }
+
+    /**
+     * Writes the hint file of a segment; hint files only speed up recovery, so failing to write one is not an error
+     */
+    private void writeHints(Segment segment, List<HintFile.Entry> entries) {
+        try {
+            HintFile.write(hintFile(segment.getId()), segment.size(), entries);
+        } catch (IOException e) {
+            logger.warn("Unable to write hint file of " + segment.getFile().getName() + " - " + e.getMessage());
+        }
+    }
+
+    private void deleteHints(int segmentId) {
+        File hintFile = hintFile(segmentId);
+        if (hintFile.exists() && !hintFile.delete()) {
+            logger.warn("Unable to delete hint file " + hintFile.getName());
+        }
+    }
+
+    private void deleteSegment(Segment segment) {
+        deleteHints(segment.getId());
+        segment.delete();
+        if (sequenceBases.remove(segment.getId()) != null || segment.getFile().getName().endsWith(INGESTED_SUFFIX)) {
+            File indexFile = ingestedIndexFile(segment.getId());
+            if (indexFile.exists() && !indexFile.delete()) {
+                logger.warn("Unable to delete " + indexFile.getName());
+            }
+        }
+    }
+
+    /**
+     * @return number the entries of an ingested segment add to the sequence numbers of its records
+     */
+    private static long sequenceBaseOf(Segment segment, List<HintFile.Entry> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return 0;
+        }
+        HintFile.Entry first = entries.get(0);
+        return first.getSequence() - Record.decode(segment.read(first.getOffset(), first.getLength())).getSequence();
+    }
+
+    private String readValue(String key, RecordPointer pointer) throws IOException {
+        Segment segment = segments.get(pointer.getSegmentId());
+        if (segment == null) {
+            throw new IOException("Segment " + pointer.getSegmentId() + " of " + name + " is missing");
+        }
+        Record record = Record.decode(segment.read(pointer.getOffset(), pointer.getLength()));
+        if (!record.getKey().equals(key) || record.isTombstone()) {
+            throw new IOException("Corrupted record for key " + key + " at " + pointer);
+        }
+        return record.getValue();
+    }
+
+    private void reset() throws IOException {
+        index.clear();
+        sequenceBases.clear();
+        hashIndex.clear();
+        activeHints.clear();
+        rebuildFilter();
+        totalBytes = 0;
+        liveBytes = 0;
+        sequence = 0;
+        generation++;
+        activeSegment = null;
+        rollSegment();
+    }
+
+    private boolean isFilteredOut(String key) {
+        BloomFilter filter = bloomFilter;
+        if (filter != null && !filter.mightContain(key)) {
+            filteredLookups.increment();
+            return true;
+        }
+        return false;
+    }
+
+    private void recordFalsePositive() {
+        if (bloomFilter != null) {
+            falsePositives.increment();
+        }
+    }
+
+    private void addToFilter(String key) {
+        if (bloomFilter == null) {
+            return;
+        }
+        if (bloomFilter.isFull()) {
+            rebuildFilter();
+        }
+        bloomFilter.add(key);
+    }
+
+    /**
+     * Replaces the bloom filter with one holding exactly the keys of the index, sized for twice as many keys
+     */
+    private void rebuildFilter() {
+        if (bloomFilterBitsPerKey <= 0) {
+            return;
+        }
+        BloomFilter filter = new BloomFilter(Math.max(INITIAL_FILTER_KEYS, index.size() * 2), bloomFilterBitsPerKey);
+        for (String key : index.keySet()) {
+            filter.add(key);
+        }
+        bloomFilter = filter;
+    }
+
+    private File segmentFile(int id, String suffix) {
+        return new File(directory, String.format("%s-%08d%s", name, id, suffix));
+    }
+
+    private File hintFile(int id) {
+        return segmentFile(id, HINT_SUFFIX);
+    }
+
+    private File ingestedIndexFile(int id) {
+        return segmentFile(id, INGESTED_INDEX_SUFFIX);
+    }
+
+    private int idOf(File file, String suffix) {
+        return Integer.parseInt(file.getName().substring(name.length() + 1, file.getName().length()
+                - suffix.length()));
+    }
+
+    private void rollSegment() throws IOException {
+        if (activeSegment != null) {
+            writeHints(activeSegment, activeHints);
+            activeHints.clear();
+        }
+        int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        activeSegment = new Segment(id, segmentFile(id, SEGMENT_SUFFIX), memoryMapped, committer.isBuffered());
+        segments.put(id, activeSegment);
+        logger.debug("Started segment " + activeSegment.getFile().getName());
+    }
+
+    private File[] listFiles(String suffix) throws IOException {
+        File[] files = directory.listFiles((dir, fileName) -> fileName.startsWith(name + "-")
+                && fileName.endsWith(suffix));
+        if (files == null) {
+            throw new IOException("Unable to list " + directory.getPath());
+        }
+        return files;
+    }
+
+    private void deleteFiles(String suffix) throws IOException {
+        for (File file : listFiles(suffix)) {
+            if (!file.delete()) {
+                throw new IOException("Unable to delete old file " + file.getName());
+            }
+        }
+    }
+}
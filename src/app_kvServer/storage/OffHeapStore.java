@@ -0,0 +1,878 @@
+package app_kvServer.storage;
+
+import common.helper.ConsistentHash;
+import common.messages.Metadata;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * In-memory key-value store that keeps keys and values outside the java heap, so the garbage collector never has to
+ * trace them. Entries are appended to slabs allocated with {@link ByteBuffer#allocateDirect(int)}:
+ * <pre>
+ * | live (1) | key length (4) | value length (4) | md5 of the key (16) | key | value |
+ * </pre>
+ * An open-addressing hash table, itself a direct buffer of {@code | key hash (8) | location (8) |} slots with linear
+ * probing, maps each key to the slab and offset of its entry. The heap only holds the list of slabs, so heap usage
+ * stays flat no matter how many keys are stored.
+ * <p>
+ * Overwrites and deletes mark the old entry dead; {@link #compact(double)} copies the live entries into fresh slabs.
+ * Range operations walk the slabs and compare the stored MD5 of every live entry against the range, which keeps the
+ * per-key heap cost at zero at the price of a sequential scan; they are only used when data is moved or replicated.
+ * <p>
+ * Unless snapshots are disabled, every change is also appended as a {@link Record} to an append log, and
+ * {@link #snapshot()} periodically writes all live entries to a snapshot file:
+ * <pre>
+ * | log generation (4) | entry count (4) | entries | crc32c (4) |
+ * entry: | key length (4) | value length (4) | key | value |
+ * </pre>
+ * The snapshot does not stop writes. Entries in the slabs are never changed once written, so it is enough to copy
+ * the hash table and the list of slabs under the lock and switch to a new log; the entries are then streamed to the
+ * file from that frozen view while writers carry on. A restarted store loads the snapshot and replays the logs
+ * written since, starting with the generation recorded in the snapshot.
+ */
+public class OffHeapStore implements KeyValueStore {
+
+    private static Logger logger = LogManager.getLogger(OffHeapStore.class);
+
+    public static final int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+
+    private static final String LOG_SUFFIX = ".aof";
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int ENTRY_HEADER_SIZE = 25;
+    private static final int KEY_LENGTH_OFFSET = 1;
+    private static final int VALUE_LENGTH_OFFSET = 5;
+    private static final int HASH_OFFSET = 9;
+    private static final int HASH_BYTES = 16;
+    private static final byte LIVE = 1;
+    private static final byte DEAD = 0;
+
+    private static final int SLOT_SIZE = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final double MAX_LOAD = 0.7;
+    // key hashes reserved to mark empty and removed slots
+    private static final long EMPTY = 0;
+    private static final long REMOVED = 1;
+
+    private final File directory;
+    private final String name;
+    private final int slabSize;
+    private final boolean persistent;
+    private final Committer committer;
+    // only one snapshot is written at a time, taken before the store lock
+    private final Object snapshotLock = new Object();
+
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    // write position in the last slab, earlier slabs have their limit set to their end
+    private int slabPosition;
+    private ByteBuffer table;
+    private int capacity;
+    private int size;
+    private int removedSlots;
+    private long usedBytes;
+    private long liveBytes;
+
+    // append log of the changes since the last snapshot, null while closed or if snapshots are disabled
+    private Segment log;
+    private int logGeneration;
+    private long sequence;
+
+    /**
+     * @param directory directory holding the snapshot and append log files
+     * @param name      prefix of the files of this store, has to be unique within the directory
+     * @param config    size of the slabs and snapshot interval, an interval of 0 keeps the store purely in memory
+     * @param committer makes appends to the log durable
+     */
+    public OffHeapStore(File directory, String name, StorageConfig config, Committer committer) {
+        this.directory = directory;
+        this.name = name;
+        this.slabSize = config.getOffHeapSlabSize();
+        this.persistent = config.getSnapshotIntervalMillis() > 0;
+        this.committer = committer;
+    }
+
+    @Override
+    public synchronized void open() throws IOException {
+        reset();
+        deleteFiles();
+        logGeneration = 0;
+        if (persistent) {
+            rollLog();
+        }
+        logger.info("Opened off-heap store " + name);
+    }
+
+    /**
+     * Loads the last snapshot and replays the append logs written after it
+     *
+     * @return number of append logs replayed
+     * @throws IOException if the snapshot is corrupted or a log can not be read
+     */
+    @Override
+    public synchronized int recover() throws IOException {
+        if (!persistent) {
+            open();
+            return 0;
+        }
+        reset();
+        new File(directory, name + SNAPSHOT_SUFFIX + TEMP_SUFFIX).delete();
+        int snapshotGeneration = readSnapshot();
+        int replayed = 0;
+        logGeneration = snapshotGeneration;
+        for (Map.Entry<Integer, File> entry : listLogs().entrySet()) {
+            if (entry.getKey() < snapshotGeneration) {
+                // already part of the snapshot, the store stopped before it could delete the log
+                deleteFile(entry.getValue());
+                continue;
+            }
+            replay(entry.getKey(), entry.getValue());
+            logGeneration = entry.getKey();
+            replayed++;
+        }
+        rollLog();
+        logger.info("Recovered off-heap store " + name + " with " + size + " keys, " + replayed + " logs replayed");
+        return replayed;
+    }
+
+    @Override
+    public synchronized String get(String key) {
+        int slot = findSlot(key.getBytes(StandardCharsets.UTF_8));
+        return slot < 0 ? null : readValue(table.getLong(slot * SLOT_SIZE + 8));
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return findSlot(key.getBytes(StandardCharsets.UTF_8)) >= 0;
+    }
+
+    @Override
+    public synchronized boolean put(String key, String value) throws IOException {
+        appendLog(Record.encode(++sequence, key, value));
+        return putInMemory(key, value);
+    }
+
+    private boolean putInMemory(String key, String value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int slot = findSlot(keyBytes);
+        if (slot < 0) {
+            // grow the table first so a failed allocation leaves no entry behind
+            ensureCapacity();
+        }
+        long location = writeEntry(keyBytes, ConsistentHash.getMD5(key), value.getBytes(StandardCharsets.UTF_8));
+        if (slot >= 0) {
+            markDead(table.getLong(slot * SLOT_SIZE + 8));
+            table.putLong(slot * SLOT_SIZE + 8, location);
+            liveBytes += entryLength(slabs.get(slabOf(location)), offsetOf(location));
+            return true;
+        }
+        insert(hash(keyBytes), location);
+        return false;
+    }
+
+    @Override
+    public synchronized boolean delete(String key) throws IOException {
+        int slot = findSlot(key.getBytes(StandardCharsets.UTF_8));
+        if (slot < 0) {
+            return false;
+        }
+        appendLog(Record.encodeTombstone(++sequence, key));
+        removeSlot(slot);
+        return true;
+    }
+
+    /**
+     * Applies the batch entry by entry and undoes the entries already applied if memory runs out half way
+     */
+    @Override
+    public synchronized AppliedBatch applyBatch(Map<String, String> keyValues) throws IOException {
+        List<String> keys = new ArrayList<>();
+        List<String> previousValues = new ArrayList<>();
+        List<RecordPointer> locations = new ArrayList<>();
+        AppliedBatch batch = new AppliedBatch(keys, previousValues, locations);
+        try {
+            for (Map.Entry<String, String> entry : keyValues.entrySet()) {
+                String previous = get(entry.getKey());
+                if (entry.getValue() == null && previous == null) {
+                    continue;
+                }
+                if (entry.getValue() == null) {
+                    delete(entry.getKey());
+                } else {
+                    put(entry.getKey(), entry.getValue());
+                }
+                keys.add(entry.getKey());
+                previousValues.add(previous);
+                locations.add(entry.getValue() == null ? AppliedBatch.DELETED : pointerOf(entry.getKey()));
+            }
+        } catch (IOException e) {
+            revert(batch);
+            throw e;
+        }
+        return batch;
+    }
+
+    /**
+     * Memory can not link a file in, the values of the snapshot are read and applied as one batch
+     */
+    @Override
+    public synchronized int ingest(RangeSnapshot snapshot, List<HintFile.Entry> entries) throws IOException {
+        applyBatch(snapshot.read(entries));
+        return entries.size();
+    }
+
+    @Override
+    public synchronized void revert(AppliedBatch batch) throws IOException {
+        for (int i = 0; i < batch.keys.size(); i++) {
+            String key = batch.keys.get(i);
+            if (!batch.isUnchanged(i, pointerOf(key))) {
+                continue;
+            }
+            String previousValue = batch.previousValues.get(i);
+            if (previousValue == null) {
+                delete(key);
+            } else {
+                put(key, previousValue);
+            }
+        }
+    }
+
+    @Override
+    public synchronized HashMap<String, String> readRange(String[] range) {
+        byte[] from = hashBytes(range[0]);
+        byte[] to = hashBytes(range[1]);
+        HashMap<String, String> valuePairs = new HashMap<>();
+        for (long location : liveEntries()) {
+            if (isInRange(location, from, to)) {
+                valuePairs.put(readKey(location), readValue(location));
+            }
+        }
+        return valuePairs;
+    }
+
+    @Override
+    public synchronized List<String> deleteRange(String[] range) throws IOException {
+        appendRangeTombstone(range[0], range[1]);
+        return deleteRangeInMemory(range);
+    }
+
+    private List<String> deleteRangeInMemory(String[] range) {
+        byte[] from = hashBytes(range[0]);
+        byte[] to = hashBytes(range[1]);
+        List<String> deletedKeys = new ArrayList<>();
+        for (long location : liveEntries()) {
+            if (isInRange(location, from, to)) {
+                deletedKeys.add(readKey(location));
+                removeSlot(findSlot(readKeyBytes(location)));
+            }
+        }
+        return deletedKeys;
+    }
+
+    @Override
+    public synchronized List<String> deleteAll() throws IOException {
+        appendRangeTombstone(Metadata.MIN_MD5, Metadata.MAX_MD5);
+        List<String> deletedKeys = new ArrayList<>();
+        for (long location : liveEntries()) {
+            deletedKeys.add(readKey(location));
+        }
+        reset();
+        return deletedKeys;
+    }
+
+    @Override
+    public synchronized HashMap<String, String> readAll() {
+        HashMap<String, String> valuePairs = new HashMap<>();
+        for (long location : liveEntries()) {
+            valuePairs.put(readKey(location), readValue(location));
+        }
+        return valuePairs;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void clear() throws IOException {
+        open();
+    }
+
+    @Override
+    public synchronized long getDeadBytes() {
+        return usedBytes - liveBytes;
+    }
+
+    @Override
+    public synchronized long getTotalBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Copies the live entries into fresh slabs and rebuilds the table; the old slabs are released once the garbage
+     * collector reclaims their buffers
+     */
+    @Override
+    public synchronized CompactionResult compact(double minDeadRatio) throws IOException {
+        if (usedBytes == 0 || (double) getDeadBytes() / usedBytes < minDeadRatio) {
+            return null;
+        }
+        long startTime = System.currentTimeMillis();
+        List<Long> live = liveEntries();
+        List<ByteBuffer> oldSlabs = new ArrayList<>(slabs);
+        long bytesRead = usedBytes;
+        slabs.clear();
+        slabPosition = 0;
+        usedBytes = 0;
+        liveBytes = 0;
+        table = allocate(capacity * SLOT_SIZE);
+        size = 0;
+        removedSlots = 0;
+        for (long oldLocation : live) {
+            ByteBuffer oldSlab = oldSlabs.get(slabOf(oldLocation));
+            int offset = offsetOf(oldLocation);
+            int length = entryLength(oldSlab, offset);
+            long location = allocateEntry(length);
+            ByteBuffer source = oldSlab.duplicate();
+            source.limit(offset + length).position(offset);
+            ByteBuffer target = slabs.get(slabOf(location)).duplicate();
+            target.position(offsetOf(location));
+            target.put(source);
+            ensureCapacity();
+            insert(hash(readKeyBytes(location)), location);
+        }
+        return new CompactionResult(oldSlabs.size(), bytesRead, usedBytes, System.currentTimeMillis() - startTime);
+    }
+
+    @Override
+    public BloomFilterStats getBloomFilterStats() {
+        return new BloomFilterStats(0, 0, 0, 0);
+    }
+
+    @Override
+    public CompressionStats getCompressionStats() {
+        return new CompressionStats(0, 0);
+    }
+
+    /**
+     * Writes all live entries to a new snapshot file and deletes the append logs it replaces. Writers are only held up
+     * while the hash table is copied.
+     *
+     * @return false if snapshots are disabled or nothing changed since the last snapshot
+     * @throws IOException if the snapshot can not be written, the previous snapshot and logs stay in place
+     */
+    @Override
+    public boolean snapshot() throws IOException {
+        if (!persistent) {
+            return false;
+        }
+        synchronized (snapshotLock) {
+            long startTime = System.currentTimeMillis();
+            ByteBuffer tableCopy;
+            List<ByteBuffer> slabsCopy;
+            int count;
+            int generation;
+            synchronized (this) {
+                File snapshotFile = new File(directory, name + SNAPSHOT_SUFFIX);
+                if (log == null || (log.size() == 0 && snapshotFile.exists())) {
+                    return false;
+                }
+                tableCopy = allocate(capacity * SLOT_SIZE);
+                ByteBuffer source = table.duplicate();
+                source.clear();
+                tableCopy.put(source);
+                slabsCopy = new ArrayList<>(slabs);
+                count = size;
+                rollLog();
+                generation = logGeneration;
+            }
+            writeSnapshot(generation, count, tableCopy, slabsCopy);
+            for (Map.Entry<Integer, File> entry : listLogs().entrySet()) {
+                if (entry.getKey() < generation) {
+                    deleteFile(entry.getValue());
+                }
+            }
+            logger.debug("Wrote snapshot of " + name + " with " + count + " keys in "
+                    + (System.currentTimeMillis() - startTime) + "ms");
+            return true;
+        }
+    }
+
+    /**
+     * Writes a last snapshot, so the next start does not have to replay the log, and releases the buffers
+     */
+    @Override
+    public void close() {
+        try {
+            snapshot();
+        } catch (IOException e) {
+            logger.warn("Unable to write snapshot of " + name + " on close - " + e.getMessage());
+        }
+        synchronized (this) {
+            if (log != null) {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    logger.error("Unable to close append log of " + name + " - " + e.getMessage());
+                }
+                log = null;
+            }
+            slabs.clear();
+            table = null;
+            size = 0;
+        }
+    }
+
+    private void appendLog(byte[] record) throws IOException {
+        if (log == null) {
+            return;
+        }
+        log.append(record);
+        committer.markDirty(log);
+    }
+
+    private void appendRangeTombstone(String from, String to) throws IOException {
+        appendLog(Record.encodeStored(++sequence, Record.FLAG_RANGE_TOMBSTONE, Record.rangeKey(from, to),
+                new byte[0]));
+    }
+
+    /**
+     * Closes the current append log and continues in a new one with the next generation
+     */
+    private void rollLog() throws IOException {
+        if (log != null) {
+            log.close();
+        }
+        logGeneration++;
+        log = new Segment(logGeneration, new File(directory, name + "-" + logGeneration + LOG_SUFFIX), false,
+                committer.isBuffered());
+    }
+
+    private void writeSnapshot(int generation, int count, ByteBuffer tableCopy, List<ByteBuffer> slabsCopy)
+            throws IOException {
+        File temp = new File(directory, name + SNAPSHOT_SUFFIX + TEMP_SUFFIX);
+        try (FileOutputStream file = new FileOutputStream(temp)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file), new Crc32c());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(generation);
+            out.writeInt(count);
+            byte[] buffer = new byte[0];
+            for (int slot = 0; slot < tableCopy.capacity() / SLOT_SIZE; slot++) {
+                if (!isOccupied(tableCopy.getLong(slot * SLOT_SIZE))) {
+                    continue;
+                }
+                long location = tableCopy.getLong(slot * SLOT_SIZE + 8);
+                ByteBuffer slab = slabsCopy.get(slabOf(location)).duplicate();
+                int offset = offsetOf(location);
+                int keyLength = slab.getInt(offset + KEY_LENGTH_OFFSET);
+                int valueLength = slab.getInt(offset + VALUE_LENGTH_OFFSET);
+                if (buffer.length < keyLength + valueLength) {
+                    buffer = new byte[keyLength + valueLength];
+                }
+                slab.position(offset + ENTRY_HEADER_SIZE);
+                slab.get(buffer, 0, keyLength + valueLength);
+                out.writeInt(keyLength);
+                out.writeInt(valueLength);
+                out.write(buffer, 0, keyLength + valueLength);
+            }
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp.toPath(), new File(directory, name + SNAPSHOT_SUFFIX).toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Loads the entries of the snapshot file into the store
+     *
+     * @return generation of the first append log written after the snapshot, 0 if there is no snapshot
+     * @throws IOException if the snapshot can not be read or its checksum does not match
+     */
+    private int readSnapshot() throws IOException {
+        File snapshotFile = new File(directory, name + SNAPSHOT_SUFFIX);
+        if (!snapshotFile.exists()) {
+            return 0;
+        }
+        try (FileInputStream file = new FileInputStream(snapshotFile)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(file), new Crc32c());
+            DataInputStream in = new DataInputStream(checked);
+            int generation = in.readInt();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte[] key = new byte[in.readInt()];
+                byte[] value = new byte[in.readInt()];
+                in.readFully(key);
+                in.readFully(value);
+                putInMemory(new String(key, StandardCharsets.UTF_8), new String(value, StandardCharsets.UTF_8));
+            }
+            int expectedCrc = (int) checked.getChecksum().getValue();
+            if (in.readInt() != expectedCrc) {
+                throw new IOException("Checksum mismatch in snapshot " + snapshotFile.getName());
+            }
+            return generation;
+        } catch (EOFException e) {
+            throw new IOException("Snapshot " + snapshotFile.getName() + " is truncated");
+        }
+    }
+
+    /**
+     * Applies the records of an append log to the store, cutting off a torn record at the end
+     */
+    private void replay(int generation, File file) throws IOException {
+        Segment segment = new Segment(generation, file, false, false);
+        try {
+            if (segment.size() > Integer.MAX_VALUE) {
+                throw new IOException("Append log " + file.getName() + " is too large to be replayed");
+            }
+            byte[] data = segment.size() == 0 ? new byte[0] : segment.read(0, (int) segment.size());
+            int offset = 0;
+            while (offset < data.length) {
+                Record record;
+                int length;
+                try {
+                    if (data.length - offset < Record.HEADER_SIZE) {
+                        throw new IOException("Incomplete record header");
+                    }
+                    length = Record.lengthOf(Arrays.copyOfRange(data, offset, offset + Record.HEADER_SIZE));
+                    if (length > data.length - offset) {
+                        throw new IOException("Record runs past the end of the log");
+                    }
+                    record = Record.decode(Arrays.copyOfRange(data, offset, offset + length));
+                } catch (IOException e) {
+                    logger.warn("Truncating append log " + file.getName() + " at " + offset + " of " + data.length
+                            + " bytes - " + e.getMessage());
+                    segment.truncate(offset);
+                    break;
+                }
+                if (record.isRangeTombstone()) {
+                    deleteRangeInMemory(Record.parseRange(record.getKey()));
+                } else if (record.isTombstone()) {
+                    int slot = findSlot(record.getKey().getBytes(StandardCharsets.UTF_8));
+                    if (slot >= 0) {
+                        removeSlot(slot);
+                    }
+                } else {
+                    putInMemory(record.getKey(), record.getValue());
+                }
+                sequence = Math.max(sequence, record.getSequence());
+                offset += length;
+            }
+        } finally {
+            segment.close();
+        }
+    }
+
+    /**
+     * @return append log files of this store by generation
+     */
+    private TreeMap<Integer, File> listLogs() {
+        TreeMap<Integer, File> logs = new TreeMap<>();
+        String prefix = name + "-";
+        File[] files = directory.listFiles((dir, fileName) -> fileName.startsWith(prefix)
+                && fileName.endsWith(LOG_SUFFIX));
+        if (files == null) {
+            return logs;
+        }
+        for (File file : files) {
+            String generation = file.getName().substring(prefix.length(),
+                    file.getName().length() - LOG_SUFFIX.length());
+            try {
+                logs.put(Integer.parseInt(generation), file);
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring unexpected file " + file.getName());
+            }
+        }
+        return logs;
+    }
+
+    private void deleteFiles() throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+        for (File file : listLogs().values()) {
+            deleteFile(file);
+        }
+        deleteFile(new File(directory, name + SNAPSHOT_SUFFIX));
+        deleteFile(new File(directory, name + SNAPSHOT_SUFFIX + TEMP_SUFFIX));
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            logger.warn("Unable to delete " + file.getName());
+        }
+    }
+
+    private void reset() {
+        slabs.clear();
+        slabPosition = 0;
+        usedBytes = 0;
+        liveBytes = 0;
+        capacity = INITIAL_CAPACITY;
+        table = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+        size = 0;
+        removedSlots = 0;
+    }
+
+    /**
+     * @return slot holding the key or -1 if the key is not stored
+     */
+    private int findSlot(byte[] key) {
+        long hash = hash(key);
+        int mask = capacity - 1;
+        for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+            long slotHash = table.getLong(slot * SLOT_SIZE);
+            if (slotHash == EMPTY) {
+                return -1;
+            }
+            if (slotHash == hash && keyEquals(table.getLong(slot * SLOT_SIZE + 8), key)) {
+                return slot;
+            }
+        }
+    }
+
+    private void ensureCapacity() throws IOException {
+        if (size + removedSlots + 1 > capacity * MAX_LOAD) {
+            // only grow if the table is full of live keys, otherwise rehashing drops the removed slots
+            resize(size + 1 > capacity * MAX_LOAD / 2 ? capacity * 2 : capacity);
+        }
+    }
+
+    /**
+     * Adds a key that is not in the table yet, {@link #ensureCapacity()} must have been called before
+     */
+    private void insert(long hash, long location) {
+        int mask = capacity - 1;
+        int slot = (int) hash & mask;
+        while (isOccupied(table.getLong(slot * SLOT_SIZE))) {
+            slot = (slot + 1) & mask;
+        }
+        if (table.getLong(slot * SLOT_SIZE) == REMOVED) {
+            removedSlots--;
+        }
+        table.putLong(slot * SLOT_SIZE, hash);
+        table.putLong(slot * SLOT_SIZE + 8, location);
+        size++;
+        liveBytes += entryLength(slabs.get(slabOf(location)), offsetOf(location));
+    }
+
+    private void removeSlot(int slot) {
+        long location = table.getLong(slot * SLOT_SIZE + 8);
+        markDead(location);
+        table.putLong(slot * SLOT_SIZE, REMOVED);
+        table.putLong(slot * SLOT_SIZE + 8, 0);
+        size--;
+        removedSlots++;
+    }
+
+    private void resize(int newCapacity) throws IOException {
+        ByteBuffer oldTable = table;
+        int oldCapacity = capacity;
+        table = allocate(newCapacity * SLOT_SIZE);
+        capacity = newCapacity;
+        removedSlots = 0;
+        int mask = capacity - 1;
+        for (int oldSlot = 0; oldSlot < oldCapacity; oldSlot++) {
+            long hash = oldTable.getLong(oldSlot * SLOT_SIZE);
+            if (isOccupied(hash)) {
+                int slot = (int) hash & mask;
+                while (table.getLong(slot * SLOT_SIZE) != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                table.putLong(slot * SLOT_SIZE, hash);
+                table.putLong(slot * SLOT_SIZE + 8, oldTable.getLong(oldSlot * SLOT_SIZE + 8));
+            }
+        }
+    }
+
+    private static boolean isOccupied(long slotHash) {
+        return slotHash != EMPTY && slotHash != REMOVED;
+    }
+
+    /**
+     * @return slab, offset and length of the entry of the key, null if the key is not stored
+     */
+    private RecordPointer pointerOf(String key) {
+        int slot = findSlot(key.getBytes(StandardCharsets.UTF_8));
+        if (slot < 0) {
+            return null;
+        }
+        long location = table.getLong(slot * SLOT_SIZE + 8);
+        return new RecordPointer(slabOf(location), offsetOf(location),
+                entryLength(slabs.get(slabOf(location)), offsetOf(location)));
+    }
+
+    private long writeEntry(byte[] key, String md5, byte[] value) throws IOException {
+        long location = allocateEntry(ENTRY_HEADER_SIZE + key.length + value.length);
+        ByteBuffer slab = slabs.get(slabOf(location)).duplicate();
+        slab.position(offsetOf(location));
+        slab.put(DEAD);
+        slab.putInt(key.length);
+        slab.putInt(value.length);
+        slab.put(hashBytes(md5));
+        slab.put(key);
+        slab.put(value);
+        // only marked live once it is in the table
+        slabs.get(slabOf(location)).put(offsetOf(location), LIVE);
+        return location;
+    }
+
+    private long allocateEntry(int length) throws IOException {
+        ByteBuffer slab = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+        if (slab == null || slab.capacity() - slabPosition < length) {
+            if (slab != null) {
+                slab.limit(slabPosition);
+            }
+            slabs.add(allocate(Math.max(slabSize, length)));
+            slabPosition = 0;
+        }
+        long location = ((long) (slabs.size() - 1) << 32) | slabPosition;
+        slabPosition += length;
+        usedBytes += length;
+        return location;
+    }
+
+    private static ByteBuffer allocate(int bytes) throws IOException {
+        try {
+            return ByteBuffer.allocateDirect(bytes);
+        } catch (OutOfMemoryError e) {
+            throw new IOException("Out of direct memory allocating " + bytes + " bytes");
+        }
+    }
+
+    /**
+     * @return locations of all live entries in slab order
+     */
+    private List<Long> liveEntries() {
+        List<Long> locations = new ArrayList<>();
+        for (int slabIndex = 0; slabIndex < slabs.size(); slabIndex++) {
+            ByteBuffer slab = slabs.get(slabIndex);
+            int end = slabIndex == slabs.size() - 1 ? slabPosition : slab.limit();
+            for (int offset = 0; offset < end; offset += entryLength(slab, offset)) {
+                if (slab.get(offset) == LIVE) {
+                    locations.add(((long) slabIndex << 32) | offset);
+                }
+            }
+        }
+        return locations;
+    }
+
+    private void markDead(long location) {
+        ByteBuffer slab = slabs.get(slabOf(location));
+        slab.put(offsetOf(location), DEAD);
+        liveBytes -= entryLength(slab, offsetOf(location));
+    }
+
+    private boolean isInRange(long location, byte[] from, byte[] to) {
+        ByteBuffer slab = slabs.get(slabOf(location));
+        int hashOffset = offsetOf(location) + HASH_OFFSET;
+        return compareHash(slab, hashOffset, from) >= 0 && compareHash(slab, hashOffset, to) <= 0;
+    }
+
+    private static int compareHash(ByteBuffer slab, int offset, byte[] bound) {
+        for (int i = 0; i < HASH_BYTES; i++) {
+            int difference = (slab.get(offset + i) & 0xFF) - (bound[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return 0;
+    }
+
+    private boolean keyEquals(long location, byte[] key) {
+        ByteBuffer slab = slabs.get(slabOf(location));
+        int offset = offsetOf(location);
+        if (slab.getInt(offset + KEY_LENGTH_OFFSET) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (slab.get(offset + ENTRY_HEADER_SIZE + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] readKeyBytes(long location) {
+        ByteBuffer slab = slabs.get(slabOf(location)).duplicate();
+        int offset = offsetOf(location);
+        byte[] key = new byte[slab.getInt(offset + KEY_LENGTH_OFFSET)];
+        slab.position(offset + ENTRY_HEADER_SIZE);
+        slab.get(key);
+        return key;
+    }
+
+    private String readKey(long location) {
+        return new String(readKeyBytes(location), StandardCharsets.UTF_8);
+    }
+
+    private String readValue(long location) {
+        ByteBuffer slab = slabs.get(slabOf(location)).duplicate();
+        int offset = offsetOf(location);
+        int keyLength = slab.getInt(offset + KEY_LENGTH_OFFSET);
+        byte[] value = new byte[slab.getInt(offset + VALUE_LENGTH_OFFSET)];
+        slab.position(offset + ENTRY_HEADER_SIZE + keyLength);
+        slab.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static int entryLength(ByteBuffer slab, int offset) {
+        return ENTRY_HEADER_SIZE + slab.getInt(offset + KEY_LENGTH_OFFSET) + slab.getInt(offset + VALUE_LENGTH_OFFSET);
+    }
+
+    private static int slabOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offsetOf(long location) {
+        return (int) location;
+    }
+
+    /**
+     * @return the 16 bytes of a 32 character MD5 hex string
+     */
+    private static byte[] hashBytes(String md5) {
+        byte[] bytes = new byte[HASH_BYTES];
+        for (int i = 0; i < HASH_BYTES; i++) {
+            bytes[i] = (byte) Integer.parseInt(md5.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * 64 bit FNV-1a of the key bytes, moved off the two values reserved for empty and removed slots
+     */
+    private static long hash(byte[] key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 32;
+        return hash == EMPTY || hash == REMOVED ? 2 : hash;
+    }
+}
@@ -0,0 +1,422 @@
+package app_kvServer.storage;
+
+import common.helper.ConsistentHash;
+import common.messages.Metadata;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Splits the key space into buckets by the first byte of the MD5 hash of the key, each bucket being its own
+ * {@link KeyValueStore}, for the disk engine a {@link LogStore} with its own segment files. Buckets are ordered by
+ * hash so a hash range only has to look at the buckets it overlaps, and buckets that lie completely inside the range
+ * are taken as a whole without hashing keys.
+ */
+public class PartitionedStore {
+
+    private static Logger logger = LogManager.getLogger(PartitionedStore.class);
+
+    private static final int PREFIX_VALUES = 256;
+    private static final int HASH_LENGTH = 32;
+    // file recording the bucket count, keys can only be found again with the count they were written with
+    private static final String BUCKET_COUNT_SUFFIX = ".buckets";
+
+    private final File directory;
+    private final String name;
+    private final KeyValueStore[] buckets;
+    // smallest and largest hash of every bucket
+    private final String[] bucketStart;
+    private final String[] bucketEnd;
+
+    /**
+     * @param directory directory holding the segment files of all buckets
+     * @param name      prefix of the bucket stores, has to be unique within the directory
+     * @param config    number of buckets and settings of each bucket store
+     * @param committer makes appends of all buckets durable
+     */
+    public PartitionedStore(File directory, String name, StorageConfig config, Committer committer) {
+        int bucketCount = config.getBucketCount();
+        if (bucketCount < 1 || bucketCount > PREFIX_VALUES) {
+            throw new IllegalArgumentException("Bucket count has to be between 1 and " + PREFIX_VALUES);
+        }
+        this.directory = directory;
+        this.name = name;
+        this.buckets = new KeyValueStore[bucketCount];
+        this.bucketStart = new String[bucketCount];
+        this.bucketEnd = new String[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            String bucketName = String.format("%s.%03d", name, i);
+            if (config.getEngine() == StorageConfig.Engine.OFF_HEAP) {
+                buckets[i] = new OffHeapStore(directory, bucketName, config, committer);
+            } else {
+                buckets[i] = new LogStore(directory, bucketName, config, committer);
+            }
+        }
+        for (int prefix = PREFIX_VALUES - 1; prefix >= 0; prefix--) {
+            bucketStart[bucketOf(prefix)] = StringUtils.rightPad(String.format("%02x", prefix), HASH_LENGTH, '0');
+        }
+        for (int prefix = 0; prefix < PREFIX_VALUES; prefix++) {
+            bucketEnd[bucketOf(prefix)] = StringUtils.rightPad(String.format("%02x", prefix), HASH_LENGTH, 'f');
+        }
+    }
+
+    /**
+     * Opens every bucket
+     *
+     * @throws IOException if a bucket can not be opened
+     */
+    public void open() throws IOException {
+        for (KeyValueStore bucket : buckets) {
+            bucket.open();
+        }
+        writeBucketCount();
+        logger.info("Opened " + name + " with " + buckets.length + " buckets");
+    }
+
+    /**
+     * Reopens the buckets of a previous run, recovering all buckets in parallel
+     *
+     * @throws IOException if the store was written with a different number of buckets or a bucket can not be
+     *                     recovered
+     */
+    public void recover() throws IOException {
+        Integer previousCount = readBucketCount();
+        if (previousCount != null && previousCount != buckets.length) {
+            throw new IOException(name + " was written with " + previousCount + " buckets, not " + buckets.length);
+        }
+        long startTime = System.currentTimeMillis();
+        int threads = Math.min(buckets.length, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (KeyValueStore bucket : buckets) {
+                results.add(executor.submit(bucket::recover));
+            }
+            int scanned = 0;
+            for (Future<Integer> result : results) {
+                scanned += result.get();
+            }
+            logger.info("Recovered " + name + " with " + size() + " keys in " + buckets.length + " buckets in "
+                    + (System.currentTimeMillis() - startTime) + "ms, " + scanned + " segments scanned");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while recovering " + name);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        writeBucketCount();
+    }
+
+    public String get(String key) throws IOException {
+        return bucketFor(key).get(key);
+    }
+
+    public boolean contains(String key) {
+        return bucketFor(key).contains(key);
+    }
+
+    /**
+     * @return true if the key already existed, false if it is new
+     */
+    public boolean put(String key, String value) throws IOException {
+        return bucketFor(key).put(key, value);
+    }
+
+    /**
+     * @return true if the key existed and was deleted, false if it did not exist
+     */
+    public boolean delete(String key) throws IOException {
+        return bucketFor(key).delete(key);
+    }
+
+    /**
+     * Applies a batch of puts and deletes (null values) with one append per bucket. If a bucket fails, the buckets
+     * already written are reverted, so the batch is applied completely or not at all. The appends may not be durable
+     * yet when this returns: callers wait for them with {@link Committer#awaitDurable()} after releasing their locks,
+     * and pass the result to {@link #revert(List)} if that fails.
+     *
+     * @return the batch applied to each bucket
+     * @throws IOException if the batch could not be applied
+     */
+    public List<AppliedBatch> writeBatch(Map<String, String> keyValues) throws IOException {
+        TreeMap<Integer, Map<String, String>> bucketBatches = new TreeMap<>();
+        for (Map.Entry<String, String> entry : keyValues.entrySet()) {
+            int bucket = bucketOf(ConsistentHash.getMD5(entry.getKey()));
+            bucketBatches.computeIfAbsent(bucket, b -> new HashMap<>()).put(entry.getKey(), entry.getValue());
+        }
+
+        List<AppliedBatch> appliedBatches = new ArrayList<>();
+        try {
+            for (Map.Entry<Integer, Map<String, String>> bucketBatch : bucketBatches.entrySet()) {
+                appliedBatches.add(buckets[bucketBatch.getKey()].applyBatch(bucketBatch.getValue()));
+            }
+        } catch (IOException e) {
+            logger.error("Batch of " + keyValues.size() + " keys failed, reverting " + appliedBatches.size()
+                    + " buckets - " + e.getMessage());
+            revert(appliedBatches);
+            throw e;
+        }
+        return appliedBatches;
+    }
+
+    /**
+     * Reverts a batch written by {@link #writeBatch(Map)}, e.g. because it could not be made durable. Keys that have
+     * been written again since keep their new value
+     */
+    public void revert(List<AppliedBatch> appliedBatches) {
+        for (int i = appliedBatches.size() - 1; i >= 0; i--) {
+            AppliedBatch batch = appliedBatches.get(i);
+            if (batch.keys.isEmpty()) {
+                continue;
+            }
+            try {
+                bucketFor(batch.keys.get(0)).revert(batch);
+            } catch (IOException e) {
+                logger.error("Unable to revert batch - " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads all key-value pairs whose key hash lies within [range[0], range[1]]; a range whose start is greater than
+     * its end wraps around the hash ring
+     *
+     * @throws IOException if a record can not be read
+     */
+    public HashMap<String, String> readRange(String[] range) throws IOException {
+        HashMap<String, String> valuePairs = new HashMap<>();
+        for (String[] subRange : splitWrapAround(range)) {
+            for (int i = firstBucket(subRange); i <= lastBucket(subRange); i++) {
+                if (coversBucket(subRange, i)) {
+                    valuePairs.putAll(buckets[i].readAll());
+                } else {
+                    valuePairs.putAll(buckets[i].readRange(subRange));
+                }
+            }
+        }
+        return valuePairs;
+    }
+
+    /**
+     * Reads the key-value pairs of a single bucket whose key hash lies within [range[0], range[1]], so callers can
+     * read a range one bucket at a time
+     *
+     * @throws IOException if a record can not be read
+     */
+    public HashMap<String, String> readRange(String[] range, int bucket) throws IOException {
+        HashMap<String, String> valuePairs = new HashMap<>();
+        for (String[] subRange : splitWrapAround(range)) {
+            if (bucket < firstBucket(subRange) || bucket > lastBucket(subRange)) {
+                continue;
+            }
+            if (coversBucket(subRange, bucket)) {
+                valuePairs.putAll(buckets[bucket].readAll());
+            } else {
+                valuePairs.putAll(buckets[bucket].readRange(subRange));
+            }
+        }
+        return valuePairs;
+    }
+
+    /**
+     * Splits the entries of a range snapshot by the bucket their keys belong to
+     *
+     * @return entries of every bucket holding at least one key of the snapshot, in file order
+     */
+    public TreeMap<Integer, List<HintFile.Entry>> entriesByBucket(RangeSnapshot snapshot) {
+        TreeMap<Integer, List<HintFile.Entry>> entries = new TreeMap<>();
+        for (HintFile.Entry entry : snapshot.getEntries()) {
+            entries.computeIfAbsent(bucketIndexOf(entry.getKey()), bucket -> new ArrayList<>()).add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Hands entries of a range snapshot to the bucket they belong to, see {@link KeyValueStore#ingest}
+     *
+     * @return number of keys taken over
+     * @throws IOException if the bucket can not take the snapshot over
+     */
+    public int ingest(RangeSnapshot snapshot, int bucket, List<HintFile.Entry> entries) throws IOException {
+        return buckets[bucket].ingest(snapshot, entries);
+    }
+
+    /**
+     * Deletes all keys whose key hash lies within [range[0], range[1]]; a range whose start is greater than its end
+     * wraps around the hash ring. Buckets inside the range drop their segments as a whole, the buckets at the edges
+     * of the range record a single range tombstone.
+     *
+     * @return deleted keys
+     * @throws IOException if a tombstone can not be appended
+     */
+    public List<String> deleteRange(String[] range) throws IOException {
+        List<String> deletedKeys = new ArrayList<>();
+        for (int bucket : bucketsOverlapping(range)) {
+            deletedKeys.addAll(deleteRange(range, bucket));
+        }
+        return deletedKeys;
+    }
+
+    /**
+     * Deletes the keys of a single bucket whose key hash lies within [range[0], range[1]], so callers can delete a
+     * range one bucket at a time
+     *
+     * @return deleted keys
+     * @throws IOException if a tombstone can not be appended
+     */
+    public List<String> deleteRange(String[] range, int bucket) throws IOException {
+        List<String> deletedKeys = new ArrayList<>();
+        for (String[] subRange : splitWrapAround(range)) {
+            if (bucket < firstBucket(subRange) || bucket > lastBucket(subRange)) {
+                continue;
+            }
+            if (coversBucket(subRange, bucket)) {
+                deletedKeys.addAll(buckets[bucket].deleteAll());
+            } else {
+                deletedKeys.addAll(buckets[bucket].deleteRange(subRange));
+            }
+        }
+        return deletedKeys;
+    }
+
+    /**
+     * @return indexes of the buckets holding keys whose hash lies within [range[0], range[1]], in ascending order
+     */
+    public List<Integer> bucketsOverlapping(String[] range) {
+        TreeSet<Integer> overlapping = new TreeSet<>();
+        for (String[] subRange : splitWrapAround(range)) {
+            for (int i = firstBucket(subRange); i <= lastBucket(subRange); i++) {
+                overlapping.add(i);
+            }
+        }
+        return new ArrayList<>(overlapping);
+    }
+
+    /**
+     * @return index of the bucket the key belongs to
+     */
+    public int bucketIndexOf(String key) {
+        return bucketOf(ConsistentHash.getMD5(key));
+    }
+
+    public HashMap<String, String> readAll() throws IOException {
+        HashMap<String, String> valuePairs = new HashMap<>();
+        for (KeyValueStore bucket : buckets) {
+            valuePairs.putAll(bucket.readAll());
+        }
+        return valuePairs;
+    }
+
+    public int size() {
+        int size = 0;
+        for (KeyValueStore bucket : buckets) {
+            size += bucket.size();
+        }
+        return size;
+    }
+
+    public void clear() throws IOException {
+        for (KeyValueStore bucket : buckets) {
+            bucket.clear();
+        }
+    }
+
+    public void close() {
+        for (KeyValueStore bucket : buckets) {
+            bucket.close();
+        }
+    }
+
+    public BloomFilterStats getBloomFilterStats() {
+        BloomFilterStats stats = new BloomFilterStats(0, 0, 0, 0);
+        for (KeyValueStore bucket : buckets) {
+            stats = stats.add(bucket.getBloomFilterStats());
+        }
+        return stats;
+    }
+
+    public CompressionStats getCompressionStats() {
+        CompressionStats stats = new CompressionStats(0, 0);
+        for (KeyValueStore bucket : buckets) {
+            stats = stats.add(bucket.getCompressionStats());
+        }
+        return stats;
+    }
+
+    public int getBucketCount() {
+        return buckets.length;
+    }
+
+    public List<KeyValueStore> getBuckets() {
+        return Arrays.asList(buckets);
+    }
+
+    private File bucketCountFile() {
+        return new File(directory, name + BUCKET_COUNT_SUFFIX);
+    }
+
+    private Integer readBucketCount() throws IOException {
+        File file = bucketCountFile();
+        if (!file.exists()) {
+            return null;
+        }
+        return Integer.parseInt(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim());
+    }
+
+    private void writeBucketCount() throws IOException {
+        Files.write(bucketCountFile().toPath(), String.valueOf(buckets.length).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private KeyValueStore bucketFor(String key) {
+        return buckets[bucketOf(ConsistentHash.getMD5(key))];
+    }
+
+    private int bucketOf(String hash) {
+        return bucketOf(Integer.parseInt(hash.substring(0, 2), 16));
+    }
+
+    private int bucketOf(int prefix) {
+        return prefix * buckets.length / PREFIX_VALUES;
+    }
+
+    private int firstBucket(String[] range) {
+        return bucketOf(range[0]);
+    }
+
+    private int lastBucket(String[] range) {
+        return bucketOf(range[1]);
+    }
+
+    private boolean coversBucket(String[] range, int bucket) {
+        return range[0].compareTo(bucketStart[bucket]) <= 0 && range[1].compareTo(bucketEnd[bucket]) >= 0;
+    }
+
+    private static List<String[]> splitWrapAround(String[] range) {
+        List<String[]> ranges = new ArrayList<>();
+        if (range[0].compareTo(range[1]) > 0) {
+            ranges.add(new String[]{range[0], Metadata.MAX_MD5});
+            ranges.add(new String[]{Metadata.MIN_MD5, range[1]});
+        } else {
+            ranges.add(range);
+        }
+        return ranges;
+    }
+}
@@ -0,0 +1,328 @@
+package app_kvServer.storage;
+
+import common.helper.ConsistentHash;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable point-in-time copy of the keys of a hash range, written sorted by key hash so it can be handed to another
+ * server as a single file. All numbers are big endian:
+ * <pre>
+ * | records | index block | footer |
+ * index block: | entry count (4) | entries | crc32c (4) |
+ * entry:       | flags (1) | offset (8) | length (4) | expires at (8) | key length (4) | key |
+ * footer:      | range from (32) | range to (32) | index offset (8) | index length (4) | crc32c (4) | magic (8) |
+ * </pre>
+ * The records use the {@link Record} encoding of segment files with sequence numbers 1 to n in file order, so a
+ * {@link LogStore} can take the file over as one of its segments by linking it in, reading the index block instead
+ * of replaying the keys one by one. The index holds the {@link Expiry} of every value, 0 for values that never
+ * expire, so the receiver can schedule the expiries without reading the values.
+ */
+public class RangeSnapshot {
+
+    // suffix of snapshot files
+    public static final String SUFFIX = ".sst";
+
+    private static final long MAGIC = 0x52616e6765535354L;
+    private static final int HASH_LENGTH = 32;
+    private static final int FOOTER_SIZE = 2 * HASH_LENGTH + 8 + 4 + 4 + 8;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final File file;
+    private final String[] range;
+    private final long size;
+    private final long dataSize;
+    private final List<HintFile.Entry> entries;
+    private final Map<String, Long> expiries;
+
+    private RangeSnapshot(File file, String[] range, long size, long dataSize, List<HintFile.Entry> entries,
+                          Map<String, Long> expiries) {
+        this.file = file;
+        this.range = range;
+        this.size = size;
+        this.dataSize = dataSize;
+        this.entries = entries;
+        this.expiries = expiries;
+    }
+
+    /**
+     * Starts a new snapshot file
+     *
+     * @param file                 file to write, replaced if it exists
+     * @param range                hash range [range[0], range[1]] the snapshot covers, must not wrap around
+     * @param compressionThreshold values shorter than this are stored uncompressed, 0 disables compression
+     * @throws IOException if the file can not be created
+     */
+    public static Writer create(File file, String[] range, int compressionThreshold) throws IOException {
+        return new Writer(file, range, compressionThreshold);
+    }
+
+    /**
+     * Opens a snapshot file, reading its footer and index block
+     *
+     * @throws IOException if the file can not be read or is not a complete snapshot
+     */
+    public static RangeSnapshot open(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long size = in.length();
+            if (size < FOOTER_SIZE) {
+                throw new IOException("Snapshot " + file.getName() + " is shorter than its footer");
+            }
+            byte[] footer = new byte[FOOTER_SIZE];
+            in.seek(size - FOOTER_SIZE);
+            in.readFully(footer);
+            ByteBuffer buffer = ByteBuffer.wrap(footer);
+            if (buffer.getLong(FOOTER_SIZE - 8) != MAGIC) {
+                throw new IOException(file.getName() + " is not a range snapshot");
+            }
+            Crc32c crc = new Crc32c();
+            crc.update(footer, 0, FOOTER_SIZE - 12);
+            if (buffer.getInt(FOOTER_SIZE - 12) != (int) crc.getValue()) {
+                throw new IOException("Footer checksum mismatch in snapshot " + file.getName());
+            }
+            byte[] hash = new byte[HASH_LENGTH];
+            buffer.get(hash);
+            String from = new String(hash, StandardCharsets.US_ASCII);
+            buffer.get(hash);
+            String to = new String(hash, StandardCharsets.US_ASCII);
+            long indexOffset = buffer.getLong();
+            int indexLength = buffer.getInt();
+            if (indexOffset < 0 || indexLength < 8 || indexOffset + indexLength != size - FOOTER_SIZE) {
+                throw new IOException("Invalid index block location in snapshot " + file.getName());
+            }
+
+            byte[] index = new byte[indexLength];
+            in.seek(indexOffset);
+            in.readFully(index);
+            crc = new Crc32c();
+            crc.update(index, 0, indexLength - 4);
+            ByteBuffer indexBuffer = ByteBuffer.wrap(index);
+            if (indexBuffer.getInt(indexLength - 4) != (int) crc.getValue()) {
+                throw new IOException("Index checksum mismatch in snapshot " + file.getName());
+            }
+            int count = indexBuffer.getInt();
+            List<HintFile.Entry> entries = new ArrayList<>(count);
+            HashMap<String, Long> expiries = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                byte flags = indexBuffer.get();
+                long offset = indexBuffer.getLong();
+                int length = indexBuffer.getInt();
+                long expiresAt = indexBuffer.getLong();
+                byte[] key = new byte[indexBuffer.getInt()];
+                indexBuffer.get(key);
+                if (offset < 0 || length < Record.HEADER_SIZE || offset + length > indexOffset) {
+                    throw new IOException("Index entry " + i + " points outside the records of " + file.getName());
+                }
+                String keyString = new String(key, StandardCharsets.UTF_8);
+                entries.add(new HintFile.Entry(keyString, i + 1, flags, offset, length));
+                if (expiresAt != Expiry.NEVER) {
+                    expiries.put(keyString, expiresAt);
+                }
+            }
+            return new RangeSnapshot(file, new String[]{from, to}, size, indexOffset,
+                    Collections.unmodifiableList(entries), Collections.unmodifiableMap(expiries));
+        }
+    }
+
+    /**
+     * Reads every record once and checks it against its checksum and its index entry, so a file damaged in transfer
+     * is rejected before any of it is taken over
+     *
+     * @throws IOException if a record is corrupted or does not match the index
+     */
+    public void verify() throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            for (HintFile.Entry entry : entries) {
+                byte[] data = new byte[entry.getLength()];
+                in.seek(entry.getOffset());
+                in.readFully(data);
+                Record record = Record.decode(data);
+                if (!record.getKey().equals(entry.getKey()) || record.getSequence() != entry.getSequence()) {
+                    throw new IOException("Record of " + entry.getKey() + " does not match the index of "
+                            + file.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the values of the given entries, in file order
+     *
+     * @throws IOException if a record can not be read or is corrupted
+     */
+    public HashMap<String, String> read(List<HintFile.Entry> selected) throws IOException {
+        HashMap<String, String> keyValues = new HashMap<>();
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            for (HintFile.Entry entry : selected) {
+                byte[] data = new byte[entry.getLength()];
+                in.seek(entry.getOffset());
+                in.readFully(data);
+                Record record = Record.decode(data);
+                keyValues.put(record.getKey(), record.getValue());
+            }
+        }
+        return keyValues;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return hash range [range[0], range[1]] covered by the snapshot
+     */
+    public String[] getRange() {
+        return range.clone();
+    }
+
+    /**
+     * @return size of the whole file, including index block and footer
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return bytes taken by the records
+     */
+    public long getDataSize() {
+        return dataSize;
+    }
+
+    /**
+     * @return location of every record in hash order, the sequence number of an entry is its position starting at 1
+     */
+    public List<HintFile.Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return expiry of every key of the snapshot that has a time to live
+     */
+    public Map<String, Long> getExpiries() {
+        return expiries;
+    }
+
+    /**
+     * Writes the records of a snapshot in the order they are added, followed by the index block and footer
+     */
+    public static class Writer implements AutoCloseable {
+
+        private final File file;
+        private final String[] range;
+        private final int compressionThreshold;
+        private final FileOutputStream fileOut;
+        private final DataOutputStream out;
+        private final List<HintFile.Entry> entries = new ArrayList<>();
+        private final List<Long> expiries = new ArrayList<>();
+        private long offset;
+        private String lastHash;
+        private boolean finished;
+
+        private Writer(File file, String[] range, int compressionThreshold) throws IOException {
+            if (range[0].length() != HASH_LENGTH || range[1].length() != HASH_LENGTH
+                    || range[0].compareTo(range[1]) > 0) {
+                throw new IllegalArgumentException("Snapshot range has to be an ascending pair of hashes");
+            }
+            this.file = file;
+            this.range = range.clone();
+            this.compressionThreshold = compressionThreshold;
+            this.fileOut = new FileOutputStream(file);
+            this.out = new DataOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE));
+        }
+
+        /**
+         * Appends a key-value pair, keys have to be added in ascending order of their hash
+         *
+         * @param value stored form of the value, including its {@link Expiry}
+         *
+         * @throws IOException if the record can not be written
+         */
+        public void add(String key, String value) throws IOException {
+            String hash = ConsistentHash.getMD5(key);
+            if (lastHash != null && hash.compareTo(lastHash) < 0) {
+                throw new IllegalStateException("Keys have to be added in hash order");
+            }
+            if (hash.compareTo(range[0]) < 0 || hash.compareTo(range[1]) > 0) {
+                throw new IllegalArgumentException("Key " + key + " lies outside of the snapshot range");
+            }
+            byte[] raw = value.getBytes(StandardCharsets.UTF_8);
+            byte[] compressed = Compression.compress(raw, compressionThreshold);
+            byte flags = compressed == null ? 0 : Record.FLAG_COMPRESSED;
+            byte[] record = Record.encodeStored(entries.size() + 1, flags, key, compressed == null ? raw : compressed);
+            out.write(record);
+            entries.add(new HintFile.Entry(key, entries.size() + 1, flags, offset, record.length));
+            expiries.add(Expiry.expiryOf(value));
+            offset += record.length;
+            lastHash = hash;
+        }
+
+        /**
+         * Writes index block and footer and forces the file onto the disk
+         *
+         * @return the finished snapshot
+         * @throws IOException if the file can not be written
+         */
+        public RangeSnapshot finish() throws IOException {
+            ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+            DataOutputStream index = new DataOutputStream(indexBytes);
+            index.writeInt(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                HintFile.Entry entry = entries.get(i);
+                byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                index.writeByte(entry.getFlags());
+                index.writeLong(entry.getOffset());
+                index.writeInt(entry.getLength());
+                index.writeLong(expiries.get(i));
+                index.writeInt(key.length);
+                index.write(key);
+            }
+            Crc32c crc = new Crc32c();
+            crc.update(indexBytes.toByteArray(), 0, indexBytes.size());
+            index.writeInt((int) crc.getValue());
+            index.flush();
+            out.write(indexBytes.toByteArray());
+
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            footer.put(range[0].getBytes(StandardCharsets.US_ASCII));
+            footer.put(range[1].getBytes(StandardCharsets.US_ASCII));
+            footer.putLong(offset);
+            footer.putInt(indexBytes.size());
+            crc = new Crc32c();
+            crc.update(footer.array(), 0, footer.position());
+            footer.putInt((int) crc.getValue());
+            footer.putLong(MAGIC);
+            out.write(footer.array());
+            out.flush();
+            fileOut.getFD().sync();
+            finished = true;
+            out.close();
+            return RangeSnapshot.open(file);
+        }
+
+        /**
+         * Closes the file, a snapshot that was not finished is deleted
+         */
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                out.close();
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+}
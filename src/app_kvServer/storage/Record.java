@@ -0,0 +1,185 @@
+package app_kvServer.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary on-disk record of a {@link LogStore}. All numbers are big endian:
+ * <pre>
+ * | length (4) | crc32c (4) | sequence (8) | flags (1) | key length (4) | value length (4) | key | value |
+ * </pre>
+ * The length covers the whole record including itself and the checksum covers everything after the checksum field,
+ * so a record can be decoded and verified without any delimiter parsing. Keys and values may contain any character.
+ * <p>
+ * A range tombstone deletes every key whose hash lies within a hash range and was written before it. Its key holds the
+ * range as {@code <from>-<to>}, it has no value. Values flagged as compressed are stored deflated, see
+ * {@link Compression}, and inflated again by {@link #getValue()}.
+ */
+public class Record {
+
+    public static final int HEADER_SIZE = 25;
+
+    public static final byte FLAG_TOMBSTONE = 1;
+    public static final byte FLAG_RANGE_TOMBSTONE = 2;
+    public static final byte FLAG_COMPRESSED = 4;
+
+    private static final String RANGE_SEPARATOR = "-";
+
+    private static final int CHECKSUM_OFFSET = 4;
+    private static final int CHECKSUMMED_OFFSET = 8;
+    private static final int SEQUENCE_OFFSET = 8;
+
+    private final long sequence;
+    private final byte flags;
+    private final String key;
+    private final byte[] value;
+
+    private Record(long sequence, byte flags, String key, byte[] value) {
+        this.sequence = sequence;
+        this.flags = flags;
+        this.key = key;
+        this.value = value;
+    }
+
+    /**
+     * Encodes a record holding a value
+     */
+    public static byte[] encode(long sequence, String key, String value) {
+        return encode(sequence, (byte) 0, key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Encodes a tombstone marking the key as deleted
+     */
+    public static byte[] encodeTombstone(long sequence, String key) {
+        return encode(sequence, FLAG_TOMBSTONE, key.getBytes(StandardCharsets.UTF_8), new byte[0]);
+    }
+
+    /**
+     * Encodes a record whose value is given in its stored form, which is deflated if the flags say so
+     */
+    public static byte[] encodeStored(long sequence, byte flags, String key, byte[] storedValue) {
+        return encode(sequence, flags, key.getBytes(StandardCharsets.UTF_8), storedValue);
+    }
+
+    /**
+     * Copies an encoded record giving it another sequence number, the stored value is taken over as it is
+     */
+    public static byte[] withSequence(byte[] data, long sequence) {
+        byte[] copy = data.clone();
+        ByteBuffer buffer = ByteBuffer.wrap(copy);
+        buffer.putLong(SEQUENCE_OFFSET, sequence);
+        buffer.putInt(CHECKSUM_OFFSET, checksum(copy));
+        return copy;
+    }
+
+    /**
+     * @return key under which a range tombstone stores its range
+     */
+    public static String rangeKey(String from, String to) {
+        return from + RANGE_SEPARATOR + to;
+    }
+
+    /**
+     * @return hash range stored in the key of a range tombstone
+     */
+    public static String[] parseRange(String rangeKey) {
+        return rangeKey.split(RANGE_SEPARATOR, 2);
+    }
+
+    private static byte[] encode(long sequence, byte flags, byte[] key, byte[] value) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + key.length + value.length);
+        buffer.putInt(buffer.capacity());
+        buffer.putInt(0);
+        buffer.putLong(sequence);
+        buffer.put(flags);
+        buffer.putInt(key.length);
+        buffer.putInt(value.length);
+        buffer.put(key);
+        buffer.put(value);
+        byte[] data = buffer.array();
+        buffer.putInt(CHECKSUM_OFFSET, checksum(data));
+        return data;
+    }
+
+    /**
+     * Reads the total record length from the first bytes of a record
+     *
+     * @throws IOException if the length can not be the length of a record
+     */
+    public static int lengthOf(byte[] header) throws IOException {
+        int length = ByteBuffer.wrap(header).getInt();
+        if (length < HEADER_SIZE) {
+            throw new IOException("Invalid record length " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Decodes and verifies a complete record
+     *
+     * @throws IOException if the record is truncated or its checksum does not match
+     */
+    public static Record decode(byte[] data) throws IOException {
+        if (data.length < HEADER_SIZE) {
+            throw new IOException("Record of " + data.length + " bytes is shorter than its header");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int length = buffer.getInt();
+        int storedChecksum = buffer.getInt();
+        if (length != data.length) {
+            throw new IOException("Record length " + length + " does not match " + data.length + " bytes read");
+        }
+        if (storedChecksum != checksum(data)) {
+            throw new IOException("Record checksum mismatch");
+        }
+        long sequence = buffer.getLong();
+        byte flags = buffer.get();
+        int keyLength = buffer.getInt();
+        int valueLength = buffer.getInt();
+        if (keyLength < 0 || valueLength < 0 || HEADER_SIZE + keyLength + valueLength != length) {
+            throw new IOException("Record key and value lengths do not add up");
+        }
+        String key = new String(data, HEADER_SIZE, keyLength, StandardCharsets.UTF_8);
+        byte[] value = new byte[valueLength];
+        buffer.position(HEADER_SIZE + keyLength);
+        buffer.get(value);
+        return new Record(sequence, flags, key, value);
+    }
+
+    private static int checksum(byte[] data) {
+        Crc32c crc = new Crc32c();
+        crc.update(data, CHECKSUMMED_OFFSET, data.length - CHECKSUMMED_OFFSET);
+        return (int) crc.getValue();
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public byte getFlags() {
+        return flags;
+    }
+
+    public boolean isTombstone() {
+        return (flags & FLAG_TOMBSTONE) != 0;
+    }
+
+    public boolean isRangeTombstone() {
+        return (flags & FLAG_RANGE_TOMBSTONE) != 0;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the value, inflated if it is stored compressed
+     * @throws IOException if a compressed value can not be inflated
+     */
+    public String getValue() throws IOException {
+        byte[] data = (flags & FLAG_COMPRESSED) != 0 ? Compression.decompress(value) : value;
+        return new String(data, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,56 @@
+package app_kvServer.storage;
+
+/**
+ * Location of the latest record of a key: the segment it lives in, the offset of the record within the segment and
+ * the length of the record in bytes.
+ */
+public class RecordPointer {
+
+    private final int segmentId;
+    private final long offset;
+    private final int length;
+
+    public RecordPointer(int segmentId, long offset, int length) {
+        this.segmentId = segmentId;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public int getSegmentId() {
+        return segmentId;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RecordPointer)) {
+            return false;
+        }
+        RecordPointer other = (RecordPointer) o;
+        return segmentId == other.segmentId && offset == other.offset && length == other.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * segmentId + Long.hashCode(offset)) + length;
+    }
+
+    @Override
+    public String toString() {
+        return "RecordPointer{" +
+                "segmentId=" + segmentId +
+                ", offset=" + offset +
+                ", length=" + length +
+                '}';
+    }
+}
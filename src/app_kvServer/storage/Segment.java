@@ -0,0 +1,250 @@
+package app_kvServer.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A single append-only file of a {@link LogStore}. Records are only ever added at the end of the file, so once a
+ * record is written its offset never changes and it can be read back with one positioned read.
+ * <p>
+ * In memory mapped mode reads are served from a read-only mapping of the file. The mapping is extended whenever a
+ * read goes past the mapped region, which only happens for records appended after the last remap.
+ * <p>
+ * A buffered segment keeps appends in memory until {@link #flush()} writes all of them with a single write, which is
+ * how group commit batches the records of concurrent writers. Records that are not flushed yet are read from memory.
+ */
+public class Segment {
+
+    private final int id;
+    private volatile File file;
+    private final FileChannel channel;
+    private final boolean memoryMapped;
+    private final PendingBuffer pending;
+    private volatile long size;
+    private volatile long flushedSize;
+    private volatile MappedByteBuffer mappedBuffer;
+
+    /**
+     * Opens (or creates) the segment file
+     *
+     * @param id           id of the segment, segments with a higher id are newer
+     * @param file         file backing the segment
+     * @param memoryMapped true to serve reads from a memory mapping of the file
+     * @param buffered     true to keep appends in memory until the segment is flushed
+     * @throws IOException if the file can not be opened
+     */
+    public Segment(int id, File file, boolean memoryMapped, boolean buffered) throws IOException {
+        this.id = id;
+        this.file = file;
+        this.memoryMapped = memoryMapped;
+        this.pending = buffered ? new PendingBuffer() : null;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.size = channel.size();
+        this.flushedSize = size;
+    }
+
+    /**
+     * Appends data at the end of the segment
+     *
+     * @return offset at which the data was written
+     * @throws IOException if unable to write to the segment
+     */
+    public synchronized long append(byte[] data) throws IOException {
+        long offset = size;
+        if (pending != null) {
+            pending.write(data);
+            size += data.length;
+            return offset;
+        }
+        write(ByteBuffer.wrap(data), offset);
+        size = offset + data.length;
+        flushedSize = size;
+        return offset;
+    }
+
+    /**
+     * Writes all buffered appends to the file with a single write
+     *
+     * @throws IOException if unable to write to the segment
+     */
+    public synchronized void flush() throws IOException {
+        if (pending == null || pending.size() == 0) {
+            return;
+        }
+        write(pending.asByteBuffer(), flushedSize);
+        pending.reset();
+        flushedSize = size;
+    }
+
+    private void write(ByteBuffer buffer, long offset) throws IOException {
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Reads length bytes starting at offset with a single positioned read
+     *
+     * @throws IOException if the segment is shorter than requested or can not be read
+     */
+    public byte[] read(long offset, int length) throws IOException {
+        if (offset >= flushedSize) {
+            byte[] data = readPending(offset, length);
+            if (data != null) {
+                return data;
+            }
+        }
+        if (memoryMapped) {
+            return readMapped(offset, length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of segment " + file.getName() + " at " + position);
+            }
+            position += read;
+        }
+        return buffer.array();
+    }
+
+    private synchronized byte[] readPending(long offset, int length) throws IOException {
+        if (offset < flushedSize) {
+            // flushed in the meantime
+            return null;
+        }
+        if (pending == null || offset + length > size) {
+            throw new IOException("Unexpected end of segment " + file.getName() + " at " + size);
+        }
+        return pending.copy((int) (offset - flushedSize), length);
+    }
+
+    private byte[] readMapped(long offset, int length) throws IOException {
+        if (offset + length > flushedSize) {
+            throw new IOException("Unexpected end of segment " + file.getName() + " at " + flushedSize);
+        }
+        MappedByteBuffer mapped = mappedBuffer;
+        if (mapped == null || offset + length > mapped.capacity()) {
+            mapped = remap();
+        }
+        // duplicates share the mapping but keep their own position so concurrent reads do not interfere
+        ByteBuffer view = mapped.duplicate();
+        view.position((int) offset);
+        byte[] data = new byte[length];
+        view.get(data);
+        return data;
+    }
+
+    private synchronized MappedByteBuffer remap() throws IOException {
+        if (flushedSize > Integer.MAX_VALUE) {
+            throw new IOException("Segment " + file.getName() + " is too large to be memory mapped");
+        }
+        if (mappedBuffer == null || mappedBuffer.capacity() < flushedSize) {
+            mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, flushedSize);
+        }
+        return mappedBuffer;
+    }
+
+    /**
+     * Forces everything flushed so far onto the disk
+     *
+     * @throws IOException if the file can not be synced
+     */
+    public void sync() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Cuts the segment off at the given size, dropping a torn or corrupted tail
+     *
+     * @throws IOException if the file can not be truncated
+     */
+    public synchronized void truncate(long newSize) throws IOException {
+        flush();
+        channel.truncate(newSize);
+        channel.force(false);
+        size = newSize;
+        flushedSize = newSize;
+        mappedBuffer = null;
+    }
+
+    /**
+     * Atomically renames the segment file, replacing the target if it exists. The segment stays open.
+     *
+     * @throws IOException if the file can not be moved
+     */
+    public synchronized void moveTo(File target) throws IOException {
+        Files.move(file.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        file = target;
+    }
+
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Flushes buffered appends, closes the segment and releases its mapping; the mapped memory is returned once the
+     * buffer is collected
+     */
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            flush();
+        }
+        mappedBuffer = null;
+        channel.close();
+    }
+
+    /**
+     * Closes and removes the segment from disk
+     *
+     * @return true if the file was deleted
+     */
+    public synchronized boolean delete() {
+        try {
+            mappedBuffer = null;
+            channel.close();
+        } catch (IOException ignored) {
+            // file is removed anyway
+        }
+        return file.delete();
+    }
+
+    /**
+     * Append buffer that gives access to its content without copying all of it
+     */
+    private static class PendingBuffer extends ByteArrayOutputStream {
+
+        private ByteBuffer asByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+        private byte[] copy(int offset, int length) {
+            byte[] data = new byte[length];
+            System.arraycopy(buf, offset, data, 0, length);
+            return data;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package app_kvServer.storage;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background thread that periodically asks every {@link KeyValueStore} to write a snapshot of its data. Only the
+ * in-memory engine takes snapshots, so the thread is not started for the disk engine.
+ */
+public class Snapshotter {
+
+    private static Logger logger = LogManager.getLogger(Snapshotter.class);
+
+    private final List<KeyValueStore> stores;
+    private final long intervalMillis;
+    private final boolean enabled;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param stores stores to snapshot
+     * @param config engine and snapshot interval
+     */
+    public Snapshotter(List<KeyValueStore> stores, StorageConfig config) {
+        this.stores = new ArrayList<>(stores);
+        this.intervalMillis = config.getSnapshotIntervalMillis();
+        this.enabled = config.getEngine() == StorageConfig.Engine.OFF_HEAP && intervalMillis > 0;
+    }
+
+    /**
+     * Starts the background thread, does nothing for the disk engine or if snapshots are disabled
+     */
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::snapshotAll, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            try {
+                // a snapshot being written is finished, not abandoned half way
+                scheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Snapshots all stores one after the other on the calling thread
+     *
+     * @return number of stores a snapshot was written for
+     */
+    public int snapshotAll() {
+        long startTime = System.currentTimeMillis();
+        int written = 0;
+        for (KeyValueStore store : stores) {
+            try {
+                if (store.snapshot()) {
+                    written++;
+                }
+            } catch (IOException e) {
+                logger.error("Snapshot failed - " + e.getMessage());
+            }
+        }
+        if (written > 0) {
+            logger.info("Wrote " + written + " snapshots in " + (System.currentTimeMillis() - startTime) + "ms");
+        }
+        return written;
+    }
+}
@@ -0,0 +1,258 @@
+package app_kvServer.storage;
+
+/**
+ * Tunables of the storage engine behind {@link app_kvServer.Persist}, chosen when the server is initialized.
+ */
+public class StorageConfig {
+
+    public enum Engine {
+        DISK("DISK"),          /* log-structured segment files */
+        OFF_HEAP("OFF_HEAP");  /* in memory, keys and values in direct buffers off the heap, restored from snapshots */
+
+        String value;
+
+        Engine(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+
+    public enum ReadMode {
+        CHANNEL("CHANNEL"),  /* positioned reads through the file channel */
+        MMAP("MMAP");        /* reads served from memory mapped segments */
+
+        String value;
+
+        ReadMode(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+
+    public enum Durability {
+        SYNC("SYNC"),                  /* fsync after every write */
+        PERIODIC("PERIODIC"),          /* fsync dirty segments every sync interval */
+        GROUP_COMMIT("GROUP_COMMIT");  /* batch concurrent writes into one append and one fsync */
+
+        String value;
+
+        Durability(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+
+    public enum RecoveryMode {
+        WIPE("WIPE"),        /* start with empty stores, data survives restarts only through the ZooKeeper backup */
+        RECOVER("RECOVER");  /* reopen the stores of the previous run and rebuild their index */
+
+        String value;
+
+        RecoveryMode(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+
+    private Engine engine = Engine.DISK;
+    private int offHeapSlabSize = OffHeapStore.DEFAULT_SLAB_SIZE;
+    private long snapshotIntervalMillis = 60000;
+    private ReadMode readMode = ReadMode.CHANNEL;
+    private long maxSegmentSize = LogStore.DEFAULT_MAX_SEGMENT_SIZE;
+    private int bucketCount = 16;
+    private long compactionIntervalMillis = 10000;
+    private double compactionDeadRatio = 0.5;
+    private Durability durability = Durability.PERIODIC;
+    private long syncIntervalMillis = 1000;
+    private RecoveryMode recoveryMode = RecoveryMode.WIPE;
+    private int bloomFilterBitsPerKey = 10;
+    private int compressionThreshold = 256;
+    private int blobThreshold = 1024 * 1024;
+    private long expirationTickMillis = 100;
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    public int getOffHeapSlabSize() {
+        return offHeapSlabSize;
+    }
+
+    /**
+     * @param offHeapSlabSize bytes of each direct buffer the OFF_HEAP engine allocates for keys and values
+     */
+    public void setOffHeapSlabSize(int offHeapSlabSize) {
+        this.offHeapSlabSize = offHeapSlabSize;
+    }
+
+    public long getSnapshotIntervalMillis() {
+        return snapshotIntervalMillis;
+    }
+
+    /**
+     * @param snapshotIntervalMillis how often the OFF_HEAP engine writes a snapshot of its data and starts a new
+     *                               append log, 0 disables both and nothing survives a restart
+     */
+    public void setSnapshotIntervalMillis(long snapshotIntervalMillis) {
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+    }
+
+    public ReadMode getReadMode() {
+        return readMode;
+    }
+
+    public void setReadMode(ReadMode readMode) {
+        this.readMode = readMode;
+    }
+
+    public long getMaxSegmentSize() {
+        return maxSegmentSize;
+    }
+
+    public void setMaxSegmentSize(long maxSegmentSize) {
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    /**
+     * @param bucketCount number of hash buckets the key space is split into, between 1 and 256
+     */
+    public void setBucketCount(int bucketCount) {
+        this.bucketCount = bucketCount;
+    }
+
+    public long getCompactionIntervalMillis() {
+        return compactionIntervalMillis;
+    }
+
+    /**
+     * @param compactionIntervalMillis delay between background compaction passes, 0 disables the compactor
+     */
+    public void setCompactionIntervalMillis(long compactionIntervalMillis) {
+        this.compactionIntervalMillis = compactionIntervalMillis;
+    }
+
+    public double getCompactionDeadRatio() {
+        return compactionDeadRatio;
+    }
+
+    /**
+     * @param compactionDeadRatio share of dead bytes a store needs before it gets compacted
+     */
+    public void setCompactionDeadRatio(double compactionDeadRatio) {
+        this.compactionDeadRatio = compactionDeadRatio;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public void setDurability(Durability durability) {
+        this.durability = durability;
+    }
+
+    public long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    /**
+     * @param syncIntervalMillis how often dirty segments are forced to disk in PERIODIC mode
+     */
+    public void setSyncIntervalMillis(long syncIntervalMillis) {
+        this.syncIntervalMillis = syncIntervalMillis;
+    }
+
+    public RecoveryMode getRecoveryMode() {
+        return recoveryMode;
+    }
+
+    public void setRecoveryMode(RecoveryMode recoveryMode) {
+        this.recoveryMode = recoveryMode;
+    }
+
+    public int getBloomFilterBitsPerKey() {
+        return bloomFilterBitsPerKey;
+    }
+
+    /**
+     * @param bloomFilterBitsPerKey bits of bloom filter per stored key, 0 disables the filters
+     */
+    public void setBloomFilterBitsPerKey(int bloomFilterBitsPerKey) {
+        this.bloomFilterBitsPerKey = bloomFilterBitsPerKey;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * @param compressionThreshold values of at least this many bytes are stored deflated, 0 disables compression
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public int getBlobThreshold() {
+        return blobThreshold;
+    }
+
+    /**
+     * @param blobThreshold values of at least this many characters are kept in blob files of their own instead of
+     *                      records, 0 only keeps streamed values in blob files
+     */
+    public void setBlobThreshold(int blobThreshold) {
+        this.blobThreshold = blobThreshold;
+    }
+
+    public long getExpirationTickMillis() {
+        return expirationTickMillis;
+    }
+
+    /**
+     * @param expirationTickMillis resolution of the timing wheel that deletes expired keys in the background, 0
+     *                             disables background expiration and expired keys are only dropped when they are read
+     */
+    public void setExpirationTickMillis(long expirationTickMillis) {
+        this.expirationTickMillis = expirationTickMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "StorageConfig{" +
+                "engine=" + engine +
+                ", offHeapSlabSize=" + offHeapSlabSize +
+                ", snapshotIntervalMillis=" + snapshotIntervalMillis +
+                ", readMode=" + readMode +
+                ", maxSegmentSize=" + maxSegmentSize +
+                ", bucketCount=" + bucketCount +
+                ", compactionIntervalMillis=" + compactionIntervalMillis +
+                ", compactionDeadRatio=" + compactionDeadRatio +
+                ", durability=" + durability +
+                ", syncIntervalMillis=" + syncIntervalMillis +
+                ", recoveryMode=" + recoveryMode +
+                ", bloomFilterBitsPerKey=" + bloomFilterBitsPerKey +
+                ", compressionThreshold=" + compressionThreshold +
+                ", blobThreshold=" + blobThreshold +
+                ", expirationTickMillis=" + expirationTickMillis +
+                '}';
+    }
+}
@@ -0,0 +1,161 @@
+package app_kvServer.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hierarchical timing wheel of key expiries. Level 0 has one slot per tick, every further level has slots as long as
+ * a whole turn of the level below; a key is put into the lowest level whose turn reaches its expiry and moves down a
+ * level every time the wheel below starts a new turn, until it is due. Scheduling, cancelling and expiring a key are
+ * constant time no matter how many keys are scheduled.
+ * <p>
+ * The deadline of every key is kept next to the wheel, a rescheduled or cancelled key leaves its old slot entry
+ * behind, which is dropped when the slot comes up.
+ */
+public class TimingWheel {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+
+    private final long tickMillis;
+    // slots[level][slot] maps a key to the deadline it was put there with
+    private final List<List<Map<String, Long>>> slots = new ArrayList<>();
+    private final HashMap<String, Long> deadlines = new HashMap<>();
+    // keys that were already due when they were scheduled
+    private final List<String> overdue = new ArrayList<>();
+    private long currentTick;
+
+    /**
+     * @param tickMillis length of a level 0 slot, expiries are rounded up to a whole tick
+     * @param now        time the wheel starts at
+     */
+    public TimingWheel(long tickMillis, long now) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("Tick has to be at least 1ms");
+        }
+        this.tickMillis = tickMillis;
+        this.currentTick = now / tickMillis;
+        for (int level = 0; level < LEVELS; level++) {
+            List<Map<String, Long>> wheel = new ArrayList<>(SLOTS);
+            for (int slot = 0; slot < SLOTS; slot++) {
+                wheel.add(new HashMap<>());
+            }
+            slots.add(wheel);
+        }
+    }
+
+    /**
+     * Schedules the key to expire at the given time, replacing an earlier expiry of the key
+     */
+    public synchronized void schedule(String key, long expiresAt) {
+        deadlines.put(key, expiresAt);
+        place(key, expiresAt);
+    }
+
+    /**
+     * Removes the expiry of the key, for keys that were deleted or overwritten without a time to live
+     */
+    public synchronized void cancel(String key) {
+        deadlines.remove(key);
+    }
+
+    public synchronized void clear() {
+        deadlines.clear();
+        overdue.clear();
+        for (List<Map<String, Long>> wheel : slots) {
+            for (Map<String, Long> slot : wheel) {
+                slot.clear();
+            }
+        }
+    }
+
+    /**
+     * @return expiry of the key, {@link Expiry#NEVER} if it is not scheduled
+     */
+    public synchronized long deadlineOf(String key) {
+        Long deadline = deadlines.get(key);
+        return deadline == null ? Expiry.NEVER : deadline;
+    }
+
+    public synchronized int size() {
+        return deadlines.size();
+    }
+
+    /**
+     * Turns the wheel up to now
+     *
+     * @return keys whose expiry has passed, they are no longer scheduled
+     */
+    public synchronized List<String> advance(long now) {
+        List<String> due = new ArrayList<>();
+        for (String key : overdue) {
+            expire(key, now, due);
+        }
+        overdue.clear();
+        long targetTick = now / tickMillis;
+        while (currentTick < targetTick) {
+            currentTick++;
+            // higher levels first, so keys moving down land in a slot that is still to come
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    Map<String, Long> slot = slots.get(level).get(slotOf(currentTick, level));
+                    List<Map.Entry<String, Long>> moving = new ArrayList<>(slot.entrySet());
+                    slot.clear();
+                    for (Map.Entry<String, Long> entry : moving) {
+                        if (entry.getValue().equals(deadlines.get(entry.getKey()))) {
+                            place(entry.getKey(), entry.getValue());
+                        }
+                    }
+                }
+            }
+            Map<String, Long> slot = slots.get(0).get(slotOf(currentTick, 0));
+            List<Map.Entry<String, Long>> expiring = new ArrayList<>(slot.entrySet());
+            slot.clear();
+            for (Map.Entry<String, Long> entry : expiring) {
+                if (entry.getValue().equals(deadlines.get(entry.getKey()))) {
+                    expire(entry.getKey(), now, due);
+                }
+            }
+        }
+        return due;
+    }
+
+    private void expire(String key, long now, List<String> due) {
+        Long deadline = deadlines.get(key);
+        if (deadline == null) {
+            return;
+        }
+        if (deadline > now) {
+            // rounded up into the current tick, due within the next one
+            place(key, deadline);
+            return;
+        }
+        deadlines.remove(key);
+        due.add(key);
+    }
+
+    private void place(String key, long expiresAt) {
+        long tick = (expiresAt + tickMillis - 1) / tickMillis;
+        long ticksLeft = tick - currentTick;
+        if (ticksLeft <= 0) {
+            overdue.add(key);
+            return;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && ticksLeft >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        if (ticksLeft >= 1L << (SLOT_BITS * LEVELS)) {
+            // further out than the wheel reaches, parked in the slot that comes up last and placed again from there
+            tick = currentTick + (1L << (SLOT_BITS * LEVELS)) - 1;
+        }
+        slots.get(level).get(slotOf(tick, level)).put(key, expiresAt);
+    }
+
+    private static int slotOf(long tick, int level) {
+        return (int) ((tick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+    }
+}
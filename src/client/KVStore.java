@@ -3,6 +3,7 @@ package client;
 import app_kvClient.IClientSocketListener;
 import app_kvClient.KVClient;
 import com.google.gson.Gson;
+import common.ChunkedValue;
 import common.ClientServerRequestResponse;
 import common.KVMessage;
 import common.messages.Metadata;
@@ -88,11 +89,25 @@ public class KVStore implements KVCommInterface {
 
     @Override
     public KVMessage put(String key, String value) throws IOException {
+        return put(key, value, 0);
+    }
+
+    /**
+     * Puts a value the server deletes once its time to live is over
+     *
+     * @param ttlMillis time to live of the value, 0 for a value that never expires
+     * @throws IOException if the connection fails
+     */
+    public KVMessage put(String key, String value, long ttlMillis) throws IOException {
+        if (ChunkedValue.isLarge(value)) {
+            return putStream(key, new StringReader(value), ttlMillis);
+        }
         ClientServerRequestResponse req = new ClientServerRequestResponse(requestId++, key, value, KVMessage
                 .StatusType.PUT, null);
+        req.setTtlMillis(ttlMillis);
         boolean status = sendRequest(req);
         if (status) {
-            ClientServerRequestResponse response = getResponse();
+            ClientServerRequestResponse response = getResponse(null);
             if (KVMessage.StatusType.CONNECTION_DROPPED.equals(response.getStatus()))
                 throw new IOException("Connection Dropped");
             return response;
@@ -102,13 +117,63 @@ public class KVStore implements KVCommInterface {
 
     }
 
+    /**
+     * Puts a value of any size, it is sent in chunks as it is read so it never has to be in memory as a whole
+     *
+     * @param value reader over the value, read until its end
+     * @throws IOException if the value can not be read or the connection fails
+     */
+    public KVMessage putStream(String key, Reader value) throws IOException {
+        return putStream(key, value, 0);
+    }
+
+    /**
+     * Puts a value of any size the server deletes once its time to live is over
+     *
+     * @param value     reader over the value, read until its end
+     * @param ttlMillis time to live of the value, 0 for a value that never expires
+     * @throws IOException if the value can not be read or the connection fails
+     */
+    public KVMessage putStream(String key, Reader value, long ttlMillis) throws IOException {
+        ClientServerRequestResponse req = new ClientServerRequestResponse(requestId++, key, null, KVMessage
+                .StatusType.PUT, null);
+        req.setStreamed(true);
+        req.setTtlMillis(ttlMillis);
+        if (!sendRequest(req)) {
+            throw new IOException("Not Connected");
+        }
+        ChunkedValue.write(outputStreamWriter, req.getId(), key, value);
+        ClientServerRequestResponse response = getResponse(null);
+        if (KVMessage.StatusType.CONNECTION_DROPPED.equals(response.getStatus()))
+            throw new IOException("Connection Dropped");
+        return response;
+    }
+
+    /**
+     * Gets a value of any size, it is written to out chunk by chunk as it arrives instead of being returned in the
+     * response
+     *
+     * @param out receives the value if the key is found
+     */
+    public KVMessage getStream(String key, Writer out) throws IOException {
+        ClientServerRequestResponse req = new ClientServerRequestResponse(requestId++, key, null, KVMessage
+                .StatusType.GET, null);
+        if (!sendRequest(req)) {
+            throw new IOException("Not Connected");
+        }
+        ClientServerRequestResponse response = getResponse(out);
+        if (KVMessage.StatusType.CONNECTION_DROPPED.equals(response.getStatus()))
+            throw new IOException("Connection Dropped");
+        return response;
+    }
+
     @Override
     public KVMessage get(String key) throws IOException {
         ClientServerRequestResponse req = new ClientServerRequestResponse(requestId++, key, null, KVMessage
                 .StatusType.GET, null);
         boolean status = sendRequest(req);
         if (status) {
-            ClientServerRequestResponse response = getResponse();
+            ClientServerRequestResponse response = getResponse(null);
             if (KVMessage.StatusType.CONNECTION_DROPPED.equals(response.getStatus()))
                 throw new IOException("Connection Dropped");
             return response;
@@ -128,7 +193,10 @@ public class KVStore implements KVCommInterface {
     }
 
 
-    private ClientServerRequestResponse getResponse() {
+    /**
+     * @param valueOut receives a streamed value, if null the value is collected into the response
+     */
+    private ClientServerRequestResponse getResponse(Writer valueOut) {
         try {
             ClientServerRequestResponse response;
 
@@ -140,6 +208,12 @@ public class KVStore implements KVCommInterface {
 
                 Gson gson = new Gson();
                 response = gson.fromJson(respLine, ClientServerRequestResponse.class);
+                if (response.isStreamed()) {
+                    readStreamedValue(response, valueOut);
+                } else if (valueOut != null && response.getValue() != null) {
+                    valueOut.write(response.getValue());
+                    valueOut.flush();
+                }
                 // updating metadata if needed
                 if (response.getStatus().equals(KVMessage.StatusType.SERVER_NOT_RESPONSIBLE)) {
                     updateMetadata(response.getMetadata());
@@ -165,6 +239,20 @@ public class KVStore implements KVCommInterface {
         }
     }
 
+    private void readStreamedValue(ClientServerRequestResponse response, Writer valueOut) throws IOException {
+        ChunkedValue.ChunkReader chunks = ChunkedValue.read(bufferedInputStream);
+        Writer out = valueOut != null ? valueOut : new StringWriter();
+        char[] buffer = new char[ChunkedValue.CHUNK_SIZE];
+        int read;
+        while ((read = chunks.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        out.flush();
+        if (valueOut == null) {
+            response.setValue(out.toString());
+        }
+    }
+
     private void updateMetadata(Metadata metadata) {
         kvClient.setMetadata(metadata);
         HashMap<String, KVStore> kvStoreHashMap = new HashMap<>();
@@ -0,0 +1,146 @@
+package common;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Streams large values between client and server. Instead of carrying the value itself, a streamed message is
+ * followed by one {@link KVMessage.StatusType#VALUE_CHUNK} message per chunk of the value and an empty chunk that
+ * ends it, so neither side ever holds more than one chunk of the value in one line.
+ */
+public class ChunkedValue {
+
+    // values longer than this are streamed, and every chunk carries at most this many characters
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    private ChunkedValue() {
+    }
+
+    /**
+     * @return true if the value is long enough to be sent in chunks
+     */
+    public static boolean isLarge(String value) {
+        return value != null && value.length() > CHUNK_SIZE;
+    }
+
+    /**
+     * Writes the value as chunk messages followed by the empty chunk that ends it
+     *
+     * @param out   connection to write to
+     * @param id    id of the request the chunks belong to
+     * @param key   key the value belongs to
+     * @param value value to send, read until its end
+     * @throws IOException if the value can not be read or the connection fails
+     */
+    public static void write(Writer out, long id, String key, Reader value) throws IOException {
+        Gson gson = new Gson();
+        char[] buffer = new char[CHUNK_SIZE];
+        int buffered = 0;
+        int read;
+        while ((read = value.read(buffer, buffered, buffer.length - buffered)) >= 0) {
+            buffered += read;
+            if (buffered < buffer.length) {
+                continue;
+            }
+            // a surrogate pair is never split over two chunks, each chunk has to be valid text on its own
+            int length = Character.isHighSurrogate(buffer[buffered - 1]) ? buffered - 1 : buffered;
+            writeChunk(out, gson, id, key, new String(buffer, 0, length));
+            System.arraycopy(buffer, length, buffer, 0, buffered - length);
+            buffered -= length;
+        }
+        if (buffered > 0) {
+            writeChunk(out, gson, id, key, new String(buffer, 0, buffered));
+        }
+        writeChunk(out, gson, id, key, "");
+        out.flush();
+    }
+
+    private static void writeChunk(Writer out, Gson gson, long id, String key, String chunk) throws IOException {
+        out.write(gson.toJson(new ClientServerRequestResponse(id, key, chunk, KVMessage.StatusType.VALUE_CHUNK, null),
+                ClientServerRequestResponse.class) + "\r\n");
+    }
+
+    /**
+     * @param in connection the chunk messages arrive on, positioned right after the streamed message
+     * @return reader over the value, it ends with the empty chunk
+     */
+    public static ChunkReader read(BufferedReader in) {
+        return new ChunkReader(in);
+    }
+
+    /**
+     * Reads the chunks of one value off the connection as they are needed
+     */
+    public static class ChunkReader extends Reader {
+
+        private final BufferedReader in;
+        private final Gson gson = new Gson();
+        private String chunk = "";
+        private int position;
+        private boolean finished;
+
+        private ChunkReader(BufferedReader in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (position == chunk.length()) {
+                if (finished || !nextChunk()) {
+                    return -1;
+                }
+            }
+            int read = Math.min(length, chunk.length() - position);
+            chunk.getChars(position, position + read, buffer, offset);
+            position += read;
+            return read;
+        }
+
+        private boolean nextChunk() throws IOException {
+            String line = in.readLine();
+            if (line == null) {
+                throw new IOException("Connection closed in the middle of a streamed value");
+            }
+            ClientServerRequestResponse message;
+            try {
+                message = gson.fromJson(line, ClientServerRequestResponse.class);
+            } catch (JsonSyntaxException e) {
+                throw new IOException("Unable to parse value chunk");
+            }
+            if (message == null || message.getStatus() != KVMessage.StatusType.VALUE_CHUNK) {
+                throw new IOException("Expected a value chunk but got " + line);
+            }
+            chunk = message.getValue() == null ? "" : message.getValue();
+            position = 0;
+            finished = chunk.isEmpty();
+            return !finished;
+        }
+
+        /**
+         * Skips the rest of the value, so the next message on the connection can be read
+         *
+         * @throws IOException if the connection fails
+         */
+        public void drain() throws IOException {
+            while (!finished) {
+                nextChunk();
+            }
+            position = chunk.length();
+        }
+
+        /**
+         * Leaves the connection as it is, unread chunks have to be drained before the reader is dropped
+         */
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -4,6 +4,8 @@ import common.messages.Metadata;
 import ecs.IECSNode;
 import org.apache.commons.lang3.StringUtils;
 
+import java.io.Reader;
+
 public class ClientServerRequestResponse implements KVMessage {
 
     private long id;
@@ -12,6 +14,12 @@ public class ClientServerRequestResponse implements KVMessage {
     private String value;
     private StatusType statusType;
     private Metadata metadata;
+    // true if the value does not travel in this message but in the VALUE_CHUNK messages following it
+    private boolean streamed;
+    // value to stream after this message, never serialized
+    private transient Reader valueStream;
+    // time to live of a PUT value in milliseconds, 0 for a value that never expires
+    private long ttlMillis;
 
     public ClientServerRequestResponse(long id, String key, String value, StatusType statusType, Metadata metadata) {
         this.id = id;
@@ -35,6 +43,10 @@ public class ClientServerRequestResponse implements KVMessage {
         return value;
     }
 
+    public void setValue(String value) {
+        this.value = value;
+    }
+
     @Override
     public StatusType getStatus() {
         return statusType;
@@ -49,6 +61,37 @@ public class ClientServerRequestResponse implements KVMessage {
         return metadata;
     }
 
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    public boolean isStreamed() {
+        return streamed;
+    }
+
+    public void setStreamed(boolean streamed) {
+        this.streamed = streamed;
+    }
+
+    /**
+     * @return value to send in chunks after this message, null if the value is sent inline
+     */
+    public Reader getValueStream() {
+        return valueStream;
+    }
+
+    /**
+     * Marks the message as streamed, the value is sent in VALUE_CHUNK messages read from the given reader
+     */
+    public void setValueStream(Reader valueStream) {
+        this.valueStream = valueStream;
+        this.streamed = valueStream != null;
+    }
+
     @Override
     public String toString() {
 
@@ -25,7 +25,9 @@ public interface KVMessage {
 
         SERVER_STOPPED,         /* Server is stopped, no requests are processed */
         SERVER_WRITE_LOCK,      /* Server locked for out, only get possible */
-        SERVER_NOT_RESPONSIBLE  /* Request not successful, server not responsible for key */
+        SERVER_NOT_RESPONSIBLE, /* Request not successful, server not responsible for key */
+
+        VALUE_CHUNK             /* REQ/RESP => part of a streamed value, an empty chunk ends the value */
 
 
     }
@@ -3,4 +3,5 @@ package common.helper;
 public enum ArgType {
     INTEGER,
     STRING,
+    CACHE_SIZE,
 }
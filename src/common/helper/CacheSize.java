@@ -0,0 +1,75 @@
+package common.helper;
+
+/**
+ * Capacity of the cache of a server, either a number of key-value pairs or a budget in bytes. Written as a plain
+ * number for a count of pairs, or as a number followed by B, KB, MB or GB for a budget, e.g. "64MB".
+ */
+public class CacheSize {
+
+    private static final String[] UNITS = {"GB", "MB", "KB", "B"};
+    private static final long[] UNIT_BYTES = {1L << 30, 1L << 20, 1L << 10, 1L};
+
+    private final int entries;
+    private final long budgetBytes;
+
+    private CacheSize(int entries, long budgetBytes) {
+        this.entries = entries;
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * @param entries number of key-value pairs the cache may hold
+     */
+    public static CacheSize ofEntries(int entries) {
+        return new CacheSize(entries, 0);
+    }
+
+    /**
+     * @param budgetBytes bytes the cached keys and values may take up
+     */
+    public static CacheSize ofBytes(long budgetBytes) {
+        return new CacheSize(0, budgetBytes);
+    }
+
+    /**
+     * @param size number of key-value pairs or budget with unit, e.g. "20" or "64MB"
+     * @return parsed size
+     * @throws NumberFormatException if size is neither
+     */
+    public static CacheSize parse(String size) throws NumberFormatException {
+        String trimmed = size.trim().toUpperCase();
+        for (int i = 0; i < UNITS.length; i++) {
+            if (trimmed.endsWith(UNITS[i])) {
+                String amount = trimmed.substring(0, trimmed.length() - UNITS[i].length()).trim();
+                return ofBytes(Long.parseLong(amount) * UNIT_BYTES[i]);
+            }
+        }
+        return ofEntries(Integer.parseInt(trimmed));
+    }
+
+    /**
+     * @return number of key-value pairs, 0 if the cache is limited by a budget instead
+     */
+    public int getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return budget in bytes, 0 if the cache is limited by the number of pairs instead
+     */
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public boolean isByteBudget() {
+        return budgetBytes > 0;
+    }
+
+    /**
+     * @return the size in the form {@link #parse(String)} reads, as passed on the command line of a server
+     */
+    @Override
+    public String toString() {
+        return isByteBudget() ? budgetBytes + "B" : String.valueOf(entries);
+    }
+}
@@ -2,6 +2,7 @@ package common.messages.server_server;
 
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 
 public class SrvSrvRequest {
     private String serverName;
@@ -10,6 +11,8 @@ public class SrvSrvRequest {
     private SrvSrvCommunication.Request request;
 
     private HashMap<String, String> kvToImport;
+    // range snapshot files to take over instead of kvToImport, only sent to a target on the same host
+    private List<String> snapshotFiles;
 
     public SrvSrvRequest(String serverName, String targetServer, String[] hashRange,
                          SrvSrvCommunication.Request request, HashMap<String, String> kvToImport) {
@@ -40,6 +43,14 @@ public class SrvSrvRequest {
         return kvToImport;
     }
 
+    public List<String> getSnapshotFiles() {
+        return snapshotFiles;
+    }
+
+    public void setSnapshotFiles(List<String> snapshotFiles) {
+        this.snapshotFiles = snapshotFiles;
+    }
+
     @Override
     public String toString() {
         return "SrvSrvRequest{" +
@@ -48,6 +59,7 @@ public class SrvSrvRequest {
                 ", hashRange=" + Arrays.toString(hashRange) +
                 ", request=" + request +
                 ", kvToImport=" + kvToImport +
+                ", snapshotFiles=" + snapshotFiles +
                 '}';
     }
 }
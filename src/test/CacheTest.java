@@ -0,0 +1,350 @@
+package test;
+
+import app_kvServer.Cache;
+import app_kvServer.IKVServer;
+import app_kvServer.Persist;
+import app_kvServer.cache.FrequencySketch;
+import app_kvServer.cache.LfuPolicy;
+import app_kvServer.cache.LruPolicy;
+import app_kvServer.storage.Expiry;
+import common.helper.CacheSize;
+import common.messages.Metadata;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class CacheTest {
+
+    private static final String SERVER_NAME = "/cacheTest";
+
+    private Persist persist;
+
+    @Before
+    public void setUp() {
+        persist = new Persist();
+        Assert.assertTrue(persist.init(SERVER_NAME));
+    }
+
+    @Test
+    public void testLruCache() throws IOException {
+        Cache cache = new Cache(3, IKVServer.CacheStrategy.LRU, persist);
+        persist.setCache(cache);
+        persist.write("a", "1");
+        persist.write("b", "2");
+        persist.write("c", "3");
+        Assert.assertEquals("1", cache.lookup("a"));
+        persist.write("d", "4");
+        Assert.assertFalse(cache.inCache("b"));
+        Assert.assertTrue(cache.inCache("a") && cache.inCache("c") && cache.inCache("d"));
+
+        // an overwrite counts as a use, a miss fills in the value and evicts the least recently used key
+        persist.write("c", "3!");
+        Assert.assertEquals("2", cache.lookup("b"));
+        Assert.assertFalse(cache.inCache("a"));
+        Assert.assertTrue(cache.inCache("b") && cache.inCache("c") && cache.inCache("d"));
+
+        // a deleted key frees its slot
+        persist.write("c", "");
+        persist.write("e", "5");
+        Assert.assertTrue(cache.inCache("b") && cache.inCache("d") && cache.inCache("e"));
+
+        LruPolicy policy = new LruPolicy();
+        for (int i = 0; i < 100000; i++) {
+            policy.onInsert("key" + i);
+        }
+        policy.onHit("key0");
+        policy.remove("key1");
+        Assert.assertEquals("key2", policy.evict());
+        for (int i = 3; i < 100000; i++) {
+            Assert.assertEquals("key" + i, policy.evict());
+        }
+        Assert.assertEquals("key0", policy.evict());
+        Assert.assertNull(policy.evict());
+        Assert.assertEquals(0, policy.size());
+    }
+
+    @Test
+    public void testLfuCache() throws IOException {
+        Cache cache = new Cache(3, IKVServer.CacheStrategy.LFU, persist);
+        persist.setCache(cache);
+        persist.write("a", "1");
+        persist.write("b", "2");
+        persist.write("c", "3");
+        cache.lookup("a");
+        cache.lookup("a");
+        cache.lookup("c");
+        persist.write("d", "4");
+        Assert.assertFalse(cache.inCache("b"));
+        // d is the least frequently used key now, among equal counts the older one goes first
+        persist.write("e", "5");
+        Assert.assertFalse(cache.inCache("d"));
+        Assert.assertTrue(cache.inCache("a") && cache.inCache("c") && cache.inCache("e"));
+
+        LfuPolicy policy = new LfuPolicy(0);
+        for (int i = 0; i < 1000; i++) {
+            policy.onInsert("key" + i);
+            for (int hit = 0; hit < i % 10; hit++) {
+                policy.onHit("key" + i);
+            }
+        }
+        Assert.assertEquals(10, policy.countOf("key999"));
+        policy.remove("key0");
+        Assert.assertEquals("key10", policy.evict());
+        for (int i = 20; i < 1000; i += 10) {
+            Assert.assertEquals("key" + i, policy.evict());
+        }
+        Assert.assertEquals(2, policy.countOf("key1"));
+        Assert.assertEquals("key1", policy.evict());
+
+        // aging halves the counts, so keys that were hot once give way to the current ones
+        LfuPolicy aging = new LfuPolicy(8);
+        aging.onInsert("old");
+        for (int i = 0; i < 7; i++) {
+            aging.onHit("old");
+        }
+        Assert.assertEquals(8, aging.countOf("old"));
+        aging.onInsert("new");
+        aging.onHit("new");
+        Assert.assertEquals(4, aging.countOf("old"));
+        Assert.assertEquals(1, aging.countOf("new"));
+        for (int i = 0; i < 4; i++) {
+            aging.onHit("new");
+        }
+        Assert.assertEquals("old", aging.evict());
+    }
+
+    @Test
+    public void testTinyLfuCacheResistsScans() throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            persist.write("key" + i, "value" + i);
+        }
+        for (IKVServer.CacheStrategy strategy : new IKVServer.CacheStrategy[]{IKVServer.CacheStrategy.LRU,
+                IKVServer.CacheStrategy.TINYLFU}) {
+            Cache cache = new Cache(100, strategy, persist);
+            persist.setCache(cache);
+            // a hot working set read over and over, then a scan reading every cold key once
+            for (int round = 0; round < 10; round++) {
+                for (int i = 0; i < 50; i++) {
+                    Assert.assertEquals("value" + i, cache.lookup("key" + i));
+                }
+            }
+            for (int i = 100; i < 1000; i++) {
+                Assert.assertEquals("value" + i, cache.lookup("key" + i));
+            }
+            int hot = 0;
+            for (int i = 0; i < 50; i++) {
+                if (cache.inCache("key" + i)) {
+                    hot++;
+                }
+            }
+            if (strategy == IKVServer.CacheStrategy.LRU) {
+                Assert.assertEquals(0, hot);
+            } else {
+                Assert.assertEquals(50, hot);
+            }
+        }
+
+        FrequencySketch sketch = new FrequencySketch(100);
+        for (int i = 0; i < 5; i++) {
+            sketch.increment("often");
+        }
+        sketch.increment("once");
+        Assert.assertEquals(5, sketch.frequency("often"));
+        Assert.assertEquals(1, sketch.frequency("once"));
+        // counts are halved once ten times the capacity was counted
+        for (int i = 0; i < 1000; i++) {
+            sketch.increment("key" + i);
+        }
+        Assert.assertTrue(sketch.frequency("often") <= 3);
+    }
+
+    @Test
+    public void testByteBudgetCache() throws IOException {
+        Assert.assertEquals(64L << 20, CacheSize.parse("64MB").getBudgetBytes());
+        Assert.assertEquals(20, CacheSize.parse("20").getEntries());
+        Assert.assertEquals("512B", CacheSize.parse(CacheSize.ofBytes(512).toString()).toString());
+
+        Cache cache = new Cache(CacheSize.ofBytes(4096), IKVServer.CacheStrategy.LRU, persist);
+        persist.setCache(cache);
+        for (int i = 0; i < 100; i++) {
+            persist.write("key" + i, "value" + i);
+        }
+        Assert.assertTrue(cache.getWeight() <= 4096);
+        Assert.assertTrue(cache.inCache("key99"));
+        Assert.assertFalse(cache.inCache("key0"));
+
+        // a large value pushes out several small ones
+        char[] large = new char[1500];
+        Arrays.fill(large, 'x');
+        persist.write("large", new String(large));
+        Assert.assertTrue(cache.inCache("large"));
+        Assert.assertTrue(cache.getWeight() <= 4096);
+
+        // a value larger than the whole budget is served from storage and never cached
+        char[] huge = new char[4096];
+        Arrays.fill(huge, 'y');
+        persist.write("large", new String(huge));
+        Assert.assertFalse(cache.inCache("large"));
+        Assert.assertEquals(new String(huge), cache.lookup("large"));
+        Assert.assertFalse(cache.inCache("large"));
+
+        cache.clearCache();
+        Assert.assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void testAbsentKeysCached() throws Exception {
+        Cache cache = new Cache(10, IKVServer.CacheStrategy.LRU, persist);
+        persist.setCache(cache);
+        Assert.assertNull(cache.lookup("polled"));
+        Assert.assertTrue(cache.isKnownAbsent("polled"));
+        Assert.assertFalse(cache.inCache("polled"));
+        Assert.assertNull(cache.lookup("polled"));
+
+        // any write of the key makes it known again
+        persist.write("polled", "arrived");
+        Assert.assertFalse(cache.isKnownAbsent("polled"));
+        Assert.assertEquals("arrived", cache.lookup("polled"));
+
+        Assert.assertNull(cache.lookup("transferred"));
+        persist.writeBatch(Collections.singletonMap("transferred", Expiry.wrap("value", Expiry.NEVER)));
+        Assert.assertEquals("value", cache.lookup("transferred"));
+
+        Assert.assertNull(cache.lookup("replicated"));
+        persist.writeReplicaBatch(Collections.singletonMap("replicated", Expiry.wrap("value", Expiry.NEVER)));
+        Assert.assertEquals("value", cache.lookup("replicated"));
+
+        // a burst of lookups for missing keys leaves the cached values alone and only a few of them are remembered
+        for (int i = 0; i < 10; i++) {
+            persist.write("hot" + i, "value" + i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertNull(cache.lookup("missing" + i));
+        }
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(cache.inCache("hot" + i));
+        }
+        Assert.assertTrue(cache.getAbsentKeyCount() <= 16);
+        Assert.assertTrue(cache.isKnownAbsent("missing999"));
+
+        // only remembered for a short while, and dropped once expired
+        Thread.sleep(Cache.ABSENT_TTL_MILLIS + 100);
+        Assert.assertFalse(cache.isKnownAbsent("missing999"));
+        persist.write("hot0", "again");
+        Assert.assertEquals(0, cache.getAbsentKeyCount());
+    }
+
+    @Test
+    public void testCacheFillOnlyDroppedByWritesOfItsKey() throws IOException {
+        persist.close();
+        persist = new Persist() {
+            @Override
+            public String read(String key) throws IOException {
+                String value = super.read(key);
+                // another client writes while the miss is reading the storage
+                if (key.equals("key")) {
+                    write("other", "value");
+                } else if (key.equals("raced")) {
+                    write("raced", "new");
+                }
+                return value;
+            }
+        };
+        Assert.assertTrue(persist.init(SERVER_NAME));
+        Cache cache = new Cache(10, IKVServer.CacheStrategy.LRU, persist);
+        persist.setCache(cache);
+        persist.write("key", "value");
+        persist.write("raced", "old");
+        cache.clearCache();
+
+        Assert.assertEquals("value", cache.lookup("key"));
+        Assert.assertTrue(cache.inCache("key"));
+        // the value read before the write of the same key is not filled in, the written one is cached
+        Assert.assertEquals("old", cache.lookup("raced"));
+        Assert.assertEquals("new", cache.lookup("raced"));
+    }
+
+    @Test
+    public void testConcurrentCacheHits() throws Exception {
+        for (IKVServer.CacheStrategy strategy : new IKVServer.CacheStrategy[]{IKVServer.CacheStrategy.FIFO,
+                IKVServer.CacheStrategy.LRU, IKVServer.CacheStrategy.LFU, IKVServer.CacheStrategy.TINYLFU}) {
+            Cache cache = new Cache(50, strategy, persist);
+            persist.setCache(cache);
+            for (int i = 0; i < 200; i++) {
+                persist.write("key" + i, "value" + i);
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<?>> results = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                final int seed = thread;
+                results.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 20000; i++) {
+                        // most reads go to a few hot keys
+                        int key = random.nextInt(10) < 9 ? random.nextInt(20) : random.nextInt(200);
+                        Assert.assertEquals("value" + key, cache.lookup("key" + key));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+            executor.shutdown();
+            int cached = 0;
+            for (int i = 0; i < 200; i++) {
+                if (cache.inCache("key" + i)) {
+                    cached++;
+                }
+            }
+            Assert.assertEquals(strategy.toString(), 50, cached);
+            persist.clearStorage();
+        }
+    }
+
+    @Test
+    public void testConcurrentWritesKeepCacheConsistent() throws Exception {
+        Cache cache = new Cache(10, IKVServer.CacheStrategy.LRU, persist);
+        persist.setCache(cache);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> results = new ArrayList<>();
+        for (int thread = 0; thread < 8; thread++) {
+            final int seed = thread;
+            results.add(executor.submit(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 500; i++) {
+                    String key = "key" + random.nextInt(20);
+                    int operation = random.nextInt(4);
+                    if (operation == 0) {
+                        persist.write(key, "");
+                    } else if (operation == 1) {
+                        cache.lookup(key);
+                    } else if (operation == 2) {
+                        persist.deleteRange(new String[]{Metadata.MIN_MD5, "0fffffffffffffffffffffffffffffff"});
+                    } else {
+                        persist.write(key, "value" + seed + "-" + i);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+        for (int i = 0; i < 20; i++) {
+            String key = "key" + i;
+            Assert.assertEquals(key, persist.read(key), cache.lookup(key));
+        }
+    }
+}
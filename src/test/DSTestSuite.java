@@ -12,7 +12,7 @@ import java.io.IOException;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({AdditionalTest.class, ConnectionTest.class, InteractionTest.class, ConsistentHashTest.class,
-        ECSClientTest.class, MetadataTest.class,ReplicaTest.class})
+        ECSClientTest.class, MetadataTest.class,ReplicaTest.class, PersistTest.class, CacheTest.class})
 public class DSTestSuite {
 
 
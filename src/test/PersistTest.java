@@ -0,0 +1,927 @@
+package test;
+
+import app_kvServer.Cache;
+import app_kvServer.IKVServer;
+import app_kvServer.Persist;
+import app_kvServer.storage.AppliedBatch;
+import app_kvServer.storage.BloomFilterStats;
+import app_kvServer.storage.Committer;
+import app_kvServer.storage.Compression;
+import app_kvServer.storage.Expiry;
+import app_kvServer.storage.HintFile;
+import app_kvServer.storage.LogStore;
+import app_kvServer.storage.OffHeapStore;
+import app_kvServer.storage.PartitionedStore;
+import app_kvServer.storage.RangeSnapshot;
+import app_kvServer.storage.Record;
+import app_kvServer.storage.Segment;
+import app_kvServer.storage.StorageConfig;
+import app_kvServer.storage.TimingWheel;
+import common.ChunkedValue;
+import common.helper.ConsistentHash;
+import common.messages.Metadata;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class PersistTest {
+
+    private static final String SERVER_NAME = "/persistTest";
+
+    private Persist persist;
+
+    @Before
+    public void setUp() {
+        persist = new Persist();
+        Assert.assertTrue(persist.init(SERVER_NAME));
+    }
+
+    @Test
+    public void testWriteRead() throws IOException {
+        Assert.assertTrue(persist.write("key", "value"));
+        Assert.assertEquals("value", persist.read("key"));
+        Assert.assertNull(persist.read("missing"));
+    }
+
+    @Test
+    public void testUpdate() throws IOException {
+        Assert.assertTrue(persist.write("key", "one"));
+        Assert.assertFalse(persist.write("key", "two"));
+        Assert.assertEquals("two", persist.read("key"));
+    }
+
+    @Test
+    public void testDelete() throws IOException {
+        Assert.assertFalse(persist.write("key", ""));
+        Assert.assertTrue(persist.write("key", "value"));
+        Assert.assertTrue(persist.write("key", null));
+        Assert.assertNull(persist.read("key"));
+        Assert.assertFalse(persist.checkIfExists("key"));
+        Assert.assertFalse(persist.write("key", null));
+    }
+
+    @Test
+    public void testValueWithDelimiterAndNewLines() throws IOException {
+        String value = "line1\nline2~*~*line3\r\n";
+        persist.write("mail", value);
+        Assert.assertEquals(value, persist.read("mail"));
+    }
+
+    @Test
+    public void testRange() throws IOException {
+        HashMap<String, String> lowerHalf = new HashMap<>();
+        for (int i = 0; i < 50; i++) {
+            String key = "key" + i;
+            persist.write(key, "value" + i);
+            if (ConsistentHash.getMD5(key).compareTo("7fffffffffffffffffffffffffffffff") <= 0) {
+                lowerHalf.put(key, "value" + i);
+            }
+        }
+        String[] range = new String[]{Metadata.MIN_MD5, "7fffffffffffffffffffffffffffffff"};
+        Assert.assertEquals(lowerHalf, persist.readRange(range));
+
+        persist.deleteRange(range);
+        Assert.assertTrue(persist.readRange(range).isEmpty());
+        Assert.assertEquals(50 - lowerHalf.size(), persist.readAll().size());
+    }
+
+    @Test
+    public void testWrapAroundRange() throws IOException {
+        HashMap<String, String> expected = new HashMap<>();
+        String[] range = new String[]{"c0000000000000000000000000000000", "3fffffffffffffffffffffffffffffff"};
+        for (int i = 0; i < 100; i++) {
+            String key = "key" + i;
+            persist.write(key, "value" + i);
+            String hash = ConsistentHash.getMD5(key);
+            if (hash.compareTo(range[0]) >= 0 || hash.compareTo(range[1]) <= 0) {
+                expected.put(key, "value" + i);
+            }
+        }
+        Assert.assertEquals(expected, persist.readRange(range));
+
+        persist.deleteRange(range);
+        Assert.assertTrue(persist.readRange(range).isEmpty());
+        Assert.assertEquals(100 - expected.size(), persist.readAll().size());
+    }
+
+    @Test
+    public void testReplicaIsSeparate() throws IOException {
+        Assert.assertTrue(persist.writeReplica("key", "replica"));
+        Assert.assertNull(persist.read("key"));
+        Assert.assertEquals("replica", persist.readReplica("key"));
+    }
+
+    @Test
+    public void testSegmentRoll() throws IOException {
+        File directory = new File("ds_data" + SERVER_NAME + "/db");
+        StorageConfig config = new StorageConfig();
+        config.setMaxSegmentSize(64);
+        LogStore store = new LogStore(directory, "rollTest", config, new Committer(config));
+        store.open();
+        for (int i = 0; i < 100; i++) {
+            store.put("key" + (i % 10), "value" + i);
+        }
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("value" + (90 + i), store.get("key" + i));
+        }
+        Assert.assertEquals(10, store.size());
+        store.clear();
+        store.close();
+    }
+
+    @Test
+    public void testInterruptedCompactionKeepsDeletes() throws IOException {
+        File directory = new File("ds_data" + SERVER_NAME + "/db");
+        StorageConfig config = new StorageConfig();
+        config.setMaxSegmentSize(64);
+        LogStore store = new LogStore(directory, "crashTest", config, new Committer(config));
+        store.open();
+        store.put("deleted", "value");
+        for (int i = 0; i < 10; i++) {
+            store.put("key" + i, "value" + i);
+        }
+        for (int i = 0; i < 10; i++) {
+            store.put("key" + i, "again" + i);
+        }
+        // the tombstone ends up in the newest sealed segment, the one the merge replaces
+        store.delete("deleted");
+        store.put("active", "value");
+        List<String> before = new ArrayList<>();
+        HashMap<String, byte[]> inputs = new HashMap<>();
+        for (File file : directory.listFiles((dir, name) -> name.startsWith("crashTest-") && name.endsWith(".log"))) {
+            before.add(file.getName());
+            inputs.put(file.getName(), Files.readAllBytes(file.toPath()));
+        }
+        Collections.sort(before);
+        Assert.assertNotNull(store.compact(0));
+        store.close();
+
+        // as if the process died after committing the merge but before deleting what it merged: the merged segment
+        // took the id of the newest sealed one, the segments below it are back
+        String target = before.get(before.size() - 2);
+        for (String name : before.subList(0, before.size() - 2)) {
+            Assert.assertFalse(new File(directory, name).exists());
+            Files.write(new File(directory, name).toPath(), inputs.get(name));
+        }
+        Files.write(new File(directory, target.replace(".log", ".merged")).toPath(), new byte[0]);
+
+        store = new LogStore(directory, "crashTest", config, new Committer(config));
+        store.recover();
+        Assert.assertNull(store.get("deleted"));
+        Assert.assertEquals("again3", store.get("key3"));
+        Assert.assertEquals(0, directory.listFiles((dir, name) -> name.startsWith("crashTest-")
+                && name.endsWith(".merged")).length);
+        store.clear();
+        store.close();
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        StorageConfig config = new StorageConfig();
+        config.setMaxSegmentSize(512);
+        config.setBucketCount(1);
+        config.setCompactionIntervalMillis(0);
+        Assert.assertTrue(persist.init(SERVER_NAME, config));
+        for (int i = 0; i < 500; i++) {
+            persist.write("key" + (i % 10), "value" + i);
+        }
+        persist.write("key0", null);
+        long debt = persist.getCompactionStats().getDebtBytes();
+        Assert.assertTrue(debt > 0);
+
+        persist.compact();
+        Assert.assertEquals(1, persist.getCompactionStats().getCompactions());
+        Assert.assertTrue(persist.getCompactionStats().getDebtBytes() < debt);
+        Assert.assertNull(persist.read("key0"));
+        for (int i = 1; i < 10; i++) {
+            Assert.assertEquals("value" + (490 + i), persist.read("key" + i));
+        }
+        persist.write("key1", "afterCompaction");
+        Assert.assertEquals("afterCompaction", persist.read("key1"));
+    }
+
+    @Test
+    public void testRecordChecksum() throws IOException {
+        byte[] data = Record.encode(7, "key", "value~*~*\nwith delimiter");
+        Record record = Record.decode(data);
+        Assert.assertEquals(7, record.getSequence());
+        Assert.assertEquals("key", record.getKey());
+        Assert.assertEquals("value~*~*\nwith delimiter", record.getValue());
+        Assert.assertTrue(Record.decode(Record.encodeTombstone(8, "key")).isTombstone());
+
+        data[data.length - 1] ^= 1;
+        try {
+            Record.decode(data);
+            Assert.fail("corrupted record was decoded");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLegacyMigration() throws IOException {
+        File directory = new File("ds_data" + SERVER_NAME + "/db");
+        Files.write(new File(directory, "data.db").toPath(), Arrays.asList("a~*~*1", "b~*~*2"));
+        Files.write(new File(directory, "dataREP.db").toPath(), Collections.singletonList("c~*~*3"));
+        Assert.assertTrue(persist.init(SERVER_NAME));
+        Assert.assertEquals("1", persist.read("a"));
+        Assert.assertEquals("2", persist.read("b"));
+        Assert.assertEquals("3", persist.readReplica("c"));
+        Assert.assertFalse(new File(directory, "data.db").exists());
+        Assert.assertTrue(new File(directory, "data.db.migrated").exists());
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        StorageConfig config = new StorageConfig();
+        config.setDurability(StorageConfig.Durability.GROUP_COMMIT);
+        Assert.assertTrue(persist.init(SERVER_NAME, config));
+        List<Thread> writers = new ArrayList<>();
+        List<Exception> failures = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < 8; t++) {
+            final int writer = t;
+            writers.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 50; i++) {
+                        persist.write("writer" + writer + "key" + i, "value" + i);
+                    }
+                } catch (IOException e) {
+                    failures.add(e);
+                }
+            }));
+        }
+        for (Thread thread : writers) {
+            thread.start();
+        }
+        for (Thread thread : writers) {
+            thread.join();
+        }
+        Assert.assertTrue(failures.isEmpty());
+        Assert.assertEquals(400, persist.readAll().size());
+        Assert.assertEquals("value49", persist.read("writer7key49"));
+    }
+
+    @Test
+    public void testSyncEveryWrite() throws IOException {
+        StorageConfig config = new StorageConfig();
+        config.setDurability(StorageConfig.Durability.SYNC);
+        Assert.assertTrue(persist.init(SERVER_NAME, config));
+        Assert.assertTrue(persist.write("key", "value"));
+        Assert.assertEquals("value", persist.read("key"));
+    }
+
+    @Test
+    public void testMemoryMappedReads() throws IOException {
+        StorageConfig config = new StorageConfig();
+        config.setReadMode(StorageConfig.ReadMode.MMAP);
+        config.setMaxSegmentSize(256);
+        Assert.assertTrue(persist.init(SERVER_NAME, config));
+        for (int i = 0; i < 40; i++) {
+            persist.write("key" + i, "value" + i);
+            // reading right after the append forces the mapping to grow with the segment
+            Assert.assertEquals("value" + i, persist.read("key" + i));
+        }
+        persist.write("key0", "updated");
+        Assert.assertEquals("updated", persist.read("key0"));
+        Assert.assertEquals("value39", persist.read("key39"));
+    }
+
+    @Test
+    public void testRecovery() throws IOException {
+        StorageConfig config = new StorageConfig();
+        config.setMaxSegmentSize(256);
+        Assert.assertTrue(persist.init(SERVER_NAME, config));
+        config.setRecoveryMode(StorageConfig.RecoveryMode.RECOVER);
+        for (int i = 0; i < 50; i++) {
+            persist.write("key" + i, "value" + i);
+        }
+        persist.write("key1", "updated");
+        persist.write("key2", null);
+        persist.writeReplica("replicated", "value");
+        persist.close();
+
+        Assert.assertTrue(persist.init(SERVER_NAME, config));
+        Assert.assertEquals(49, persist.readAll().size());
+        Assert.assertEquals("updated", persist.read("key1"));
+        Assert.assertNull(persist.read("key2"));
+        Assert.assertEquals("value49", persist.read("key49"));
+        Assert.assertEquals("value", persist.readReplica("replicated"));
+        // writes after a restart must win over the recovered records
+        persist.write("key3", "after restart");
+        persist.close();
+        Assert.assertTrue(persist.init(SERVER_NAME, config));
+        Assert.assertEquals("after restart", persist.read("key3"));
+    }
+
+    @Test
+    public void testRecoveryByScanWithTornTail() throws IOException {
+        StorageConfig config = new StorageConfig();
+        config.setBucketCount(1);
+        Assert.assertTrue(persist.init(SERVER_NAME, config));
+        config.setRecoveryMode(StorageConfig.RecoveryMode.RECOVER);
+        persist.write("a", "1");
+        persist.write("b", "2");
+        persist.write("a", null);
+        persist.close();
+
+        File directory = new File("ds_data" + SERVER_NAME + "/db");
+        File[] hintFiles = directory.listFiles((dir, name) -> name.endsWith(".hint"));
+        Assert.assertNotNull(hintFiles);
+        for (File hintFile : hintFiles) {
+            Assert.assertTrue(hintFile.delete());
+        }
+        File segment = new File(directory, "data.000-00000001.log");
+        long size = segment.length();
+        // half written record at the end of the segment
+        Files.write(segment.toPath(), new byte[]{0, 0, 0, 40, 1, 2}, StandardOpenOption.APPEND);
+
+        Assert.assertTrue(persist.init(SERVER_NAME, config));
+        Assert.assertNull(persist.read("a"));
+        Assert.assertEquals("2", persist.read("b"));
+        Assert.assertEquals(size, segment.length());
+    }
+
+    @Test
+    public void testRecoveryRejectsDifferentBucketCount() throws IOException {
+        StorageConfig config = new StorageConfig();
+        Assert.assertTrue(persist.init(SERVER_NAME, config));
+        persist.close();
+        config.setRecoveryMode(StorageConfig.RecoveryMode.RECOVER);
+        config.setBucketCount(4);
+        Assert.assertFalse(persist.init(SERVER_NAME, config));
+    }
+
+    @Test
+    public void testBloomFilter() throws IOException {
+        for (int i = 0; i < 2000; i++) {
+            persist.write("key" + i, "value" + i);
+        }
+        for (int i = 0; i < 2000; i++) {
+            Assert.assertEquals("value" + i, persist.read("key" + i));
+            Assert.assertNull(persist.read("missing" + i));
+            Assert.assertNull(persist.readReplica("missing" + i));
+        }
+        BloomFilterStats stats = persist.getBloomFilterStats();
+        Assert.assertEquals(4000, stats.getFilteredLookups() + stats.getFalsePositives());
+        Assert.assertTrue(stats.toString(), stats.getFalsePositiveRate() < 0.05);
+
+        // deleted keys stay in the filter but are still reported as missing
+        persist.write("key0", null);
+        Assert.assertNull(persist.read("key0"));
+        Assert.assertFalse(persist.checkIfExists("key0"));
+    }
+
+    @Test
+    public void testWriteBatch() throws IOException {
+        persist.write("existing", "old");
+        persist.write("deleted", "value");
+        HashMap<String, String> batch = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            batch.put("key" + i, "value" + i);
+        }
+        batch.put("existing", "new");
+        batch.put("deleted", "");
+        persist.writeBatch(batch);
+        Assert.assertEquals(101, persist.readAll().size());
+        Assert.assertEquals("value42", persist.read("key42"));
+        Assert.assertEquals("new", persist.read("existing"));
+        Assert.assertNull(persist.read("deleted"));
+
+        persist.writeReplicaBatch(batch);
+        Assert.assertEquals("value42", persist.readReplica("key42"));
+    }
+
+    @Test
+    public void testWriteBatchIsAllOrNothing() throws IOException {
+        File directory = new File("ds_data" + SERVER_NAME + "/db");
+        StorageConfig config = new StorageConfig();
+        config.setBucketCount(4);
+        PartitionedStore store = new PartitionedStore(directory, "batchTest", config, new Committer(config));
+        store.open();
+        HashMap<String, String> batch = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            store.put("key" + i, "old" + i);
+            batch.put("key" + i, "new" + i);
+            batch.put("added" + i, "value" + i);
+        }
+        // appends to the last bucket fail, the batch has already been applied to the other buckets by then
+        store.getBuckets().get(3).close();
+        try {
+            store.writeBatch(batch);
+            Assert.fail("batch was written into a closed bucket");
+        } catch (IOException e) {
+            // expected
+        }
+        for (int bucket = 0; bucket < 3; bucket++) {
+            HashMap<String, String> keyValues = store.getBuckets().get(bucket).readAll();
+            for (Map.Entry<String, String> keyValue : keyValues.entrySet()) {
+                Assert.assertTrue(keyValue.getValue().startsWith("old"));
+            }
+        }
+        Assert.assertNull(store.get("added0"));
+        store.close();
+    }
+
+    @Test
+    public void testWriteBatchRevertedWhenSyncFails() throws IOException {
+        File directory = new File("ds_data" + SERVER_NAME + "/db");
+        StorageConfig config = new StorageConfig();
+        config.setBucketCount(4);
+        config.setDurability(StorageConfig.Durability.GROUP_COMMIT);
+        AtomicBoolean failing = new AtomicBoolean();
+        Committer committer = new Committer(config) {
+            @Override
+            protected void force(Segment segment) throws IOException {
+                if (failing.get()) {
+                    throw new IOException("disk full");
+                }
+                super.force(segment);
+            }
+        };
+        committer.start();
+        PartitionedStore store = new PartitionedStore(directory, "syncFailTest", config, committer);
+        store.open();
+        HashMap<String, String> batch = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            store.put("key" + i, "old" + i);
+            batch.put("key" + i, "new" + i);
+            batch.put("added" + i, "value" + i);
+        }
+        store.put("deleted", "kept");
+        batch.put("deleted", null);
+        committer.awaitDurable();
+        // every append succeeds, the group commit syncing them fails
+        failing.set(true);
+        List<AppliedBatch> applied = store.writeBatch(batch);
+        // written by another client while the batch waited for the sync
+        store.put("key0", "newer");
+        try {
+            committer.awaitDurable();
+            Assert.fail("batch that could not be synced was made durable");
+        } catch (IOException e) {
+            store.revert(applied);
+        }
+        failing.set(false);
+        Assert.assertEquals("newer", store.get("key0"));
+        Assert.assertEquals("kept", store.get("deleted"));
+        for (int i = 1; i < 100; i++) {
+            Assert.assertEquals("old" + i, store.get("key" + i));
+            Assert.assertNull(store.get("added" + i));
+        }
+        store.clear();
+        store.close();
+        committer.stop();
+    }
+
+    @Test
+    public void testRangeDeleteSurvivesRecovery() throws IOException {
+        StorageConfig config = new StorageConfig();
+        Assert.assertTrue(persist.init(SERVER_NAME, config));
+        config.setRecoveryMode(StorageConfig.RecoveryMode.RECOVER);
+        HashMap<String, String> outside = new HashMap<>();
+        // covers buckets 0 to 7 completely and bucket 8 partly
+        String[] range = new String[]{Metadata.MIN_MD5, "87ffffffffffffffffffffffffffffff"};
+        for (int i = 0; i < 200; i++) {
+            String key = "key" + i;
+            persist.write(key, "value" + i);
+            if (ConsistentHash.getMD5(key).compareTo(range[1]) > 0) {
+                outside.put(key, "value" + i);
+            }
+        }
+        persist.deleteRange(range);
+        persist.write("key0", "written again");
+        outside.put("key0", "written again");
+        Assert.assertEquals(outside, persist.readAll());
+
+        persist.close();
+        Assert.assertTrue(persist.init(SERVER_NAME, config));
+        Assert.assertEquals(outside, persist.readAll());
+    }
+
+    @Test
+    public void testCompression() throws IOException {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            body.append("Dear team, please find the quarterly report attached.\n");
+        }
+        String value = body.toString();
+        persist.write("mail", value);
+        persist.write("short", "tiny");
+        Assert.assertEquals(value, persist.read("mail"));
+        Assert.assertEquals("tiny", persist.read("short"));
+        Assert.assertTrue(persist.getCompressionStats().toString(), persist.getCompressionStats().getRatio() > 4);
+
+        byte[] compressed = Compression.compress(value.getBytes(), 256);
+        Assert.assertNotNull(compressed);
+        Assert.assertEquals(value, new String(Compression.decompress(compressed)));
+        Assert.assertNull(Compression.compress("tiny".getBytes(), 256));
+    }
+
+    @Test
+    public void testOffHeapEngine() throws IOException {
+        StorageConfig config = new StorageConfig();
+        config.setEngine(StorageConfig.Engine.OFF_HEAP);
+        config.setOffHeapSlabSize(4096);
+        Assert.assertTrue(persist.init(SERVER_NAME, config));
+        HashMap<String, String> expected = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            persist.write("key" + i, "value" + i);
+            expected.put("key" + i, "value" + i);
+        }
+        for (int i = 0; i < 2000; i += 2) {
+            persist.write("key" + i, "updated" + i);
+            expected.put("key" + i, "updated" + i);
+        }
+        for (int i = 0; i < 2000; i += 3) {
+            persist.write("key" + i, "");
+            expected.remove("key" + i);
+        }
+        Assert.assertEquals("updated2", persist.read("key2"));
+        Assert.assertNull(persist.read("key3"));
+        Assert.assertEquals(expected, persist.readAll());
+
+        HashMap<String, String> batch = new HashMap<>();
+        batch.put("key1", "");
+        batch.put("batched", "value");
+        persist.writeBatch(batch);
+        expected.remove("key1");
+        expected.put("batched", "value");
+        Assert.assertEquals(expected, persist.readAll());
+
+        String[] range = new String[]{Metadata.MIN_MD5, "7fffffffffffffffffffffffffffffff"};
+        HashMap<String, String> inRange = new HashMap<>();
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            if (ConsistentHash.getMD5(entry.getKey()).compareTo(range[1]) <= 0) {
+                inRange.put(entry.getKey(), entry.getValue());
+            }
+        }
+        Assert.assertEquals(inRange, persist.readRange(range));
+        persist.deleteRange(range);
+        expected.keySet().removeAll(inRange.keySet());
+        Assert.assertEquals(expected, persist.readAll());
+
+        OffHeapStore store = new OffHeapStore(new File("ds_data" + SERVER_NAME + "/db"), "offHeapTest", config,
+                new Committer(config));
+        store.open();
+        for (int i = 0; i < 500; i++) {
+            store.put("key" + i, "value" + i);
+            store.put("key" + i, "again" + i);
+        }
+        Assert.assertNotNull(store.compact(0.3));
+        Assert.assertEquals(0, store.getDeadBytes());
+        Assert.assertEquals(500, store.size());
+        Assert.assertEquals("again123", store.get("key123"));
+        store.close();
+    }
+
+    @Test
+    public void testOffHeapSnapshotAndLogRecovery() throws IOException {
+        File directory = new File("ds_data" + SERVER_NAME + "/db");
+        StorageConfig config = new StorageConfig();
+        config.setEngine(StorageConfig.Engine.OFF_HEAP);
+        config.setDurability(StorageConfig.Durability.SYNC);
+        OffHeapStore store = new OffHeapStore(directory, "snapshotTest", config, new Committer(config));
+        store.open();
+        HashMap<String, String> expected = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            store.put("key" + i, "value" + i);
+            expected.put("key" + i, "value" + i);
+        }
+        Assert.assertTrue(store.snapshot());
+        Assert.assertFalse("nothing changed since the last snapshot", store.snapshot());
+
+        // changes after the snapshot only exist in the append log
+        for (int i = 0; i < 1000; i += 2) {
+            store.put("key" + i, "updated" + i);
+            expected.put("key" + i, "updated" + i);
+        }
+        store.delete("key1");
+        expected.remove("key1");
+        String[] range = new String[]{Metadata.MIN_MD5, "3fffffffffffffffffffffffffffffff"};
+        for (String key : store.deleteRange(range)) {
+            expected.remove(key);
+        }
+
+        // recovering next to the running store is what a crash leaves behind
+        OffHeapStore recovered = new OffHeapStore(directory, "snapshotTest", config, new Committer(config));
+        Assert.assertEquals(1, recovered.recover());
+        Assert.assertEquals(expected, recovered.readAll());
+        recovered.close();
+        store.close();
+
+        // a clean close writes a final snapshot
+        recovered = new OffHeapStore(directory, "snapshotTest", config, new Committer(config));
+        recovered.recover();
+        Assert.assertEquals(expected, recovered.readAll());
+        recovered.close();
+    }
+
+    @Test
+    public void testEnginesOfDifferentServersAreIndependent() throws IOException {
+        Persist other = new Persist();
+        Cache otherCache = new Cache(10, IKVServer.CacheStrategy.LRU, other);
+        other.setCache(otherCache);
+        Assert.assertTrue(other.init(SERVER_NAME + "Other"));
+
+        persist.write("key", "mine");
+        other.write("key", "theirs");
+        other.write("onlyTheirs", "value");
+        Assert.assertEquals("mine", persist.read("key"));
+        Assert.assertEquals("theirs", otherCache.lookup("key"));
+        Assert.assertNull(persist.read("onlyTheirs"));
+        Assert.assertTrue(otherCache.inCache("onlyTheirs"));
+
+        other.clearStorage();
+        Assert.assertEquals("mine", persist.read("key"));
+        Assert.assertFalse(otherCache.inCache("key"));
+        other.close();
+    }
+
+    @Test
+    public void testBlobValues() throws IOException {
+        StorageConfig config = new StorageConfig();
+        config.setBlobThreshold(1000);
+        Assert.assertTrue(persist.init(SERVER_NAME, config));
+        config.setRecoveryMode(StorageConfig.RecoveryMode.RECOVER);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            builder.append(i % 100 == 0 ? "\uD83D\uDE00" : "v" + i);
+        }
+        String large = builder.toString();
+
+        Assert.assertTrue(persist.write("large", large));
+        Assert.assertEquals(large, persist.read("large"));
+        Assert.assertEquals(large, persist.readAll().get("large"));
+        StringWriter streamed = new StringWriter();
+        try (Reader blob = persist.readBlob("large")) {
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = blob.read(buffer)) >= 0) {
+                streamed.write(buffer, 0, read);
+            }
+        }
+        Assert.assertEquals(large, streamed.toString());
+
+        // a small value replaces the blob, a large one replaces the small value again
+        Assert.assertFalse(persist.write("large", "small"));
+        Assert.assertNull(persist.readBlob("large"));
+        Assert.assertEquals("small", persist.read("large"));
+        Assert.assertFalse(persist.writeBlob("large", new StringReader(large + "!")));
+        persist.writeReplica("replicated", large);
+        persist.close();
+
+        Assert.assertTrue(persist.init(SERVER_NAME, config));
+        Assert.assertEquals(large + "!", persist.read("large"));
+        Assert.assertEquals(large, persist.readReplica("replicated"));
+        // the blobs of the previous run are known without looking at the file system on every read
+        try (Reader blob = persist.readBlob("large")) {
+            Assert.assertNotNull(blob);
+        }
+        try (Reader blob = persist.readBlob("replicated")) {
+            Assert.assertNotNull(blob);
+        }
+        Assert.assertNull(persist.readBlob("small"));
+        persist.write("large", "");
+        Assert.assertNull(persist.read("large"));
+        Assert.assertNull(persist.readBlob("large"));
+
+        // a streamed value below the threshold is stored inline, one that reaches it goes into a blob file
+        Assert.assertTrue(persist.writeBlob("streamed", new StringReader(large.substring(0, 999))));
+        Assert.assertNull(persist.readBlob("streamed"));
+        Assert.assertEquals(large.substring(0, 999), persist.read("streamed"));
+        Assert.assertFalse(persist.writeBlob("streamed", new StringReader(large.substring(0, 1000))));
+        try (Reader blob = persist.readBlob("streamed")) {
+            Assert.assertNotNull(blob);
+        }
+        Assert.assertEquals(large.substring(0, 1000), persist.read("streamed"));
+
+        // chunked transfer of the value over a connection
+        StringWriter connection = new StringWriter();
+        ChunkedValue.write(connection, 1, "large", new StringReader(large));
+        connection.write("next\r\n");
+        BufferedReader in = new BufferedReader(new StringReader(connection.toString()));
+        ChunkedValue.ChunkReader chunks = ChunkedValue.read(in);
+        Assert.assertEquals(large, new BufferedReader(chunks).readLine());
+        chunks.drain();
+        Assert.assertEquals("next", in.readLine());
+    }
+
+    @Test
+    public void testRangeSnapshotTransfer() throws IOException {
+        Persist other = new Persist();
+        Assert.assertTrue(other.init(SERVER_NAME + "Other"));
+        String[] range = new String[]{Metadata.MIN_MD5, "7fffffffffffffffffffffffffffffff"};
+        HashMap<String, String> inRange = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            persist.write("key" + i, "value" + i);
+            boolean within = ConsistentHash.getMD5("key" + i).compareTo(range[1]) <= 0;
+            if (within) {
+                inRange.put("key" + i, "value" + i);
+            }
+            // the receiver holds outdated keys within the range and its own keys outside of it
+            other.write("key" + i, within && i % 2 == 0 ? "outdated" : "own" + i);
+        }
+        String staleKey = "stale";
+        while (ConsistentHash.getMD5(staleKey).compareTo(range[1]) > 0) {
+            staleKey += "!";
+        }
+        other.write(staleKey, "only the receiver has it");
+
+        File file = persist.exportRange(range);
+        RangeSnapshot snapshot = RangeSnapshot.open(file);
+        Assert.assertEquals(inRange.size(), snapshot.getEntries().size());
+        String previousHash = Metadata.MIN_MD5;
+        for (HintFile.Entry entry : snapshot.getEntries()) {
+            String hash = ConsistentHash.getMD5(entry.getKey());
+            Assert.assertTrue(hash.compareTo(previousHash) >= 0);
+            previousHash = hash;
+        }
+
+        Assert.assertEquals(inRange.size(), other.importRange(file));
+        Assert.assertTrue(file.delete());
+        Assert.assertEquals(inRange, other.readRange(range));
+        Assert.assertNull(other.read(staleKey));
+        for (int i = 0; i < 500; i++) {
+            if (!inRange.containsKey("key" + i)) {
+                Assert.assertEquals("own" + i, other.read("key" + i));
+            }
+        }
+        String ingestedKey = inRange.keySet().iterator().next();
+        other.write(ingestedKey, "written after import");
+        other.close();
+
+        StorageConfig config = new StorageConfig();
+        config.setRecoveryMode(StorageConfig.RecoveryMode.RECOVER);
+        Assert.assertTrue(other.init(SERVER_NAME + "Other", config));
+        inRange.put(ingestedKey, "written after import");
+        Assert.assertEquals(inRange, other.readRange(range));
+        other.close();
+
+        // a damaged snapshot is rejected before anything is taken over
+        file = persist.exportRange(range);
+        try (RandomAccessFile damaged = new RandomAccessFile(file, "rw")) {
+            damaged.seek(Record.HEADER_SIZE + 2);
+            damaged.write(damaged.read() ^ 0xff);
+        }
+        try {
+            persist.importRange(file);
+            Assert.fail("damaged snapshot was imported");
+        } catch (IOException expected) {
+            // expected
+        }
+        Assert.assertTrue(file.delete());
+    }
+
+    @Test
+    public void testIngestedSegmentCompactionAndRecovery() throws IOException {
+        StorageConfig config = new StorageConfig();
+        File directory = new File("ds_data" + SERVER_NAME + "/db");
+        String[] range = new String[]{Metadata.MIN_MD5, Metadata.MAX_MD5};
+        List<String[]> hashedKeys = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            hashedKeys.add(new String[]{ConsistentHash.getMD5("key" + i), "key" + i});
+        }
+        hashedKeys.sort((first, second) -> first[0].compareTo(second[0]));
+        File file = new File(directory, "ingestTest" + RangeSnapshot.SUFFIX);
+        RangeSnapshot snapshot;
+        try (RangeSnapshot.Writer writer = RangeSnapshot.create(file, range, 0)) {
+            for (String[] hashedKey : hashedKeys) {
+                writer.add(hashedKey[1], "snapshot " + hashedKey[1]);
+            }
+            snapshot = writer.finish();
+        }
+        snapshot.verify();
+
+        LogStore store = new LogStore(directory, "ingestTest", config, new Committer(config));
+        store.open();
+        for (int i = 0; i < 300; i++) {
+            store.put("key" + i, "before " + i);
+        }
+        Assert.assertEquals(200, store.ingest(snapshot, snapshot.getEntries()));
+        Assert.assertTrue(file.delete());
+        store.put("key1", "after");
+        Assert.assertEquals("snapshot key0", store.get("key0"));
+        Assert.assertEquals("before 250", store.get("key250"));
+
+        // merging the ingested segment has to keep its records newer than the ones written before it
+        Assert.assertNotNull(store.compact(0));
+        store.close();
+        store = new LogStore(directory, "ingestTest", config, new Committer(config));
+        store.recover();
+        Assert.assertEquals(300, store.size());
+        Assert.assertEquals("after", store.get("key1"));
+        Assert.assertEquals("snapshot key2", store.get("key2"));
+        Assert.assertEquals("before 299", store.get("key299"));
+        store.clear();
+        store.close();
+    }
+    @Test
+    public void testTimingWheel() {
+        TimingWheel wheel = new TimingWheel(1, 0);
+        wheel.schedule("soon", 5);
+        wheel.schedule("later", 100);
+        wheel.schedule("much later", 5000);
+        wheel.schedule("far", 300000);
+        wheel.schedule("cancelled", 50);
+        wheel.cancel("cancelled");
+        wheel.schedule("moved", 10);
+        wheel.schedule("moved", 200);
+        Assert.assertTrue(wheel.advance(4).isEmpty());
+        Assert.assertEquals(Collections.singletonList("soon"), wheel.advance(5));
+        Assert.assertTrue(wheel.advance(99).isEmpty());
+        Assert.assertEquals(Collections.singletonList("later"), wheel.advance(100));
+        Assert.assertEquals(Collections.singletonList("moved"), wheel.advance(4999));
+        Assert.assertEquals(Collections.singletonList("much later"), wheel.advance(5000));
+        Assert.assertEquals(1, wheel.size());
+        Assert.assertEquals(Collections.singletonList("far"), wheel.advance(300000));
+        Assert.assertEquals(0, wheel.size());
+        // a key scheduled in the past is due on the next turn
+        wheel.schedule("overdue", 1);
+        Assert.assertEquals(Collections.singletonList("overdue"), wheel.advance(300000));
+    }
+
+    @Test
+    public void testTimeToLive() throws Exception {
+        StorageConfig config = new StorageConfig();
+        config.setExpirationTickMillis(10);
+        Assert.assertTrue(persist.init(SERVER_NAME, config));
+        Cache cache = new Cache(10, IKVServer.CacheStrategy.LRU, persist);
+        persist.setCache(cache);
+
+        Assert.assertTrue(persist.write("session", "a", 1000));
+        persist.write("permanent", "p");
+        Assert.assertEquals("a", persist.read("session"));
+        Assert.assertEquals("a", cache.lookup("session"));
+        Assert.assertTrue(persist.checkIfExists("session"));
+        long expiresAt = persist.getExpiry("session");
+        Assert.assertTrue(expiresAt > System.currentTimeMillis());
+
+        // the stored form carries the expiry to the replicas and along with a moved range
+        HashMap<String, String> stored = persist.readAll();
+        Assert.assertEquals(expiresAt, Expiry.expiryOf(stored.get("session")));
+        Assert.assertEquals("a", Expiry.unwrap(stored.get("session")));
+        persist.writeReplicaBatch(stored);
+        Assert.assertEquals("a", persist.readReplica("session"));
+        String[] range = new String[]{Metadata.MIN_MD5, Metadata.MAX_MD5};
+        File file = persist.exportRange(range);
+        Assert.assertEquals(Collections.singletonMap("session", expiresAt), RangeSnapshot.open(file).getExpiries());
+        persist.clearStorage();
+        Assert.assertEquals(2, persist.importRange(file));
+        Assert.assertTrue(file.delete());
+        Assert.assertEquals(expiresAt, persist.getExpiry("session"));
+        Assert.assertEquals(Expiry.NEVER, persist.getExpiry("permanent"));
+
+        // deleted in the background, from the cache as well, without being read
+        Assert.assertTrue(cache.inCache("session") || cache.lookup("session") != null);
+        long deadline = System.currentTimeMillis() + 5000;
+        // the replica copy of the key may be purged, and dropped from the cache, before the primary one
+        while ((cache.inCache("session") || persist.checkIfExists("session"))
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(cache.inCache("session"));
+        Assert.assertFalse(persist.checkIfExists("session"));
+        Assert.assertNull(persist.read("session"));
+        Assert.assertNull(persist.readReplica("session"));
+        Assert.assertFalse(persist.readAll().containsKey("session"));
+        Assert.assertEquals("p", persist.read("permanent"));
+
+        // writing a key again without a time to live takes it off the wheel
+        persist.write("renewed", "old", 50);
+        Assert.assertFalse(persist.write("renewed", "new"));
+        Thread.sleep(100);
+        Assert.assertEquals("new", persist.read("renewed"));
+        persist.close();
+
+        // without background expiration keys are only dropped when they are read
+        config.setExpirationTickMillis(0);
+        Assert.assertTrue(persist.init(SERVER_NAME, config));
+        persist.setCache(cache);
+        persist.write("lazy", "v", 50);
+        Assert.assertEquals("v", cache.lookup("lazy"));
+        Thread.sleep(100);
+        Assert.assertNull(cache.lookup("lazy"));
+        Assert.assertFalse(persist.checkIfExists("lazy"));
+        Assert.assertTrue(persist.write("lazy", "again", 0));
+        persist.writeBatch(Collections.singletonMap("arrived expired", Expiry.wrap("v", 1)));
+        Assert.assertNull(persist.read("arrived expired"));
+        persist.close();
+    }
+}